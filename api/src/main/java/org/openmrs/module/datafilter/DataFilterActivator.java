@@ -9,12 +9,20 @@
  */
 package org.openmrs.module.datafilter;
 
-import org.openmrs.api.APIException;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+import org.openmrs.module.datafilter.impl.AccessibleLocationCache;
+import org.openmrs.module.datafilter.impl.AccessiblePersonCache;
+import org.openmrs.module.datafilter.impl.EncounterTypePrivilegeCache;
+import org.openmrs.module.datafilter.impl.FullTextFilterCache;
+import org.openmrs.module.datafilter.impl.LocationHierarchy;
+import org.openmrs.module.datafilter.impl.PatientLocationIndexer;
+import org.openmrs.module.datafilter.impl.ProgramRoleIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DataFilterActivator extends BaseModuleActivator {
+public class DataFilterActivator extends BaseModuleActivator implements DaemonTokenAware {
 	
 	private static final Logger log = LoggerFactory.getLogger(DataFilterActivator.class);
 	
@@ -23,14 +31,40 @@ public class DataFilterActivator extends BaseModuleActivator {
 	 */
 	@Override
 	public void started() {
+		PatientLocationIndexer.reindexAllIfRequired();
 		log.info("Data Filter Module started");
 	}
 	
+	/**
+	 * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+	 */
+	@Override
+	public void setDaemonToken(DaemonToken token) {
+		PatientLocationIndexer.setDaemonToken(token);
+	}
+	
+	/**
+	 * @see BaseModuleActivator#willStop()
+	 */
+	@Override
+	public void willStop() {
+		Util.removeFilterConfigProperties();
+	}
+	
 	/**
 	 * @see BaseModuleActivator#stopped()
 	 */
 	@Override
 	public void stopped() {
+		GlobalPropertyCache.clear();
+		FilterListenerIndex.clear();
+		LocationHierarchy.clear();
+		AccessiblePersonCache.clear();
+		AccessibleLocationCache.clear();
+		EncounterTypePrivilegeCache.clear();
+		ProgramRoleIndex.clear();
+		FullTextFilterCache.clear();
+		FilterSnapshotCache.invalidate();
 		log.info("Data Filter Module stopped");
 	}
 	
@@ -41,25 +75,12 @@ public class DataFilterActivator extends BaseModuleActivator {
 	public void willRefreshContext() {
 		log.info("Start: Data Filter Module willRefreshContext");
 		
-		try {
-			Util.initializeFilters();
-		}
-		catch (ReflectiveOperationException e) {
-			throw new APIException(e);
-		}
+		Util.initializeFilters();
+		
+		GlobalPropertyCache.clear();
+		FilterSnapshotCache.invalidate();
 		
 		log.info("End: Data Filter Module willRefreshContext");
 	}
 	
-	/**
-	 * @see BaseModuleActivator#willStop()
-	 */
-	@Override
-	public void willStop() {
-		if (log.isInfoEnabled()) {
-			log.info("Removing filter annotations");
-		}
-		//TODO Remove Annotations
-	}
-	
 }
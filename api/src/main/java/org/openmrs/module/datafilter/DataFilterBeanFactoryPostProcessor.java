@@ -43,6 +43,8 @@ import org.springframework.stereotype.Component;
  * 
  * <pre>
  * <ul>
+ * <li>Switch the session factory bean class to {@link DataFilterSessionFactoryBean} which adds the
+ * filters of entities mapped with annotations to the mapping metadata</li>
  * <li>Find all filtered entities that are mapped using xml and load the contents of their hbm
  * files</li>
  * <li>Apply an xslt to all their hbm files to add the filter tags</li>
@@ -75,6 +77,16 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
 		log.info("In datafilter's BeanFactoryPostProcessor");
 		
+		final BeanDefinition beanDefinition = beanFactory.getBeanDefinition(SESSION_FACTORY_BEAN_NAME);
+		final String timestamp = new Long(System.currentTimeMillis()).toString();
+		
+		//Our session factory bean adds the filters of annotated classes to the mappings and those of module
+		//hbm files to the transformed files it writes to the filtered resources location
+		File transformedResourcesRepo = FileUtils.getFile(FileUtils.getTempDirectory(), MODULE_ID, timestamp);
+		beanDefinition.getPropertyValues().addPropertyValue("filteredResourcesLocation",
+		    transformedResourcesRepo.getAbsolutePath());
+		beanDefinition.setBeanClassName(DataFilterSessionFactoryBean.class.getName());
+		
 		Map<Class, List<HibernateFilterRegistration>> classFiltersMap = Util.getClassFiltersMap();
 		if (classFiltersMap.isEmpty()) {
 			return;
@@ -86,8 +98,6 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 		
 		log.info("Reconfiguring the sessionFactory bean's configLocations");
 		
-		final BeanDefinition beanDefinition = beanFactory.getBeanDefinition(SESSION_FACTORY_BEAN_NAME);
-		
 		ManagedList<TypedStringValue> configLocations = (ManagedList) beanDefinition.getPropertyValues()
 		        .get(CFG_LOC_PROP_NAME);
 		
@@ -108,7 +118,6 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 			        CORE_HIBERNATE_CFG_FILE + " entry not found among configLocations");
 		}
 		
-		final String timestamp = new Long(System.currentTimeMillis()).toString();
 		Map<String, String> oldAndTransformedMappingFiles = createTransformedMappingFiles(classFiltersMap, timestamp);
 		if (oldAndTransformedMappingFiles.isEmpty()) {
 			return;
@@ -134,11 +143,6 @@ public class DataFilterBeanFactoryPostProcessor implements BeanFactoryPostProces
 		configLocations.remove(candidate.get());
 		configLocations.add(new TypedStringValue("file:" + newCfgFilePath));
 		
-		File transformedResourcesRepo = FileUtils.getFile(FileUtils.getTempDirectory(), MODULE_ID, timestamp);
-		beanDefinition.getPropertyValues().addPropertyValue("filteredResourcesLocation",
-		    transformedResourcesRepo.getAbsolutePath());
-		beanDefinition.setBeanClassName(DataFilterSessionFactoryBean.class.getName());
-		
 		log.info("Successfully reconfigured the sessionFactory bean's configLocations to: " + configLocations.stream()
 		        .map(typedStringValue -> typedStringValue.getValue()).collect(Collectors.toList()));
 	}
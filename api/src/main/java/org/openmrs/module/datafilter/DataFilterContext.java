@@ -10,6 +10,7 @@
 package org.openmrs.module.datafilter;
 
 import java.util.Map;
+import java.util.function.LongSupplier;
 
 /**
  * An object used to pass information between the data filter framework and a
@@ -21,6 +22,12 @@ public class DataFilterContext {
 	
 	private Map<String, Map<String, Object>> filterAndParamValueMap;
 	
+	private String strategy;
+	
+	private LongSupplier generationSource;
+	
+	private long generation;
+	
 	public DataFilterContext(String filterName, Map<String, Map<String, Object>> filterAndParamValueMap) {
 		this.filterName = filterName;
 		this.filterAndParamValueMap = filterAndParamValueMap;
@@ -45,4 +52,54 @@ public class DataFilterContext {
 		filterAndParamValueMap.get(filterName).put(parameterName, value);
 	}
 	
+	/**
+	 * Gets the strategy
+	 *
+	 * @return the strategy
+	 */
+	public String getStrategy() {
+		return strategy;
+	}
+	
+	/**
+	 * Sets the strategy to use for the filter, the filter registration declaring it as an alternative
+	 * strategy for the filter gets enabled instead of the filter itself with the same parameter values
+	 * 
+	 * @param strategy the name of the strategy to set
+	 */
+	public void setStrategy(String strategy) {
+		this.strategy = strategy;
+	}
+	
+	/**
+	 * Gets the generationSource
+	 *
+	 * @return the generationSource
+	 */
+	public LongSupplier getGenerationSource() {
+		return generationSource;
+	}
+	
+	/**
+	 * Gets the generation
+	 *
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Marks the parameter values as resolved from data that changes more often than the filter
+	 * snapshots are discarded, the cached snapshot is recreated once the specified source returns a
+	 * generation other than the specified one.
+	 * 
+	 * @param generationSource the source of the current generation of the data
+	 * @param generation the generation read before the parameter values were resolved
+	 */
+	public void setGeneration(LongSupplier generationSource, long generation) {
+		this.generationSource = generationSource;
+		this.generation = generation;
+	}
+	
 }
@@ -9,9 +9,12 @@
  */
 package org.openmrs.module.datafilter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -24,11 +27,13 @@ import org.hibernate.Session;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.openmrs.User;
 import org.openmrs.UserSessionListener;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.Daemon;
 import org.openmrs.module.datafilter.registration.FilterParameter;
 import org.openmrs.module.datafilter.registration.FilterRegistration;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.openmrs.module.datafilter.registration.ParameterListBinding;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.orm.hibernate4.SpringSessionContext;
@@ -105,66 +110,180 @@ public class DataFilterSessionContext extends SpringSessionContext {
 				log.debug("Enabling filters on the current session");
 			}
 			
-			//When AccessUtil.isFilterDisabled is called, it triggers a call to SessionFactory.getCurrentSession()
-			//which gets us back here and we don't want that to happen, see beginning of this method.
-			tempSessionHolder.set(session);
-			Set<String> enabledFilters = new HashSet();
-			try {
-				for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
-					if (!Util.skipFilter(registration.getName())) {
-						enabledFilters.add(registration.getName());
-					}
+			FilterSnapshot snapshot = getFilterSnapshot(session);
+			for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+				if (snapshot.isEnabled(registration.getName())) {
+					enableFilter(registration, snapshot.getParameters(registration.getName()), session);
+				} else {
+					session.disableFilter(registration.getName());
 				}
 			}
-			finally {
-				tempSessionHolder.remove();
-			}
-			
-			Map<String, Map<String, Object>> filterParamsMap = new HashMap();
 			
-			filterLoop: for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
-				if (enabledFilters.contains(registration.getName())) {
-					if (CollectionUtils.isNotEmpty(registration.getParameters())) {
-						filterParamsMap.put(registration.getName(), new HashMap());
-					}
-					
+			return session;
+		}
+		finally {
+			areFiltersSet.set(true);
+		}
+	}
+	
+	/**
+	 * Gets the cached {@link FilterSnapshot} for the authenticated user, if none exists it gets created
+	 * and cached, no caching takes place if there is no authenticated user.
+	 *
+	 * @param session the current session
+	 * @return the filter snapshot
+	 */
+	private FilterSnapshot getFilterSnapshot(Session session) {
+		FilterSnapshotKey key = null;
+		if (Context.isAuthenticated()) {
+			key = FilterSnapshotCache.createKey(Context.getAuthenticatedUser());
+			FilterSnapshot snapshot = FilterSnapshotCache.get(key);
+			if (snapshot != null && !snapshot.isStale()) {
+				return snapshot;
+			}
+		}
+		
+		FilterSnapshot snapshot = createFilterSnapshot(session);
+		if (key != null) {
+			FilterSnapshotCache.put(key, snapshot);
+		}
+		
+		return snapshot;
+	}
+	
+	/**
+	 * Evaluates the filter registrations, global properties and {@link DataFilterListener}s to
+	 * determine the filters to enable for the authenticated user along with their parameter values.
+	 *
+	 * @param session the current session
+	 * @return the created filter snapshot
+	 */
+	private FilterSnapshot createFilterSnapshot(Session session) {
+		//When AccessUtil.isFilterDisabled is called, it triggers a call to SessionFactory.getCurrentSession()
+		//which gets us back here and we don't want that to happen, see beginning of currentSession method.
+		tempSessionHolder.set(session);
+		Set<String> enabledFilters = new HashSet();
+		try {
+			for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+				//Alternative strategies are only enabled in place of the filters they belong to
+				if (registration.getStrategyOf() == null && !Util.skipFilter(registration.getName())) {
+					enabledFilters.add(registration.getName());
+				}
+			}
+		}
+		finally {
+			tempSessionHolder.remove();
+		}
+		
+		Map<String, Map<String, Object>> filterParamsMap = new HashMap();
+		Map<String, Map<String, Object>> snapshotFilterParamsMap = new LinkedHashMap();
+		Map<String, String> strategies = new HashMap();
+		List<DataFilterContext> generationContexts = new ArrayList();
+		
+		Set<String> evaluatedFilters = new HashSet();
+		filterLoop: for (HibernateFilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+			//Registrations sharing a name apply the same filter to different classes, so it's evaluated once
+			if (enabledFilters.contains(registration.getName()) && evaluatedFilters.add(registration.getName())) {
+				if (hasParameters(registration.getName())) {
+					filterParamsMap.put(registration.getName(), new HashMap());
+				}
+				
+				HibernateFilterRegistration registrationToEnable = registration;
+				DataFilterListener listener = FilterListenerIndex.getListener(registration.getName());
+				if (listener != null) {
 					DataFilterContext filterContext = new DataFilterContext(registration.getName(), filterParamsMap);
-					List<DataFilterListener> listeners = Context.getRegisteredComponents(DataFilterListener.class);
-					//Just in case any listener makes a call to the DB
+					//Just in case the listener makes a call to the DB
 					tempSessionHolder.set(session);
 					try {
-						for (DataFilterListener listener : listeners) {
-							if (listener.supports(registration.getName())) {
-								//In theory, expect one listener per filter, since we found one, no more will get called.
-								//TODO During filter registration, check for cases where a filter has multiple listeners
-								boolean enable = listener.onEnableFilter(filterContext);
-								if (!enable) {
-									enabledFilters.remove(registration.getName());
-									session.disableFilter(registration.getName());
-									//Don't call anymore filters since we've found one.
-									continue filterLoop;
-								}
-								
-								//Don't call anymore filters since we've found one.
-								break;
-							}
+						if (!listener.onEnableFilter(filterContext)) {
+							enabledFilters.remove(registration.getName());
+							continue filterLoop;
 						}
 					}
 					finally {
 						tempSessionHolder.remove();
 					}
 					
-					enableFilter(registration, filterParamsMap.get(registration.getName()), session);
-				} else {
-					session.disableFilter(registration.getName());
+					if (filterContext.getStrategy() != null) {
+						registrationToEnable = getStrategyRegistration(registration, filterContext.getStrategy());
+						strategies.put(registration.getName(), filterContext.getStrategy());
+					}
+					
+					if (filterContext.getGenerationSource() != null) {
+						generationContexts.add(filterContext);
+					}
 				}
+				
+				Map<String, Object> paramNameValueMap = filterParamsMap.get(registration.getName());
+				if (paramNameValueMap != null && isPadded(registration.getName(), strategies.get(registration.getName()))) {
+					paramNameValueMap.replaceAll((name, value) -> padParameterList(value));
+				}
+				
+				snapshotFilterParamsMap.put(registrationToEnable.getName(), paramNameValueMap);
 			}
-			
-			return session;
 		}
-		finally {
-			areFiltersSet.set(true);
+		
+		FilterSnapshot snapshot = new FilterSnapshot(snapshotFilterParamsMap, strategies, generationContexts);
+		if (log.isDebugEnabled()) {
+			log.debug("Created " + snapshot);
+		}
+		
+		return snapshot;
+	}
+	
+	/**
+	 * Checks if any registration of the filter with the specified name declares parameters
+	 *
+	 * @param filterName the name of the filter
+	 * @return true if the filter has parameters otherwise false
+	 */
+	private boolean hasParameters(String filterName) {
+		for (HibernateFilterRegistration candidate : Util.getHibernateFilterRegistrations()) {
+			if (filterName.equals(candidate.getName()) && CollectionUtils.isNotEmpty(candidate.getParameters())) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if the list parameters of the filter with the specified name should be padded, i.e. if any
+	 * registration of the filter or of the specified strategy of the filter binds them padded
+	 *
+	 * @param filterName the name of the filter
+	 * @param strategy the name of the strategy enabled in place of the filter or null
+	 * @return true if the list parameters should be padded otherwise false
+	 */
+	private boolean isPadded(String filterName, String strategy) {
+		for (HibernateFilterRegistration candidate : Util.getHibernateFilterRegistrations()) {
+			boolean matches = strategy == null ? filterName.equals(candidate.getName())
+			        : filterName.equals(candidate.getStrategyOf()) && strategy.equals(candidate.getStrategy());
+			if (matches && candidate.getParameterListBinding() == ParameterListBinding.PADDED) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Gets the registration of the specified strategy of the specified filter registration
+	 *
+	 * @param registration the filter registration
+	 * @param strategy the name of the strategy
+	 * @return the registration of the strategy
+	 * @throws APIException if the filter has no such strategy
+	 */
+	private HibernateFilterRegistration getStrategyRegistration(HibernateFilterRegistration registration,
+	                                                            String strategy) {
+		for (HibernateFilterRegistration candidate : Util.getHibernateFilterRegistrations()) {
+			if (registration.getName().equals(candidate.getStrategyOf()) && strategy.equals(candidate.getStrategy())) {
+				return candidate;
+			}
 		}
+		
+		throw new APIException("No strategy named " + strategy + " is registered for the filter " + registration.getName());
 	}
 	
 	private void enableFilter(HibernateFilterRegistration registration, Map<String, Object> paramNameValueMap,
@@ -190,6 +309,37 @@ public class DataFilterSessionContext extends SpringSessionContext {
 		
 	}
 	
+	/**
+	 * Pads the specified collection or array value to the next power of 2 by repeating its last
+	 * element, the padded lists are computed once per snapshot so the sql strings hibernate generates
+	 * for a filter only vary with the bucket and not the exact size of the list.
+	 *
+	 * @param value the parameter value to pad
+	 * @return the padded list if the value is a collection or an array otherwise the value itself
+	 */
+	static Object padParameterList(Object value) {
+		List<Object> values;
+		if (value instanceof Collection) {
+			values = new ArrayList((Collection) value);
+		} else if (value instanceof Object[]) {
+			values = new ArrayList(Arrays.asList((Object[]) value));
+		} else {
+			return value;
+		}
+		
+		if (values.size() < 2) {
+			return values;
+		}
+		
+		final int bucketSize = Integer.highestOneBit(values.size() - 1) << 1;
+		final Object last = values.get(values.size() - 1);
+		while (values.size() < bucketSize) {
+			values.add(last);
+		}
+		
+		return values;
+	}
+	
 	private void disableAllFilters(Session session) {
 		for (FilterRegistration registration : Util.getHibernateFilterRegistrations()) {
 			session.disableFilter(registration.getName());
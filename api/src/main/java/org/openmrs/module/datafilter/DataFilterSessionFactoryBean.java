@@ -11,9 +11,11 @@ package org.openmrs.module.datafilter;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import org.hibernate.SessionFactory;
 import org.openmrs.api.db.hibernate.HibernateSessionFactoryBean;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.openmrs.util.OpenmrsClassLoader;
@@ -22,6 +24,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.orm.hibernate4.LocalSessionFactoryBean;
+import org.springframework.orm.hibernate4.LocalSessionFactoryBuilder;
 
 public class DataFilterSessionFactoryBean extends HibernateSessionFactoryBean {
 	
@@ -56,10 +60,11 @@ public class DataFilterSessionFactoryBean extends HibernateSessionFactoryBean {
 		List<String> nonFilteredModuleResources = new ArrayList();
 		List<String> filteredModuleHbmFiles = new ArrayList();
 		File outputDir = new File(filteredResourcesLocation);
+		Map<String, String> resourceClassnames = Util.getMappedClassNames(Arrays.asList(moduleMappingResourcesToAdd));
 		
 		for (int i = 0; i < moduleMappingResourcesToAdd.length; i++) {
 			String resource = moduleMappingResourcesToAdd[i];
-			String classname = Util.getMappedClassName(resource);
+			String classname = resourceClassnames.get(resource);
 			if (classname == null) {
 				//Some module hbm files are actually empty
 				nonFilteredModuleResources.add(resource);
@@ -97,4 +102,16 @@ public class DataFilterSessionFactoryBean extends HibernateSessionFactoryBean {
 		super.setMappingLocations(resourcesLocations.toArray(new Resource[] {}));
 	}
 	
+	/**
+	 * @see LocalSessionFactoryBean#buildSessionFactory(LocalSessionFactoryBuilder)
+	 */
+	@Override
+	protected SessionFactory buildSessionFactory(LocalSessionFactoryBuilder sfb) {
+		//The mappings need to be built first so that the filters can be added to them
+		sfb.buildMappings();
+		FilterMetadataContributor.contribute(sfb, Util.getHibernateFilterRegistrations());
+		
+		return super.buildSessionFactory(sfb);
+	}
+	
 }
@@ -0,0 +1,145 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.registration.FilterRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maps the name of each registered filter to the {@link DataFilterListener} that supports it, the
+ * index is built once when the application context is refreshed i.e. at startup and every time a
+ * module is started or stopped so that listeners don't have to be looked up and asked whether they
+ * support a filter every time it is enabled.
+ */
+public final class FilterListenerIndex {
+	
+	private static final Logger log = LoggerFactory.getLogger(FilterListenerIndex.class);
+	
+	private static volatile Map<String, DataFilterListener> filterListenerMap;
+	
+	private FilterListenerIndex() {
+	}
+	
+	/**
+	 * Gets the listener that supports the filter with the specified name, the index is built if it is
+	 * not yet built.
+	 *
+	 * @param filterName the name of the filter
+	 * @return the listener or null if no listener supports the filter
+	 */
+	public static DataFilterListener getListener(String filterName) {
+		Map<String, DataFilterListener> map = filterListenerMap;
+		if (map == null) {
+			map = build();
+		}
+		
+		return map.get(filterName);
+	}
+	
+	/**
+	 * Discards the index, it will be rebuilt the next time a listener is requested.
+	 */
+	public static synchronized void clear() {
+		filterListenerMap = null;
+	}
+	
+	/**
+	 * Rebuilds the index from the currently registered listeners and filter registrations.
+	 *
+	 * @throws APIException if more than one listener supports the same filter
+	 */
+	public static synchronized void rebuild() {
+		filterListenerMap = null;
+		build();
+	}
+	
+	private static synchronized Map<String, DataFilterListener> build() {
+		if (filterListenerMap != null) {
+			return filterListenerMap;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Building filter listener index");
+		}
+		
+		Map<String, DataFilterListener> map = new HashMap();
+		List<DataFilterListener> listeners = Context.getRegisteredComponents(DataFilterListener.class);
+		if (!listeners.isEmpty()) {
+			for (String filterName : getFilterNames()) {
+				for (DataFilterListener listener : listeners) {
+					if (!listener.supports(filterName)) {
+						continue;
+					}
+					
+					DataFilterListener existing = map.put(filterName, listener);
+					if (existing != null) {
+						throw new APIException("Found multiple listeners for the filter named " + filterName + ": "
+						        + existing.getClass().getName() + " and " + listener.getClass().getName());
+					}
+				}
+			}
+		}
+		
+		filterListenerMap = Collections.unmodifiableMap(map);
+		if (log.isDebugEnabled()) {
+			log.debug("Found listeners for " + map.size() + " filter(s)");
+		}
+		
+		return filterListenerMap;
+	}
+	
+	private static Set<String> getFilterNames() {
+		Set<String> filterNames = new LinkedHashSet();
+		for (FilterRegistration registration : Util.getHibernateFilterRegistrations()) {
+			filterNames.add(registration.getName());
+		}
+		
+		for (FilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+			filterNames.add(registration.getName());
+		}
+		
+		return filterNames;
+	}
+	
+	/**
+	 * Rebuilds the index every time the application context is refreshed, this implies that startup
+	 * fails if more than one listener supports the same filter.
+	 */
+	@Component(MODULE_ID + "FilterListenerIndexBuilder")
+	public static class FilterListenerIndexBuilder implements ApplicationListener<ContextRefreshedEvent> {
+		
+		/**
+		 * @see ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+		 */
+		@Override
+		public void onApplicationEvent(ContextRefreshedEvent event) {
+			rebuild();
+			//Snapshots contain the outcome of calling the old listeners
+			FilterSnapshotCache.invalidate();
+		}
+		
+	}
+	
+}
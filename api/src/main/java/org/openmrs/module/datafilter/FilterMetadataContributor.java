@@ -0,0 +1,160 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Entity;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.FilterDefinition;
+import org.hibernate.internal.FilterConfiguration;
+import org.hibernate.mapping.Filterable;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.type.Type;
+import org.openmrs.api.APIException;
+import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds the hibernate filters of persistent classes mapped with annotations and those of collection
+ * properties directly to the mapping metadata of a hibernate {@link Configuration} after the
+ * mappings are built and before the session factory is created, filters for classes mapped with
+ * xml are added to their hbm files by {@link DataFilterBeanFactoryPostProcessor}. Nothing is added
+ * to the classes themselves, the filters only live in the metadata of the session factory that is
+ * built so they are gone with it when the module is stopped, and contributing the same
+ * registrations again to a configuration is harmless since existing filters are skipped.
+ */
+public final class FilterMetadataContributor {
+	
+	private static final Logger log = LoggerFactory.getLogger(FilterMetadataContributor.class);
+	
+	private FilterMetadataContributor() {
+	}
+	
+	/**
+	 * Adds the filter definitions and filters for the specified filter registrations to the specified
+	 * configuration, the mappings of the configuration must have been built.
+	 *
+	 * @param cfg the {@link Configuration} to add the filters to
+	 * @param registrations the filter registrations to add
+	 */
+	public static void contribute(Configuration cfg, List<HibernateFilterRegistration> registrations) {
+		log.info("Adding filters to the hibernate mapping metadata");
+		
+		String dialect = StringUtils.defaultIfBlank(cfg.getProperty(Environment.DIALECT), Util.getDialect());
+		for (HibernateFilterRegistration registration : registrations) {
+			if (registration.getProperty() == null) {
+				for (Class clazz : registration.getTargetClasses()) {
+					if (!clazz.isAnnotationPresent(Entity.class)) {
+						continue;
+					}
+					
+					PersistentClass persistentClass = cfg.getClassMapping(clazz.getName());
+					if (persistentClass == null) {
+						log.warn("Skipping filter " + registration.getName() + " because no mapping was found for "
+						        + clazz.getName());
+						continue;
+					}
+					
+					addFilterDefinition(cfg, registration);
+					addFilter(cfg, persistentClass, registration, dialect);
+				}
+			} else {
+				//This is a filter to be applied to a property
+				if (registration.getTargetClasses().size() > 1) {
+					throw new APIException("Only one target class can be defined for a filter added to a property");
+				}
+				
+				final String role = registration.getTargetClasses().get(0).getName() + "." + registration.getProperty();
+				org.hibernate.mapping.Collection collection = cfg.getCollectionMapping(role);
+				if (collection == null) {
+					throw new APIException("No collection mapping found for the property " + role);
+				}
+				
+				addFilter(cfg, collection, registration, dialect);
+			}
+		}
+		
+		log.info("Successfully added filters to the hibernate mapping metadata");
+	}
+	
+	/**
+	 * Adds the filter definition for the specified registration to the configuration if it doesn't
+	 * exist yet
+	 *
+	 * @param cfg the {@link Configuration} object
+	 * @param registration the filter registration
+	 */
+	private static void addFilterDefinition(Configuration cfg, HibernateFilterRegistration registration) {
+		if (cfg.getFilterDefinitions().containsKey(registration.getName())) {
+			return;
+		}
+		
+		Map<String, Type> parameterTypes = new HashMap();
+		if (CollectionUtils.isNotEmpty(registration.getParameters())) {
+			for (HibernateFilterParameter parameter : registration.getParameters()) {
+				Type type = cfg.getTypeResolver().heuristicType(parameter.getType());
+				if (type == null) {
+					throw new APIException("Unknown type " + parameter.getType() + " for the parameter "
+					        + parameter.getName() + " of the filter " + registration.getName());
+				}
+				
+				parameterTypes.put(parameter.getName(), type);
+			}
+		}
+		
+		String defaultCondition = StringUtils.trimToNull(registration.getDefaultCondition());
+		cfg.addFilterDefinition(new FilterDefinition(registration.getName(), defaultCondition, parameterTypes));
+	}
+	
+	/**
+	 * Adds the filter for the specified registration to the specified mapping if it doesn't have a
+	 * filter with the same name yet
+	 *
+	 * @param cfg the {@link Configuration} object
+	 * @param filterable the mapping to add the filter to
+	 * @param registration the filter registration
+	 * @param dialect the configured dialect used to select the condition
+	 */
+	private static void addFilter(Configuration cfg, Filterable filterable, HibernateFilterRegistration registration,
+	                              String dialect) {
+		for (FilterConfiguration filter : filterable.getFilters()) {
+			if (filter.getName().equals(registration.getName())) {
+				return;
+			}
+		}
+		
+		String condition = registration.getCondition(dialect);
+		if (StringUtils.isBlank(condition)) {
+			//Just like hibernate does for annotations, fall back to the condition of the definition
+			FilterDefinition definition = cfg.getFilterDefinitions().get(registration.getName());
+			condition = definition == null ? null : definition.getDefaultFilterCondition();
+			if (StringUtils.isBlank(condition)) {
+				throw new APIException("No condition found for the filter " + registration.getName());
+			}
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Adding filter " + registration.getName() + " to " + filterable);
+		}
+		
+		filterable.addFilter(registration.getName(), condition, true, Collections.emptyMap(), Collections.emptyMap());
+	}
+	
+}
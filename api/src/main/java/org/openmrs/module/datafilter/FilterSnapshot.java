@@ -0,0 +1,170 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * An immutable view of the hibernate filters to enable for a user along with the resolved values of
+ * their parameters, it is what {@link DataFilterSessionContext} applies to a session once the filter
+ * registrations, global properties and {@link DataFilterListener}s have been evaluated.
+ */
+public final class FilterSnapshot {
+	
+	private final Map<String, Map<String, Object>> filterParamsMap;
+	
+	private final Map<String, String> strategies;
+	
+	private final LongSupplier[] generationSources;
+	
+	private final long[] generations;
+	
+	/**
+	 * @param filterParamsMap map of the names of the enabled filters and their parameter values, the
+	 *            iteration order of the map is preserved
+	 */
+	public FilterSnapshot(Map<String, Map<String, Object>> filterParamsMap) {
+		this(filterParamsMap, Collections.emptyMap());
+	}
+	
+	/**
+	 * @param filterParamsMap map of the names of the enabled filters and their parameter values, the
+	 *            iteration order of the map is preserved
+	 * @param strategies map of the names of the filters and the strategies selected for them
+	 */
+	public FilterSnapshot(Map<String, Map<String, Object>> filterParamsMap, Map<String, String> strategies) {
+		this(filterParamsMap, strategies, Collections.emptyList());
+	}
+	
+	/**
+	 * @param filterParamsMap map of the names of the enabled filters and their parameter values, the
+	 *            iteration order of the map is preserved
+	 * @param strategies map of the names of the filters and the strategies selected for them
+	 * @param contexts the filter contexts that declared a generation for their parameter values, see
+	 *            {@link DataFilterContext#setGeneration(LongSupplier, long)}
+	 */
+	public FilterSnapshot(Map<String, Map<String, Object>> filterParamsMap, Map<String, String> strategies,
+	                      List<DataFilterContext> contexts) {
+		Map<String, Map<String, Object>> copy = new LinkedHashMap(filterParamsMap.size());
+		for (Map.Entry<String, Map<String, Object>> entry : filterParamsMap.entrySet()) {
+			Map<String, Object> params = Collections.emptyMap();
+			if (entry.getValue() != null && !entry.getValue().isEmpty()) {
+				params = new HashMap(entry.getValue().size());
+				for (Map.Entry<String, Object> paramEntry : entry.getValue().entrySet()) {
+					params.put(paramEntry.getKey(), copyValue(paramEntry.getValue()));
+				}
+				params = Collections.unmodifiableMap(params);
+			}
+			
+			copy.put(entry.getKey(), params);
+		}
+		
+		this.filterParamsMap = Collections.unmodifiableMap(copy);
+		this.strategies = Collections.unmodifiableMap(new HashMap(strategies));
+		generationSources = new LongSupplier[contexts.size()];
+		generations = new long[contexts.size()];
+		for (int i = 0; i < contexts.size(); i++) {
+			generationSources[i] = contexts.get(i).getGenerationSource();
+			generations[i] = contexts.get(i).getGeneration();
+		}
+	}
+	
+	/**
+	 * Gets the names of the filters to enable
+	 *
+	 * @return a set of filter names
+	 */
+	public Set<String> getEnabledFilters() {
+		return filterParamsMap.keySet();
+	}
+	
+	/**
+	 * Checks if the filter with the specified name should be enabled
+	 *
+	 * @param filterName the filter name to check
+	 * @return true if the filter should be enabled otherwise false
+	 */
+	public boolean isEnabled(String filterName) {
+		return filterParamsMap.containsKey(filterName);
+	}
+	
+	/**
+	 * Gets the resolved parameter values for the enabled filter with the specified name
+	 *
+	 * @param filterName the filter name to match
+	 * @return a map of parameter names and values or null if the filter is not enabled
+	 */
+	public Map<String, Object> getParameters(String filterName) {
+		return filterParamsMap.get(filterName);
+	}
+	
+	/**
+	 * Gets the strategy selected for the filter with the specified name, useful for diagnostics
+	 *
+	 * @param filterName the filter name to match
+	 * @return the name of the strategy or null if the filter uses its own condition or is not enabled
+	 */
+	public String getStrategy(String filterName) {
+		return strategies.get(filterName);
+	}
+	
+	/**
+	 * Gets the strategies selected for the filters, useful for diagnostics
+	 *
+	 * @return a map of filter names and the names of the strategies selected for them
+	 */
+	public Map<String, String> getStrategies() {
+		return strategies;
+	}
+	
+	/**
+	 * Checks if any of the data the parameter values were resolved from has changed since, such a
+	 * snapshot should be recreated even if the cache still holds it
+	 *
+	 * @return true if the snapshot is stale otherwise false
+	 */
+	public boolean isStale() {
+		for (int i = 0; i < generationSources.length; i++) {
+			if (generationSources[i].getAsLong() != generations[i]) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public String toString() {
+		return "FilterSnapshot{enabledFilters=" + filterParamsMap.keySet() + ", strategies=" + strategies + "}";
+	}
+	
+	/**
+	 * Listeners are free to keep references to the collections they pass as parameter values, we take
+	 * a copy so that the snapshot can't be changed once it is cached.
+	 */
+	private static Object copyValue(Object value) {
+		if (value instanceof Collection) {
+			return Collections.unmodifiableList(new ArrayList((Collection) value));
+		} else if (value instanceof Object[]) {
+			return ((Object[]) value).clone();
+		}
+		
+		return value;
+	}
+	
+}
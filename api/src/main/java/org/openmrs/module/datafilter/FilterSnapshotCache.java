@@ -0,0 +1,262 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches a {@link FilterSnapshot} per authenticated user so that {@link DataFilterSessionContext}
+ * doesn't have to evaluate the filter registrations, global properties and
+ * {@link DataFilterListener}s for every new session, the cache holds a bounded number of snapshots
+ * and the least recently used ones are evicted first.
+ *
+ * <pre>
+ * Any change to the data used to build the snapshots e.g. granting or revoking access must be
+ * followed by a call to {@link #invalidate()} which bumps the assignment version, this implies
+ * all previously created keys stop matching and their snapshots eventually get evicted.
+ * </pre>
+ */
+public final class FilterSnapshotCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(FilterSnapshotCache.class);
+	
+	protected static final int MAX_SIZE = 1000;
+	
+	private static final AtomicLong version = new AtomicLong();
+	
+	private static final AtomicLong hits = new AtomicLong();
+	
+	private static final AtomicLong misses = new AtomicLong();
+	
+	private static final AtomicLong evictions = new AtomicLong();
+	
+	private static final Map<FilterSnapshotKey, FilterSnapshot> snapshots = newLruMap();
+	
+	private static final Map<FilterSnapshotKey, Map<Class<?>, FilterSnapshot>> fullTextSnapshots = newLruMap();
+	
+	private FilterSnapshotCache() {
+	}
+	
+	private static <V> Map<FilterSnapshotKey, V> newLruMap() {
+		return new LinkedHashMap<FilterSnapshotKey, V>(16, 0.75f, true) {
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<FilterSnapshotKey, V> eldest) {
+				if (size() > MAX_SIZE) {
+					evictions.incrementAndGet();
+					if (log.isDebugEnabled()) {
+						log.debug("Evicting filter snapshot for " + eldest.getKey());
+					}
+					
+					return true;
+				}
+				
+				return false;
+			}
+			
+		};
+	}
+	
+	/**
+	 * Creates the snapshot key for the specified user using the current assignment version
+	 *
+	 * @param user the user to create the key for
+	 * @return the key
+	 */
+	public static FilterSnapshotKey createKey(User user) {
+		return FilterSnapshotKey.create(user, version.get());
+	}
+	
+	/**
+	 * Gets the current assignment version, it changes every time the cache is invalidated
+	 *
+	 * @return the assignment version
+	 */
+	public static long getVersion() {
+		return version.get();
+	}
+	
+	/**
+	 * Gets the cached snapshot matching the specified key
+	 *
+	 * @param key the key to match
+	 * @return the cached snapshot or null if none is found
+	 */
+	public static FilterSnapshot get(FilterSnapshotKey key) {
+		FilterSnapshot snapshot;
+		synchronized (snapshots) {
+			snapshot = snapshots.get(key);
+		}
+		
+		return recordLookup(key, snapshot);
+	}
+	
+	/**
+	 * Gets the cached full text filter snapshot matching the specified key and entity class, full text
+	 * filters are enabled per query and their parameter values can differ by the entity class being
+	 * searched.
+	 *
+	 * @param key the key to match
+	 * @param entityClass the entity class to match
+	 * @return the cached snapshot or null if none is found
+	 */
+	public static FilterSnapshot getFullText(FilterSnapshotKey key, Class<?> entityClass) {
+		FilterSnapshot snapshot = null;
+		synchronized (fullTextSnapshots) {
+			Map<Class<?>, FilterSnapshot> classSnapshots = fullTextSnapshots.get(key);
+			if (classSnapshots != null) {
+				snapshot = classSnapshots.get(entityClass);
+			}
+		}
+		
+		return recordLookup(key, snapshot);
+	}
+	
+	private static FilterSnapshot recordLookup(FilterSnapshotKey key, FilterSnapshot snapshot) {
+		if (snapshot == null) {
+			misses.incrementAndGet();
+			if (log.isDebugEnabled()) {
+				log.debug("Filter snapshot cache miss for " + key + ", " + getStatistics());
+			}
+		} else {
+			hits.incrementAndGet();
+			if (log.isTraceEnabled()) {
+				log.trace("Filter snapshot cache hit for " + key);
+			}
+		}
+		
+		return snapshot;
+	}
+	
+	/**
+	 * Adds the specified snapshot to the cache, if the current transaction gets rolled back the
+	 * snapshot is discarded since it could have been created from uncommitted data.
+	 *
+	 * @param key the key of the snapshot
+	 * @param snapshot the snapshot to add
+	 */
+	public static void put(FilterSnapshotKey key, FilterSnapshot snapshot) {
+		synchronized (snapshots) {
+			snapshots.put(key, snapshot);
+		}
+		
+		Util.registerRollbackCallback(() -> {
+			synchronized (snapshots) {
+				snapshots.remove(key);
+			}
+		});
+	}
+	
+	/**
+	 * Adds the specified full text filter snapshot for the specified entity class to the cache, if the
+	 * current transaction gets rolled back the snapshot is discarded.
+	 *
+	 * @param key the key of the snapshot
+	 * @param entityClass the entity class the snapshot applies to
+	 * @param snapshot the snapshot to add
+	 */
+	public static void putFullText(FilterSnapshotKey key, Class<?> entityClass, FilterSnapshot snapshot) {
+		synchronized (fullTextSnapshots) {
+			fullTextSnapshots.computeIfAbsent(key, k -> new HashMap(4)).put(entityClass, snapshot);
+		}
+		
+		Util.registerRollbackCallback(() -> {
+			synchronized (fullTextSnapshots) {
+				Map<Class<?>, FilterSnapshot> classSnapshots = fullTextSnapshots.get(key);
+				if (classSnapshots != null) {
+					classSnapshots.remove(entityClass);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Bumps the assignment version and discards all cached snapshots.
+	 */
+	public static void invalidate() {
+		version.incrementAndGet();
+		synchronized (snapshots) {
+			snapshots.clear();
+		}
+		
+		clearFullText();
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Invalidated all filter snapshots, new assignment version is " + version.get());
+		}
+	}
+	
+	/**
+	 * Discards all cached full text filter snapshots without bumping the assignment version, snapshots
+	 * resolved from data that changes often are instead recreated when they become stale, see
+	 * {@link FilterSnapshot#isStale()}.
+	 */
+	public static void clearFullText() {
+		synchronized (fullTextSnapshots) {
+			fullTextSnapshots.clear();
+		}
+	}
+	
+	/**
+	 * Gets the number of cache hits
+	 *
+	 * @return the hit count
+	 */
+	public static long getHitCount() {
+		return hits.get();
+	}
+	
+	/**
+	 * Gets the number of cache misses
+	 *
+	 * @return the miss count
+	 */
+	public static long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Gets the number of snapshots evicted to keep the cache within its maximum size
+	 *
+	 * @return the eviction count
+	 */
+	public static long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Gets the number of snapshots currently in the cache
+	 *
+	 * @return the size of the cache
+	 */
+	public static int getSize() {
+		synchronized (snapshots) {
+			return snapshots.size();
+		}
+	}
+	
+	/**
+	 * Gets a human readable summary of the cache statistics
+	 *
+	 * @return the statistics
+	 */
+	public static String getStatistics() {
+		return "size=" + getSize() + ", hits=" + hits.get() + ", misses=" + misses.get() + ", evictions="
+		        + evictions.get() + ", version=" + version.get();
+	}
+	
+}
@@ -0,0 +1,119 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openmrs.Privilege;
+import org.openmrs.Role;
+import org.openmrs.User;
+
+/**
+ * Identifies a cached {@link FilterSnapshot}, it is made up of the user id, the names of all the
+ * user's roles, the privileges granted through those roles since they determine the by pass
+ * privileges and the assignment version at the time the snapshot was created.
+ */
+public final class FilterSnapshotKey {
+	
+	private final Integer userId;
+	
+	private final Set<String> roles;
+	
+	private final Set<String> privileges;
+	
+	private final long version;
+	
+	private final int hashCode;
+	
+	public FilterSnapshotKey(Integer userId, Set<String> roles, Set<String> privileges, long version) {
+		this.userId = userId;
+		this.roles = Collections.unmodifiableSet(new TreeSet(roles));
+		this.privileges = Collections.unmodifiableSet(new TreeSet(privileges));
+		this.version = version;
+		this.hashCode = Objects.hash(userId, this.roles, this.privileges, version);
+	}
+	
+	/**
+	 * Creates a key for the specified user and assignment version
+	 *
+	 * @param user the user to create the key for
+	 * @param version the assignment version
+	 * @return the key
+	 */
+	public static FilterSnapshotKey create(User user, long version) {
+		Set<String> roles = new TreeSet();
+		for (Role role : user.getAllRoles()) {
+			roles.add(role.getRole());
+		}
+		
+		Set<String> privileges = new TreeSet();
+		for (Privilege privilege : user.getPrivileges()) {
+			privileges.add(privilege.getPrivilege());
+		}
+		
+		return new FilterSnapshotKey(user.getUserId(), roles, privileges, version);
+	}
+	
+	/**
+	 * Gets the userId
+	 *
+	 * @return the userId
+	 */
+	public Integer getUserId() {
+		return userId;
+	}
+	
+	/**
+	 * Gets the roles
+	 *
+	 * @return the roles
+	 */
+	public Set<String> getRoles() {
+		return roles;
+	}
+	
+	/**
+	 * Gets the version
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		
+		if (!(other instanceof FilterSnapshotKey)) {
+			return false;
+		}
+		
+		FilterSnapshotKey that = (FilterSnapshotKey) other;
+		return version == that.version && Objects.equals(userId, that.userId) && roles.equals(that.roles)
+		        && privileges.equals(that.privileges);
+	}
+	
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+	
+	@Override
+	public String toString() {
+		return "FilterSnapshotKey{userId=" + userId + ", roles=" + roles + ", version=" + version + "}";
+	}
+	
+}
@@ -19,11 +19,20 @@ public class FullTextDataFilterContext extends DataFilterContext {
 	
 	private Class<?> entityClass;
 	
+	private Class<?> implClass;
+	
 	public FullTextDataFilterContext(String filterName, Map<String, Map<String, Object>> filterAndParamValueMap,
 	    Class<?> entityClass) {
 		
+		this(filterName, filterAndParamValueMap, entityClass, null);
+	}
+	
+	public FullTextDataFilterContext(String filterName, Map<String, Map<String, Object>> filterAndParamValueMap,
+	    Class<?> entityClass, Class<?> implClass) {
+		
 		super(filterName, filterAndParamValueMap);
 		this.entityClass = entityClass;
+		this.implClass = implClass;
 	}
 	
 	/**
@@ -35,4 +44,14 @@ public class FullTextDataFilterContext extends DataFilterContext {
 		return entityClass;
 	}
 	
+	/**
+	 * Gets the implClass of the filter registration, listeners can use it to determine the parameter
+	 * values expected by the filter implementation
+	 *
+	 * @return the implClass
+	 */
+	public Class<?> getImplClass() {
+		return implClass;
+	}
+	
 }
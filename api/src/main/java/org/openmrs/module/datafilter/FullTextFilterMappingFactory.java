@@ -0,0 +1,116 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.hibernate.search.annotations.ClassBridge;
+import org.hibernate.search.annotations.Factory;
+import org.hibernate.search.annotations.FilterCacheModeType;
+import org.hibernate.search.cfg.SearchMapping;
+import org.openmrs.api.APIException;
+import org.openmrs.module.datafilter.registration.FullTextFilterRegistration;
+import org.openmrs.util.OpenmrsClassLoader;
+
+/**
+ * Programmatic hibernate search mapping that defines the registered full text filters and adds the
+ * class bridges their implementation classes carry to the target classes, it is set as the value of
+ * the hibernate.search.model_mapping property so the definitions only live in the search factory and
+ * are merged with the annotations of the mapped classes instead of being added to the classes, if
+ * the property was already set the filters are added to the mapping created from its original value.
+ */
+public class FullTextFilterMappingFactory {
+	
+	private static volatile Object baseMapping;
+	
+	private static final Set<SearchMapping> extendedMappings = Collections
+	        .synchronizedSet(Collections.newSetFromMap(new WeakHashMap()));
+	
+	/**
+	 * Sets the original value of the hibernate.search.model_mapping property i.e. a SearchMapping, a
+	 * factory class or the name of a factory class
+	 *
+	 * @param baseMapping the baseMapping to set
+	 */
+	public static void setBaseMapping(Object baseMapping) {
+		FullTextFilterMappingFactory.baseMapping = baseMapping;
+	}
+	
+	/**
+	 * Creates the {@link SearchMapping} for the registered full text filters
+	 *
+	 * @return the SearchMapping object
+	 */
+	@Factory
+	public SearchMapping getSearchMapping() {
+		SearchMapping mapping = createBaseMapping();
+		//A SearchMapping set as the original value is returned every time the session factory is built
+		if (!extendedMappings.add(mapping)) {
+			return mapping;
+		}
+		
+		Set<String> classBridges = new HashSet();
+		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+			FilterCacheModeType cacheMode = FilterCacheModeType.INSTANCE_AND_DOCIDSETRESULTS;
+			if (registration.getCacheMode() != null) {
+				cacheMode = FilterCacheModeType.valueOf(registration.getCacheMode());
+			}
+			
+			mapping.fullTextFilterDef(registration.getName(), registration.getImplClass()).cache(cacheMode);
+			
+			//Filters that match fields added at index time carry the class bridge that adds the fields
+			ClassBridge classBridge = (ClassBridge) registration.getImplClass().getAnnotation(ClassBridge.class);
+			if (classBridge == null) {
+				continue;
+			}
+			
+			for (Class clazz : registration.getTargetClasses()) {
+				//Several filters can share the same class bridge, the fields should only be added once
+				if (classBridges.add(clazz.getName() + ":" + classBridge.name())) {
+					mapping.entity(clazz).classBridge(classBridge.impl()).name(classBridge.name())
+					        .analyze(classBridge.analyze()).norms(classBridge.norms());
+				}
+			}
+		}
+		
+		return mapping;
+	}
+	
+	private static SearchMapping createBaseMapping() {
+		Object base = baseMapping;
+		if (base == null) {
+			return new SearchMapping();
+		}
+		
+		if (base instanceof SearchMapping) {
+			return (SearchMapping) base;
+		}
+		
+		try {
+			Class<?> clazz = base instanceof Class ? (Class) base
+			        : OpenmrsClassLoader.getInstance().loadClass(base.toString());
+			for (Method method : clazz.getMethods()) {
+				if (method.isAnnotationPresent(Factory.class)) {
+					return (SearchMapping) method.invoke(clazz.newInstance());
+				}
+			}
+		}
+		catch (ReflectiveOperationException e) {
+			throw new APIException("Failed to create the search mapping from " + base, e);
+		}
+		
+		throw new APIException("No @Factory method found on the search mapping factory " + base);
+	}
+	
+}
@@ -11,8 +11,11 @@ package org.openmrs.module.datafilter;
 
 import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,6 +40,8 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 	
 	private static final Logger log = LoggerFactory.getLogger(FullTextQueryCreatedEventListener.class);
 	
+	private volatile FilteredClasses filteredClasses;
+	
 	/**
 	 * @see ApplicationListener#onApplicationEvent(ApplicationEvent)
 	 */
@@ -58,20 +63,11 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 			return;
 		}*/
 		
-		Set<String> enabledFilters = new HashSet();
-		Set<Class> filteredClasses = new HashSet();
-		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
-			filteredClasses.addAll(registration.getTargetClasses());
-			if (!Util.skipFilter(registration.getName())) {
-				enabledFilters.add(registration.getName());
-			}
-		}
-		
 		FullTextQueryAndEntityClass queryAndClass = (FullTextQueryAndEntityClass) event.getSource();
 		FullTextQuery query = queryAndClass.getQuery();
 		Class<?> entityClass = queryAndClass.getEntityClass();
 		
-		if (!filteredClasses.contains(entityClass)) {
+		if (!getFilteredClasses().contains(entityClass)) {
 			if (log.isDebugEnabled()) {
 				log.debug("Skipping enabling of filters on the full text query for " + entityClass.getName());
 			}
@@ -83,10 +79,79 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 			log.debug("Enabling filters on the full text query for " + entityClass.getName());
 		}
 		
+		FilterSnapshot snapshot = getFilterSnapshot(entityClass);
+		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+			if (snapshot.isEnabled(registration.getName())) {
+				enableFilter(registration, snapshot.getParameters(registration.getName()), query);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Gets the classes targeted by at least one full text filter registration, the set is computed once
+	 * per loaded list of registrations so that queries for classes that are not filtered are skipped
+	 * with a single lookup.
+	 *
+	 * @return a set of classes
+	 */
+	private Set<Class<?>> getFilteredClasses() {
+		List<FullTextFilterRegistration> registrations = Util.getFullTextFilterRegistrations();
+		FilteredClasses current = filteredClasses;
+		if (current == null || current.registrations != registrations) {
+			Set<Class<?>> classes = new HashSet();
+			for (FullTextFilterRegistration registration : registrations) {
+				classes.addAll(registration.getTargetClasses());
+			}
+			
+			current = new FilteredClasses(registrations, Collections.unmodifiableSet(classes));
+			filteredClasses = current;
+		}
+		
+		return current.classes;
+	}
+	
+	/**
+	 * Gets the cached {@link FilterSnapshot} of the full text filters to enable for the authenticated
+	 * user on queries for the specified entity class, if none exists it gets created and cached, no
+	 * caching takes place if there is no authenticated user.
+	 *
+	 * @param entityClass the entity class being searched
+	 * @return the filter snapshot
+	 */
+	private FilterSnapshot getFilterSnapshot(Class<?> entityClass) {
+		FilterSnapshotKey key = null;
+		if (Context.isAuthenticated()) {
+			key = FilterSnapshotCache.createKey(Context.getAuthenticatedUser());
+			FilterSnapshot snapshot = FilterSnapshotCache.getFullText(key, entityClass);
+			if (snapshot != null && !snapshot.isStale()) {
+				return snapshot;
+			}
+		}
+		
+		FilterSnapshot snapshot = createFilterSnapshot(entityClass);
+		if (key != null) {
+			FilterSnapshotCache.putFullText(key, entityClass, snapshot);
+		}
+		
+		return snapshot;
+	}
+	
+	/**
+	 * Evaluates the full text filter registrations, global properties and {@link DataFilterListener}s
+	 * to determine the filters to enable for the authenticated user on queries for the specified entity
+	 * class along with their parameter values.
+	 *
+	 * @param entityClass the entity class being searched
+	 * @return the created filter snapshot
+	 */
+	private FilterSnapshot createFilterSnapshot(Class<?> entityClass) {
 		Map<String, Map<String, Object>> filterParamsMap = new HashMap();
+		Map<String, Map<String, Object>> snapshotFilterParamsMap = new LinkedHashMap();
+		List<DataFilterContext> generationContexts = new ArrayList();
 		
-		filterLoop: for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
-			if (!enabledFilters.contains(registration.getName())) {
+		for (FullTextFilterRegistration registration : Util.getFullTextFilterRegistrations()) {
+			if (Util.skipFilter(registration.getName())) {
 				continue;
 			}
 			
@@ -94,30 +159,23 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 				filterParamsMap.put(registration.getName(), new HashMap());
 			}
 			
-			DataFilterContext filterContext = new FullTextDataFilterContext(registration.getName(), filterParamsMap,
-			        entityClass);
-			
-			List<DataFilterListener> listeners = Context.getRegisteredComponents(DataFilterListener.class);
-			
-			for (DataFilterListener listener : listeners) {
-				if (listener.supports(registration.getName())) {
-					//In theory, expect one listener per filter, since we found one, no more will get called.
-					//TODO During filter registration, check for cases where a filter has multiple listeners
-					boolean enable = listener.onEnableFilter(filterContext);
-					if (!enable) {
-						enabledFilters.remove(registration.getName());
-						//Don't call anymore filters since we've found one.
-						continue filterLoop;
-					}
-					
-					//Don't call anymore filters since we've found one.
-					break;
+			DataFilterListener listener = FilterListenerIndex.getListener(registration.getName());
+			if (listener != null) {
+				DataFilterContext filterContext = new FullTextDataFilterContext(registration.getName(), filterParamsMap,
+				        entityClass, registration.getImplClass());
+				if (!listener.onEnableFilter(filterContext)) {
+					continue;
+				}
+				
+				if (filterContext.getGenerationSource() != null) {
+					generationContexts.add(filterContext);
 				}
 			}
 			
-			enableFilter(registration, filterParamsMap.get(registration.getName()), query);
+			snapshotFilterParamsMap.put(registration.getName(), filterParamsMap.get(registration.getName()));
 		}
 		
+		return new FilterSnapshot(snapshotFilterParamsMap, Collections.emptyMap(), generationContexts);
 	}
 	
 	private void enableFilter(FullTextFilterRegistration registration, Map<String, Object> paramNameValueMap,
@@ -132,4 +190,17 @@ public class FullTextQueryCreatedEventListener implements ApplicationListener<Fu
 		
 	}
 	
+	private static final class FilteredClasses {
+		
+		private final List<FullTextFilterRegistration> registrations;
+		
+		private final Set<Class<?>> classes;
+		
+		private FilteredClasses(List<FullTextFilterRegistration> registrations, Set<Class<?>> classes) {
+			this.registrations = registrations;
+			this.classes = classes;
+		}
+		
+	}
+	
 }
@@ -0,0 +1,177 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.openmrs.module.datafilter.DataFilterConstants.DISABLED;
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.AdministrationDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory view of the global properties used by the module i.e. those owned by the module and
+ * those used to disable filters, all of them are loaded with a single query the first time any is
+ * requested and they are kept up to date by {@link GlobalPropertyCacheUpdater}, changes are
+ * applied as soon as they are made and the values are reloaded once the changes are committed.
+ */
+public final class GlobalPropertyCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(GlobalPropertyCache.class);
+	
+	private static final String QUERY = "SELECT property, property_value FROM global_property WHERE property LIKE '"
+	        + MODULE_ID + "%' OR property LIKE '%" + DISABLED + "'";
+	
+	private static volatile Map<String, String> values;
+	
+	private GlobalPropertyCache() {
+	}
+	
+	/**
+	 * Gets the value of the global property with the specified name, all global properties are loaded
+	 * from the database if they are not yet loaded.
+	 *
+	 * @param property the name of the global property
+	 * @return the value of the global property or null if it doesn't exist
+	 */
+	public static String getValue(String property) {
+		Map<String, String> loadedValues = values;
+		if (loadedValues == null) {
+			loadedValues = load();
+		}
+		
+		return loadedValues.get(property);
+	}
+	
+	/**
+	 * Gets the cached global property values without loading them from the database, this is useful
+	 * for callers that need to avoid touching the session in case of a cache hit.
+	 *
+	 * @return a map of global property names and values or null if they are not yet loaded
+	 */
+	public static Map<String, String> getLoadedValues() {
+		return values;
+	}
+	
+	/**
+	 * Checks whether the global property with the specified name is supported by this cache
+	 *
+	 * @param property the name of the global property
+	 * @return true if the global property is cached otherwise false
+	 */
+	public static boolean isSupported(String property) {
+		return property != null && (property.startsWith(MODULE_ID) || property.endsWith(DISABLED));
+	}
+	
+	/**
+	 * Discards the cached values, they will be reloaded the next time any of them is requested.
+	 */
+	public static synchronized void clear() {
+		values = null;
+	}
+	
+	private static synchronized Map<String, String> load() {
+		if (values != null) {
+			return values;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Loading global properties used by the module");
+		}
+		
+		AdministrationDAO adminDAO = Context.getRegisteredComponent("adminDAO", AdministrationDAO.class);
+		List<List<Object>> rows = adminDAO.executeSQL(QUERY, true);
+		Map<String, String> loadedValues = new HashMap(rows.size());
+		for (List<Object> row : rows) {
+			loadedValues.put(row.get(0).toString(), row.get(1) == null ? null : row.get(1).toString());
+		}
+		
+		values = Collections.unmodifiableMap(loadedValues);
+		//The loaded values could include changes made in the current transaction
+		Util.registerRollbackCallback(GlobalPropertyCache::clear);
+		
+		return values;
+	}
+	
+	private static synchronized void update(String property, String value, boolean deleted) {
+		if (values != null) {
+			Map<String, String> newValues = new HashMap(values);
+			if (deleted) {
+				newValues.remove(property);
+			} else {
+				newValues.put(property, value);
+			}
+			
+			values = Collections.unmodifiableMap(newValues);
+		}
+		
+		Util.registerRollbackCallback(GlobalPropertyCache::clear);
+		//The change is applied above before it's committed and it's skipped if the values aren't loaded,
+		//another thread could meanwhile load the committed old value so the values are reloaded after
+		//the commit along with the filter snapshots created from them
+		Util.registerAfterCommitCallback(() -> {
+			clear();
+			FilterSnapshotCache.invalidate();
+		});
+		
+		//Filter snapshots are created from the global property values
+		FilterSnapshotCache.invalidate();
+	}
+	
+	/**
+	 * Keeps the cached global property values up to date.
+	 */
+	@Component(MODULE_ID + "GlobalPropertyCacheUpdater")
+	public static class GlobalPropertyCacheUpdater implements GlobalPropertyListener {
+		
+		/**
+		 * @see GlobalPropertyListener#supportsPropertyName(String)
+		 */
+		@Override
+		public boolean supportsPropertyName(String propertyName) {
+			return isSupported(propertyName);
+		}
+		
+		/**
+		 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+		 */
+		@Override
+		public void globalPropertyChanged(GlobalProperty newValue) {
+			if (log.isDebugEnabled()) {
+				log.debug("Updating cached value of global property: " + newValue.getProperty());
+			}
+			
+			update(newValue.getProperty(), newValue.getPropertyValue(), false);
+		}
+		
+		/**
+		 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+		 */
+		@Override
+		public void globalPropertyDeleted(String propertyName) {
+			if (log.isDebugEnabled()) {
+				log.debug("Removing cached value of global property: " + propertyName);
+			}
+			
+			update(propertyName, null, true);
+		}
+		
+	}
+	
+}
@@ -9,6 +9,9 @@
  */
 package org.openmrs.module.datafilter;
 
+import static org.hibernate.search.cfg.Environment.MODEL_MAPPING;
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -16,25 +19,39 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.Entity;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
@@ -43,40 +60,35 @@ import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.annotations.FilterDefs;
-import org.hibernate.annotations.Filters;
-import org.hibernate.annotations.ParamDef;
 import org.hibernate.cfg.Environment;
 import org.hibernate.internal.util.xml.DTDEntityResolver;
-import org.hibernate.search.annotations.FullTextFilterDefs;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.db.AdministrationDAO;
-import org.openmrs.module.datafilter.annotations.AggregateAnnotation;
-import org.openmrs.module.datafilter.annotations.FilterAnnotation;
-import org.openmrs.module.datafilter.annotations.FilterDefAnnotation;
-import org.openmrs.module.datafilter.annotations.FilterDefsAnnotation;
-import org.openmrs.module.datafilter.annotations.FiltersAnnotation;
-import org.openmrs.module.datafilter.annotations.FullTextFilterDefAnnotation;
-import org.openmrs.module.datafilter.annotations.FullTextFilterDefsAnnotation;
-import org.openmrs.module.datafilter.annotations.ParamDefAnnotation;
 import org.openmrs.module.datafilter.registration.FullTextFilterRegistration;
 import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.openmrs.util.OpenmrsClassLoader;
+import org.openmrs.util.OpenmrsUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JavaType;
@@ -94,26 +106,61 @@ public class Util {
 	
 	private static final String FILTER_PATH_SUFFIX = "/*.json";
 	
-	private static final String ADD_ENTITY_FILTER_XSLT_TEMPLATE = "add-entity-filter-xslt-template.xml";
+	private static final String ADD_ENTITY_FILTERS_XSLT = "add-entity-filters-xslt.xml";
+	
+	private static final String FILTERS_DOCUMENT_URI = "datafilter:filters";
+	
+	private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+	
+	private static final String RUNTIME_PROPERTY_CONNECTION_URL = "connection.url";
+	
+	private static final String HBM_ROOT_ELEMENT = "hibernate-mapping";
+	
+	private static final String HBM_CLASS_ELEMENT = "class";
 	
 	private static final String UPDATE_MAPPING_LOC_XSLT_TEMPLATE = "update-mapping-loc-xslt-template.xml";
 	
+	private static final String MAPPING_CACHE_DIR_NAME = "mappingCache";
+	
+	//Should be changed whenever the way the transformed mapping files are generated changes
+	private static final String MAPPING_CACHE_VERSION = "2";
+	
 	private static List<HibernateFilterRegistration> hibernateFilterRegistrations;
 	
 	private static List<FullTextFilterRegistration> fullTextFilterRegistrations;
 	
+	private static final Map<String, Object> replacedConfigProperties = new HashMap();
+	
 	private static XPath xpath = XPathFactory.newInstance().newXPath();
 	
-	private static TransformerFactory transformerFactory = TransformerFactory.newInstance();
+	private static SAXTransformerFactory transformerFactory = (SAXTransformerFactory) TransformerFactory.newInstance();
+	
+	private static SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+	
+	private static XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
 	
 	private static DocumentBuilder documentBuilder;
 	
 	private static List<String> mappingResources;
 	
-	private static Template addEntityFilterXsltTemplate;
+	private static Map<String, String> classMappingResources;
+	
+	private static final Map<String, String> mappedClassNames = new ConcurrentHashMap();
+	
+	private static byte[] addEntityFiltersXslt;
+	
+	private static Templates addEntityFiltersTemplates;
 	
 	private static Template updateMappingLocXsltTemplate;
 	
+	private static File mappingCacheDirectory;
+	
+	//The names of the GPs and privileges derived from the filter names, so that the filters can be
+	//checked on every entity load without building new strings
+	private static final Map<String, String> filterDisabledGpNames = new ConcurrentHashMap();
+	
+	private static final Map<String, String> filterBypassPrivileges = new ConcurrentHashMap();
+	
 	static {
 		try {
 			documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -127,12 +174,26 @@ public class Util {
 		cfg.setDefaultEncoding(StandardCharsets.UTF_8.name());
 		cfg.setClassLoaderForTemplateLoading(OpenmrsClassLoader.getInstance(), "");
 		try {
-			addEntityFilterXsltTemplate = cfg.getTemplate(ADD_ENTITY_FILTER_XSLT_TEMPLATE);
 			updateMappingLocXsltTemplate = cfg.getTemplate(UPDATE_MAPPING_LOC_XSLT_TEMPLATE);
 		}
 		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		
+		//Only the root and class elements of hbm files are read, so there is no need to load the dtd
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		
+		//The stylesheet doesn't change so it is compiled once and shared, Templates objects are thread safe
+		saxParserFactory.setNamespaceAware(true);
+		try (InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(ADD_ENTITY_FILTERS_XSLT)) {
+			addEntityFiltersXslt = IOUtils.toByteArray(in);
+			addEntityFiltersTemplates = transformerFactory
+			        .newTemplates(new StreamSource(new ByteArrayInputStream(addEntityFiltersXslt)));
+		}
+		catch (IOException | TransformerConfigurationException e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	/**
@@ -153,15 +214,18 @@ public class Util {
 	 * @return true if the filter is disabled otherwise false
 	 */
 	public static boolean isFilterDisabled(String filterName) {
-		AdministrationDAO adminDAO = Context.getRegisteredComponent("adminDAO", AdministrationDAO.class);
-		List<List<Object>> rows = adminDAO.executeSQL("SELECT property_value FROM global_property WHERE property = '"
-		        + filterName + DataFilterConstants.DISABLED + "'",
-		    true);
-		if (rows.isEmpty() || rows.get(0).isEmpty() || rows.get(0).get(0) == null) {
+		String gpName = filterDisabledGpNames.get(filterName);
+		if (gpName == null) {
+			gpName = filterName + DataFilterConstants.DISABLED;
+			filterDisabledGpNames.put(filterName, gpName);
+		}
+		
+		String value = GlobalPropertyCache.getValue(gpName);
+		if (value == null) {
 			return false;
 		}
 		
-		return "true".equalsIgnoreCase(rows.get(0).get(0).toString().trim());
+		return "true".equalsIgnoreCase(value.trim());
 	}
 	
 	protected static List<HibernateFilterRegistration> getHibernateFilterRegistrations() {
@@ -181,198 +245,77 @@ public class Util {
 	}
 	
 	/**
-	 * Adds the defined filter annotations to persistent classes mapped with JPA annotations that need
-	 * to be filtered.
+	 * Sets the hibernate configuration properties through which the filters get registered, the
+	 * filters themselves are added to the mapping metadata when the session factory is built by
+	 * {@link FilterMetadataContributor} and {@link FullTextFilterMappingFactory}.
 	 */
-	public static void initializeFilters() throws ReflectiveOperationException {
+	public static void initializeFilters() {
 		log.info("Initializing filters");
 		
-		//Register hibernate filters
-		for (HibernateFilterRegistration registration : getHibernateFilterRegistrations()) {
-			if (registration.getProperty() == null) {
-				ParamDef[] paramDefs = null;
-				if (CollectionUtils.isNotEmpty(registration.getParameters())) {
-					paramDefs = new ParamDef[registration.getParameters().size()];
-					int index = 0;
-					for (HibernateFilterParameter parameter : registration.getParameters()) {
-						paramDefs[index] = new ParamDefAnnotation(parameter.getName(), parameter.getType());
-						index++;
-					}
-				}
-				
-				for (Class clazz : registration.getTargetClasses()) {
-					if (!clazz.isAnnotationPresent(Entity.class)) {
-						continue;
-					}
-					
-					registerFilter(clazz,
-					    new FilterDefAnnotation(registration.getName(), registration.getDefaultCondition(), paramDefs),
-					    new FilterAnnotation(registration.getName(), registration.getCondition()));
-				}
-				
-			} else {
-				//This is a filter to be applied to a property
-				if (registration.getTargetClasses().size() > 1) {
-					throw new APIException("Only one target class can be defined for a filter added to a property");
-				}
-				
-				try {
-					addAnnotationToField(registration.getProperty(), registration.getTargetClasses().get(0),
-					    new FilterAnnotation(registration.getName(), registration.getCondition()));
-				}
-				catch (ReflectiveOperationException e) {
-					throw new APIException(e);
-				}
-			}
+		Object searchMapping = Context.getConfigProperties().get(MODEL_MAPPING);
+		if (searchMapping == null) {
+			searchMapping = Context.getRuntimeProperties().getProperty(MODEL_MAPPING);
 		}
 		
-		//Register full text filters
-		for (FullTextFilterRegistration registration : getFullTextFilterRegistrations()) {
-			//Full text filters are added to one entity but can be enabled for any entity
-			registerFullTextFilter(registration.getTargetClasses().get(0), new FullTextFilterDefAnnotation(
-			        registration.getName(), registration.getImplClass(), registration.getCacheMode()));
+		//An existing search mapping is kept, the full text filters are added to the mapping it creates
+		if (!FullTextFilterMappingFactory.class.getName().equals(searchMapping)) {
+			FullTextFilterMappingFactory.setBaseMapping(searchMapping);
 		}
 		
-		Context.addConfigProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS, DataFilterSessionContext.class.getName());
+		setConfigProperty(MODEL_MAPPING, FullTextFilterMappingFactory.class.getName());
+		setConfigProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS, DataFilterSessionContext.class.getName());
 		
 		log.info("Successfully initialized filters");
 	}
 	
 	/**
-	 * Adds the specified {@link org.hibernate.annotations.FilterDef} and
-	 * {@link org.hibernate.annotations.Filter} annotations to the specified class object.
-	 * 
-	 * @param entityClass the class object to add the annotations
-	 * @param filterDefAnnotation the {@link org.hibernate.annotations.FilterDef} annotation to add
-	 * @param filterAnnotation the {@link org.hibernate.annotations.Filter} annotation to add
+	 * Removes the hibernate configuration properties set by {@link #initializeFilters()} and restores
+	 * the values they replaced, if any, so that the session factory built after the module is stopped
+	 * doesn't reference the module's classes.
 	 */
-	protected static void registerFilter(Class<?> entityClass, FilterDefAnnotation filterDefAnnotation,
-	                                     FilterAnnotation filterAnnotation)
-	    throws ReflectiveOperationException {
+	public static void removeFilterConfigProperties() {
+		log.info("Removing filter configuration properties");
 		
-		addAnnotationToGroup(entityClass, FilterDefs.class, filterDefAnnotation);
-		addAnnotationToGroup(entityClass, Filters.class, filterAnnotation);
-	}
-	
-	/**
-	 * Adds the specified {@link org.hibernate.search.annotations.FullTextFilterDef} annotation to the
-	 * specified class object.
-	 *
-	 * @param entityClass the class object to add the annotation
-	 * @param filterDefAnnotation the {@link org.hibernate.search.annotations.FullTextFilterDef}
-	 *            annotation to add
-	 */
-	protected static void registerFullTextFilter(Class<?> entityClass, FullTextFilterDefAnnotation filterDefAnnotation)
-	    throws ReflectiveOperationException {
-		addAnnotationToGroup(entityClass, FullTextFilterDefs.class, filterDefAnnotation);
-	}
-	
-	/**
-	 * Utility method that adds a grouped annotation to it's containing aggregate annotation.
-	 * 
-	 * @param entityClass the class that has the aggregate annotation
-	 * @param aggregateAnnClass the aggregate annotation type
-	 * @param toAdd the grouped annotation instance to add
-	 */
-	private static void addAnnotationToGroup(Class<?> entityClass, Class<? extends Annotation> aggregateAnnClass,
-	                                         Annotation toAdd)
-	    throws ReflectiveOperationException {
-		
-		Annotation aggregateAnnotation = entityClass.getAnnotation(aggregateAnnClass);
-		if (aggregateAnnotation == null) {
-			if (FilterDefs.class.equals(aggregateAnnClass)) {
-				aggregateAnnotation = new FilterDefsAnnotation();
-			} else if (Filters.class.equals(aggregateAnnClass)) {
-				aggregateAnnotation = new FiltersAnnotation();
-			} else if (FullTextFilterDefs.class.equals(aggregateAnnClass)) {
-				aggregateAnnotation = new FullTextFilterDefsAnnotation();
+		for (Map.Entry<String, Object> entry : replacedConfigProperties.entrySet()) {
+			if (entry.getValue() == null) {
+				Context.removeConfigProperty(entry.getKey());
+			} else {
+				Context.addConfigProperty(entry.getKey(), entry.getValue());
 			}
-			
-			addAnnotationToClass(entityClass, aggregateAnnotation);
 		}
 		
-		((AggregateAnnotation) aggregateAnnotation).add(toAdd);
+		replacedConfigProperties.clear();
+		FullTextFilterMappingFactory.setBaseMapping(null);
 	}
 	
-	/**
-	 * Adds the specified annotation to the specified class
-	 * 
-	 * @param clazz the class to add the annotation
-	 * @param annotation the annotation to add
-	 */
-	public static void addAnnotationToClass(Class<?> clazz, Annotation annotation) throws ReflectiveOperationException {
-		
-		final String annotationName = annotation.annotationType().getName();
-		if (log.isDebugEnabled()) {
-			log.debug("Adding " + annotationName + " annotation to " + clazz.getName());
-		}
-		
-		Method method = Class.class.getDeclaredMethod("getDeclaredAnnotationMap");
-		boolean accessible = method.isAccessible();
-		try {
-			method.setAccessible(true);
-			Map<Class<? extends Annotation>, Annotation> map = (Map<Class<? extends Annotation>, Annotation>) method
-			        .invoke(clazz);
-			//TODO handle the case where the annotation is already present in case of module restart
-			map.put(annotation.annotationType(), annotation);
-			
-			if (log.isDebugEnabled()) {
-				log.debug("Successfully added " + annotationName + " annotation to " + clazz.getName());
-			}
-		}
-		catch (InvocationTargetException | IllegalAccessException e) {
-			log.error("Failed to add " + annotationName + " annotation to " + clazz.getName(), e);
-			throw e;
+	private static void setConfigProperty(String name, Object value) {
+		Object currentValue = Context.getConfigProperties().get(name);
+		//The value is already set if the filters were initialized before e.g. when the context is refreshed
+		if (!value.equals(currentValue)) {
+			replacedConfigProperties.put(name, currentValue);
+			Context.addConfigProperty(name, value);
 		}
-		finally {
-			//Always reset
-			method.setAccessible(accessible);
-		}
-		
 	}
 	
 	/**
-	 * Adds an annotation to the field with a matching name in the specified class
-	 * 
-	 * @param fieldName the name of the field
-	 * @param clazz the class to add the annotation
-	 * @param annotation the annotation to add
+	 * Gets the configured hibernate dialect class name, hibernate detects the dialect from the database
+	 * when it isn't set in which case the jdbc url is returned instead since it also names the database,
+	 * it is used to select the dialect specific conditions of filters.
+	 *
+	 * @return the dialect class name or jdbc url, null if neither is set
 	 */
-	private static void addAnnotationToField(String fieldName, Class<?> clazz, Annotation annotation)
-	    throws ReflectiveOperationException {
-		
-		final String annotationName = annotation.annotationType().getName();
-		if (log.isDebugEnabled()) {
-			log.debug("Adding " + annotationName + " annotation to " + clazz.getName() + "." + fieldName);
+	public static String getDialect() {
+		Properties props = Context.getRuntimeProperties();
+		if (props == null) {
+			return null;
 		}
 		
-		Field field = clazz.getDeclaredField(fieldName);
-		boolean fieldAccessible = field.isAccessible();
-		field.setAccessible(true);
-		Method method = Field.class.getDeclaredMethod("declaredAnnotations");
-		boolean methodAccessible = method.isAccessible();
-		method.setAccessible(true);
-		try {
-			Map<Class<? extends Annotation>, Annotation> map = (Map<Class<? extends Annotation>, Annotation>) method
-			        .invoke(field);
-			
-			//TODO handle the case where the annotation is already present in case of module restart
-			//TODO We also need to take care of Filters annotations if present
-			map.put(annotation.annotationType(), annotation);
-			
-			if (log.isDebugEnabled()) {
-				log.debug("Successfully added " + annotationName + " annotation to " + clazz.getName() + "." + fieldName);
-			}
-		}
-		catch (InvocationTargetException | IllegalAccessException e) {
-			log.error("Failed to add " + annotationName + " annotation to " + clazz.getName() + "." + fieldName, e);
-			throw e;
-		}
-		finally {
-			//Always reset
-			field.setAccessible(fieldAccessible);
-			method.setAccessible(methodAccessible);
+		String dialect = props.getProperty(Environment.DIALECT);
+		if (StringUtils.isBlank(dialect)) {
+			dialect = props.getProperty(Environment.URL, props.getProperty(RUNTIME_PROPERTY_CONNECTION_URL));
 		}
+		
+		return StringUtils.trimToNull(dialect);
 	}
 	
 	/**
@@ -462,18 +405,37 @@ public class Util {
 	 * @return the resource name
 	 */
 	public static String getMappingResource(String cfgFilename, String classname) {
+		if (classMappingResources == null) {
+			Map<String, String> classResources = new HashMap();
+			getMappedClassNames(getMappingResources(cfgFilename)).forEach((resource, mappedClassName) -> {
+				//Like before, the first resource that maps the class wins
+				if (mappedClassName != null) {
+					classResources.putIfAbsent(mappedClassName, resource);
+				}
+			});
+			
+			classMappingResources = classResources;
+		}
 		
-		List<String> candidateResources = getMappingResources(cfgFilename);
-		String mappingResource = null;
-		for (String candidate : candidateResources) {
-			String candidateClassName = getMappedClassName(candidate);
-			if (classname.equals(candidateClassName)) {
-				mappingResource = candidate;
-				break;
-			}
+		return classMappingResources.get(classname);
+	}
+	
+	/**
+	 * Gets the fully qualified java class names of the mapped classes from the specified hbm files, the
+	 * files that haven't been read before are scanned in parallel.
+	 * 
+	 * @param hbmFilenames the hbm files to search
+	 * @return a map of the hbm files and the names of their mapped classes, the value is null for a file
+	 *         that doesn't map a class
+	 */
+	public static Map<String, String> getMappedClassNames(Collection<String> hbmFilenames) {
+		hbmFilenames.parallelStream().filter(f -> !mappedClassNames.containsKey(f)).forEach(Util::getMappedClassName);
+		Map<String, String> hbmClassNames = new LinkedHashMap();
+		for (String hbmFilename : hbmFilenames) {
+			hbmClassNames.put(hbmFilename, getMappedClassName(hbmFilename));
 		}
 		
-		return mappingResource;
+		return hbmClassNames;
 	}
 	
 	/**
@@ -483,7 +445,69 @@ public class Util {
 	 * @return the name of the mapped class
 	 */
 	public static String getMappedClassName(String hbmFilename) {
-		String className = readFromXmlFile("/hibernate-mapping/class/@name", hbmFilename, null);
+		String className = mappedClassNames.get(hbmFilename);
+		if (className == null) {
+			//The map can't hold nulls so an empty string is stored for files that don't map a class
+			className = StringUtils.defaultString(readMappedClassName(hbmFilename));
+			mappedClassNames.put(hbmFilename, className);
+		}
+		
+		return className.isEmpty() ? null : className;
+	}
+	
+	/**
+	 * Reads the fully qualified java class name of the mapped class from the specified hbm file, the
+	 * file is streamed and only read up to the first class element under the root element.
+	 * 
+	 * @param hbmFilename the hbm file to read
+	 * @return the name of the mapped class
+	 */
+	private static String readMappedClassName(String hbmFilename) {
+		String packageName = null;
+		String className = null;
+		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(hbmFilename);
+		if (in == null) {
+			throw new APIException("No hbm file found with the name " + hbmFilename);
+		}
+		
+		XMLStreamReader reader = null;
+		try {
+			reader = xmlInputFactory.createXMLStreamReader(in);
+			int depth = 0;
+			while (className == null && reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if (depth == 1) {
+						if (!HBM_ROOT_ELEMENT.equals(reader.getLocalName())) {
+							break;
+						}
+						
+						packageName = reader.getAttributeValue(null, "package");
+					} else if (depth == 2 && HBM_CLASS_ELEMENT.equals(reader.getLocalName())) {
+						className = StringUtils.defaultString(reader.getAttributeValue(null, "name"));
+					}
+				}
+			}
+		}
+		catch (XMLStreamException e) {
+			throw new APIException("Failed to read the mapped class name from " + hbmFilename, e);
+		}
+		finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				}
+				catch (XMLStreamException e) {
+					//ignore
+				}
+			}
+			
+			IOUtils.closeQuietly(in);
+		}
+		
 		if (StringUtils.isBlank(className)) {
 			//All sorts of crazy things are happening in modules
 			if (log.isDebugEnabled()) {
@@ -499,8 +523,6 @@ public class Util {
 			return className;
 		}
 		
-		String packageName = readFromXmlFile("/hibernate-mapping/@package", hbmFilename, null);
-		
 		if (StringUtils.isBlank(packageName)) {
 			//Class not in a package? Warned you, module have all kinds of crazy stuff
 			if (log.isDebugEnabled()) {
@@ -611,13 +633,100 @@ public class Util {
 	 * @param filterReg the {@link org.openmrs.module.datafilter.registration.FilterRegistration} object
 	 */
 	public static void addFilterToMappingResource(InputStream in, OutputStream out, HibernateFilterRegistration filterReg) {
-		Map model = new HashMap();
-		model.put("filterName", filterReg.getName());
-		model.put("defaultCondition", StringEscapeUtils.escapeXml(filterReg.getDefaultCondition()));
-		model.put("condition", StringEscapeUtils.escapeXml(filterReg.getCondition()));
-		model.put("parameters", filterReg.getParameters());
-		
-		applyXslt(in, addEntityFilterXsltTemplate, out, model);
+		addFiltersToMappingResource(in, out, Collections.singletonList(filterReg));
+	}
+	
+	/**
+	 * Adds the specified filters to an hbm mapping file in a single pass, the mapping is streamed into
+	 * the precompiled stylesheet and the result is streamed to the output.
+	 * 
+	 * @param in the {@link InputStream} of the hbm mapping resource to add the filters
+	 * @param out the {@link OutputStream} to which to write the transformed mapping resource bytes
+	 *            after the filters have been added
+	 * @param filterRegs the filter registrations to add
+	 */
+	public static void addFiltersToMappingResource(InputStream in, OutputStream out,
+	                                               List<HibernateFilterRegistration> filterRegs) {
+		try {
+			final String dialect = getDialect();
+			Document filters = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+			Element filtersElement = filters.createElement("filters");
+			filters.appendChild(filtersElement);
+			for (HibernateFilterRegistration filterReg : filterRegs) {
+				Element filterDef = filters.createElement("filter-def");
+				filterDef.setAttribute("name", filterReg.getName());
+				if (StringUtils.isNotEmpty(filterReg.getDefaultCondition())) {
+					filterDef.setAttribute("condition", filterReg.getDefaultCondition());
+				}
+				
+				if (filterReg.getParameters() != null) {
+					for (HibernateFilterParameter parameter : filterReg.getParameters()) {
+						Element filterParam = filters.createElement("filter-param");
+						filterParam.setAttribute("name", parameter.getName());
+						filterParam.setAttribute("type", parameter.getType());
+						filterDef.appendChild(filterParam);
+					}
+				}
+				
+				filtersElement.appendChild(filterDef);
+				Element filter = filters.createElement("filter");
+				filter.setAttribute("name", filterReg.getName());
+				String condition = filterReg.getCondition(dialect);
+				if (StringUtils.isNotEmpty(condition)) {
+					filter.setAttribute("condition", condition);
+				}
+				
+				filtersElement.appendChild(filter);
+			}
+			
+			Transformer transformer = addEntityFiltersTemplates.newTransformer();
+			transformer.setURIResolver((href, base) -> FILTERS_DOCUMENT_URI.equals(href) ? new DOMSource(filters) : null);
+			
+			TransformerHandler serializer = transformerFactory.newTransformerHandler();
+			Transformer serializerTransformer = serializer.getTransformer();
+			serializerTransformer.setOutputProperty(OutputKeys.INDENT, "yes");
+			serializerTransformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			serializerTransformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+			
+			//The doctype is dropped by the transformation, so it is captured while the mapping is parsed,
+			//the input is fully parsed before any output is produced and the output properties are only
+			//applied by the serializer when its result is set, so we set it when the output starts.
+			XMLFilterImpl reader = new XMLFilterImpl(saxParserFactory.newSAXParser().getXMLReader()) {
+				
+				@Override
+				public void setProperty(String name, Object value) throws SAXNotRecognizedException,
+				    SAXNotSupportedException {
+					if (LEXICAL_HANDLER_PROPERTY.equals(name) && value instanceof LexicalHandler) {
+						value = new DoctypeCapturingLexicalHandler((LexicalHandler) value, serializerTransformer);
+					}
+					
+					super.setProperty(name, value);
+				}
+				
+			};
+			reader.setEntityResolver(new DTDEntityResolver());
+			
+			XMLFilterImpl output = new XMLFilterImpl() {
+				
+				@Override
+				public void startDocument() throws SAXException {
+					serializer.setResult(new StreamResult(out));
+					super.startDocument();
+				}
+				
+			};
+			output.setContentHandler(serializer);
+			SAXResult result = new SAXResult(output);
+			result.setLexicalHandler(serializer);
+			
+			transformer.transform(new SAXSource(reader, new InputSource(in)), result);
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
 	}
 	
 	/**
@@ -642,7 +751,9 @@ public class Util {
 	}
 	
 	/**
-	 * Creates a new mapping file after adding the filters
+	 * Creates a new mapping file after adding the filters, the transformed files are cached in the
+	 * application data directory by a hash of their inputs so that they are only generated again when
+	 * the mapping file or the filters change.
 	 * 
 	 * @param hbmResourceName the name of the original mapping resource
 	 * @param filterRegistrations list of FilterRegistrations to add to the mapping file
@@ -654,17 +765,9 @@ public class Util {
 	                                           File outputDir)
 	    throws IOException {
 		
-		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(hbmResourceName);
-		ByteArrayOutputStream outFinal = null;
-		
-		for (HibernateFilterRegistration filterReg : filterRegistrations) {
-			if (outFinal != null) {
-				in = new ByteArrayInputStream(outFinal.toByteArray());
-			}
-			
-			ByteArrayOutputStream outTemp = new ByteArrayOutputStream();
-			Util.addFilterToMappingResource(in, outTemp, filterReg);
-			outFinal = outTemp;
+		byte[] source;
+		try (InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(hbmResourceName)) {
+			source = IOUtils.toByteArray(in);
 		}
 		
 		String hbmFilename = hbmResourceName;
@@ -674,7 +777,77 @@ public class Util {
 		
 		File newMappingFile = FileUtils.getFile(outputDir, hbmFilename);
 		
-		FileUtils.writeByteArrayToFile(newMappingFile, outFinal.toByteArray());
+		//The hash covers everything the transformed file is generated from, if a file was generated from
+		//the same inputs on a previous startup, it is copied from the cache without any transformation
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new APIException(e);
+		}
+		
+		digest.update(MAPPING_CACHE_VERSION.getBytes(StandardCharsets.UTF_8));
+		digest.update(addEntityFiltersXslt);
+		digest.update(source);
+		final String dialect = getDialect();
+		for (HibernateFilterRegistration filterReg : filterRegistrations) {
+			StringBuilder sb = new StringBuilder().append('\0').append(filterReg.getName()).append('\0')
+			        .append(filterReg.getDefaultCondition()).append('\0').append(filterReg.getCondition(dialect));
+			if (filterReg.getParameters() != null) {
+				for (HibernateFilterParameter parameter : filterReg.getParameters()) {
+					sb.append('\0').append(parameter.getName()).append(':').append(parameter.getType());
+				}
+			}
+			
+			digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		
+		StringBuilder hash = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hash.append(String.format("%02x", b));
+		}
+		
+		if (mappingCacheDirectory == null) {
+			mappingCacheDirectory = FileUtils.getFile(OpenmrsUtil.getApplicationDataDirectory(), MODULE_ID,
+			    MAPPING_CACHE_DIR_NAME);
+		}
+		
+		final String cachePrefix = StringUtils.removeStart(hbmResourceName, "/").replace('/', '_') + "-";
+		File cachedFile = FileUtils.getFile(mappingCacheDirectory, cachePrefix + hash);
+		if (cachedFile.isFile()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Using cached transformed mapping file for " + hbmResourceName);
+			}
+			
+			FileUtils.copyFile(cachedFile, newMappingFile);
+			return newMappingFile;
+		}
+		
+		try (OutputStream out = FileUtils.openOutputStream(newMappingFile)) {
+			addFiltersToMappingResource(new ByteArrayInputStream(source), out, filterRegistrations);
+		}
+		
+		try {
+			//Discard the files generated for the same mapping from inputs that have since changed
+			File[] staleFiles = mappingCacheDirectory.listFiles((dir, name) -> name.startsWith(cachePrefix));
+			if (staleFiles != null) {
+				for (File staleFile : staleFiles) {
+					FileUtils.deleteQuietly(staleFile);
+				}
+			}
+			
+			//Copy to a temporary file first and then rename so that a partially written file is never used
+			File tempFile = FileUtils.getFile(mappingCacheDirectory, "." + cachePrefix + hash);
+			FileUtils.copyFile(newMappingFile, tempFile);
+			if (!tempFile.renameTo(cachedFile)) {
+				FileUtils.deleteQuietly(tempFile);
+			}
+		}
+		catch (IOException e) {
+			//The cache is only an optimization
+			log.warn("Failed to cache transformed mapping file for " + hbmResourceName, e);
+		}
 		
 		return newMappingFile;
 	}
@@ -716,10 +889,123 @@ public class Util {
 	public static boolean skipFilter(String filterName) {
 		boolean hasByPassPriv = false;
 		if (Context.isAuthenticated()) {
-			hasByPassPriv = Context.hasPrivilege(filterName + DataFilterConstants.BYPASS_PRIV_SUFFIX);
+			String privilege = filterBypassPrivileges.get(filterName);
+			if (privilege == null) {
+				privilege = filterName + DataFilterConstants.BYPASS_PRIV_SUFFIX;
+				filterBypassPrivileges.put(filterName, privilege);
+			}
+			
+			hasByPassPriv = Context.hasPrivilege(privilege);
 		}
 		
 		return isFilterDisabled(filterName) || hasByPassPriv;
 	}
 	
+	/**
+	 * Registers a callback to be invoked if the current transaction gets rolled back, typically used
+	 * to discard cached data that was read or changed inside the transaction, it does nothing if there
+	 * is no transaction synchronization active on the current thread.
+	 *
+	 * @param callback the callback to invoke
+	 */
+	public static void registerRollbackCallback(Runnable callback) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			
+			@Override
+			public void afterCompletion(int status) {
+				if (status != TransactionSynchronization.STATUS_COMMITTED) {
+					callback.run();
+				}
+			}
+			
+		});
+	}
+	
+	/**
+	 * Registers a callback to be invoked after the current transaction gets committed, typically used
+	 * to discard cached data again once the changes are visible to other transactions since they could
+	 * have cached data read before the commit, it does nothing if there is no transaction
+	 * synchronization active on the current thread.
+	 *
+	 * @param callback the callback to invoke
+	 */
+	public static void registerAfterCommitCallback(Runnable callback) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			
+			@Override
+			public void afterCommit() {
+				callback.run();
+			}
+			
+		});
+	}
+	
+	/**
+	 * {@link LexicalHandler} that copies the public and system ids of the doctype of a parsed document
+	 * to the output properties of a transformer before delegating to another handler.
+	 */
+	private static class DoctypeCapturingLexicalHandler implements LexicalHandler {
+		
+		private LexicalHandler delegate;
+		
+		private Transformer transformer;
+		
+		DoctypeCapturingLexicalHandler(LexicalHandler delegate, Transformer transformer) {
+			this.delegate = delegate;
+			this.transformer = transformer;
+		}
+		
+		@Override
+		public void startDTD(String name, String publicId, String systemId) throws SAXException {
+			if (publicId != null) {
+				transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, publicId);
+			}
+			
+			if (systemId != null) {
+				transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, systemId);
+			}
+			
+			delegate.startDTD(name, publicId, systemId);
+		}
+		
+		@Override
+		public void endDTD() throws SAXException {
+			delegate.endDTD();
+		}
+		
+		@Override
+		public void startEntity(String name) throws SAXException {
+			delegate.startEntity(name);
+		}
+		
+		@Override
+		public void endEntity(String name) throws SAXException {
+			delegate.endEntity(name);
+		}
+		
+		@Override
+		public void startCDATA() throws SAXException {
+			delegate.startCDATA();
+		}
+		
+		@Override
+		public void endCDATA() throws SAXException {
+			delegate.endCDATA();
+		}
+		
+		@Override
+		public void comment(char[] ch, int start, int length) throws SAXException {
+			delegate.comment(ch, start, length);
+		}
+		
+	}
+	
 }
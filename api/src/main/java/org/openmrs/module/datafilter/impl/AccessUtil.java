@@ -12,20 +12,21 @@ package org.openmrs.module.datafilter.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.lang3.StringUtils;
 import org.openmrs.BaseOpenmrsObject;
 import org.openmrs.Location;
-import org.openmrs.Program;
-import org.openmrs.Role;
 import org.openmrs.User;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.AdministrationDAO;
-import org.openmrs.api.db.LocationDAO;
 import org.openmrs.module.datafilter.DataFilterConstants;
+import org.openmrs.module.datafilter.FilterSnapshotCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +53,13 @@ public class AccessUtil {
 	
 	private final static String UUIDS_PLACEHOLDER = "@uuids";
 	
+	private final static int ENCOUNTER_BATCH_SIZE = 1000;
+	
+	private final static String LINKED_PATIENT_QUERY = "SELECT DISTINCT pl.patient_id FROM "
+	        + DataFilterConstants.MODULE_ID + "_patient_location pl, " + DataFilterConstants.MODULE_ID
+	        + "_location_closure lc WHERE pl.location_id = lc.descendant_id AND lc.ancestor_id IN ("
+	        + ImplConstants.BASIS_IDS_PLACEHOLDER + ")";
+	
 	private final static String BASIS_QUERY = "SELECT DISTINCT basis_identifier FROM " + DataFilterConstants.MODULE_ID
 	        + "_entity_basis_map WHERE entity_identifier = '" + ENTITY_ID_PLACEHOLDER + "' AND entity_type = '"
 	        + ENTITY_TYPE_PLACEHOLDER + "' AND basis_type = '" + BASIS_TYPE_PLACEHOLDER + "'";
@@ -87,6 +95,90 @@ public class AccessUtil {
 		return Collections.EMPTY_SET;
 	}
 	
+	/**
+	 * Gets the ids of the patients linked to the specified locations or any of their descendants if
+	 * there are not more than the specified maximum, at most one more id than the maximum is read.
+	 *
+	 * @param locationIds the ids of the locations to match
+	 * @param max the maximum number of patient ids to return
+	 * @return a set of patient ids or null if there are more than the maximum
+	 */
+	public static Set<Integer> getLinkedPatientIds(Collection<Integer> locationIds, int max) {
+		Set<Integer> patientIds = new HashSet();
+		if (locationIds.isEmpty()) {
+			return patientIds;
+		}
+		
+		//The descendants are matched via the location closure table just like in the filter conditions
+		String query = LINKED_PATIENT_QUERY.replace(ImplConstants.BASIS_IDS_PLACEHOLDER, StringUtils.join(locationIds, ","))
+		        + " LIMIT " + (max + 1);
+		for (List<Object> row : executeQuery(query)) {
+			patientIds.add(((Number) row.get(0)).intValue());
+		}
+		
+		return patientIds.size() > max ? null : patientIds;
+	}
+	
+	/**
+	 * Gets the ids of the persons the authenticated user has access to as a primitive int set, the
+	 * set is cached per user until the user's assigned bases, the locations or the patient location
+	 * links change.
+	 *
+	 * @param basisType the type to base on
+	 * @return a set of person ids
+	 */
+	public static IntSet getAccessiblePersonIdSet(Class<? extends BaseOpenmrsObject> basisType) {
+		Integer userId = Context.getAuthenticatedUser().getUserId();
+		IntSet personIds = AccessiblePersonCache.get(userId, basisType);
+		if (personIds != null) {
+			return personIds;
+		}
+		
+		//Read these before resolving the ids so that the entry is ignored if anything changes meanwhile
+		long version = FilterSnapshotCache.getVersion();
+		long generation = AccessiblePersonCache.getGeneration();
+		Collection<String> accessiblePersonIds = getAccessiblePersonIds(basisType);
+		int[] ids = new int[accessiblePersonIds.size()];
+		int index = 0;
+		for (String id : accessiblePersonIds) {
+			ids[index++] = Integer.parseInt(id);
+		}
+		
+		personIds = new IntSet(ids);
+		AccessiblePersonCache.put(userId, basisType, version, generation, personIds);
+		
+		return personIds;
+	}
+	
+	/**
+	 * Gets the ids of the locations the authenticated user has access to i.e. the assigned locations
+	 * and all their descendants as a primitive int set, the set is cached per user until the user's
+	 * assigned bases or the locations change.
+	 *
+	 * @return a set of location ids
+	 */
+	public static IntSet getAccessibleLocationIdSet() {
+		Integer userId = Context.getAuthenticatedUser().getUserId();
+		IntSet locationIds = AccessibleLocationCache.get(userId);
+		if (locationIds != null) {
+			return locationIds;
+		}
+		
+		//Read this before resolving the ids so that the entry is ignored if anything changes meanwhile
+		long version = FilterSnapshotCache.getVersion();
+		Collection<String> accessibleLocationIds = getAssignedBasisIds(Location.class, true);
+		int[] ids = new int[accessibleLocationIds.size()];
+		int index = 0;
+		for (String id : accessibleLocationIds) {
+			ids[index++] = Integer.parseInt(id);
+		}
+		
+		locationIds = new IntSet(ids);
+		AccessibleLocationCache.put(userId, version, locationIds);
+		
+		return locationIds;
+	}
+	
 	/**
 	 * Gets the collection of basis ids for all the bases the authenticated user is granted access to
 	 * that match the specified basis type.
@@ -95,6 +187,20 @@ public class AccessUtil {
 	 * @return a collection of basis ids
 	 */
 	protected static Collection<String> getAssignedBasisIds(Class<? extends BaseOpenmrsObject> basisType) {
+		return getAssignedBasisIds(basisType, true);
+	}
+	
+	/**
+	 * Gets the collection of basis ids for all the bases the authenticated user is granted access to
+	 * that match the specified basis type.
+	 *
+	 * @param basisType the type to base on
+	 * @param includeDescendants specifies whether to include the ids of all the descendants in case of
+	 *            locations
+	 * @return a collection of basis ids
+	 */
+	protected static Collection<String> getAssignedBasisIds(Class<? extends BaseOpenmrsObject> basisType,
+	                                                        boolean includeDescendants) {
 		if (log.isDebugEnabled()) {
 			log.debug("Looking up assigned bases for the authenticated user");
 		}
@@ -109,12 +215,16 @@ public class AccessUtil {
 		rows.forEach((List<Object> row) -> basisIds.add(row.get(0).toString()));
 		
 		//Include child locations in case of locations
-		if (Location.class.isAssignableFrom(basisType)) {
-			Set<String> descendantIds = new HashSet();
+		if (includeDescendants && Location.class.isAssignableFrom(basisType) && !basisIds.isEmpty()) {
+			int[] locationIds = new int[basisIds.size()];
+			int index = 0;
 			for (String id : basisIds) {
-				descendantIds.addAll(getAllDescendantLocationIds(id));
+				locationIds[index++] = Integer.parseInt(id);
+			}
+			
+			for (int id : LocationHierarchy.getInstance().getSelfAndDescendantIds(locationIds)) {
+				basisIds.add(Integer.toString(id));
 			}
-			basisIds.addAll(descendantIds);
 		}
 		
 		return basisIds;
@@ -126,31 +236,14 @@ public class AccessUtil {
 	 * @param query the query to execute
 	 * @return A list of matching rows
 	 */
-	private static List<List<Object>> executeQuery(String query) {
+	static List<List<Object>> executeQuery(String query) {
 		AdministrationDAO adminDAO = Context.getRegisteredComponent("adminDAO", AdministrationDAO.class);
 		return adminDAO.executeSQL(query, true);
 	}
 	
 	/**
-	 * Gets all the child location ids for the location with the specified location id including those
-	 * of nested child location at all levels.
-	 * 
-	 * @param locationId the location whose descendants location ids to return
-	 * @return a collection of location ids
-	 */
-	private static Set<String> getAllDescendantLocationIds(String locationId) {
-		Set<String> ids = new HashSet();
-		LocationDAO dao = Context.getRegisteredComponent("locationDAO", LocationDAO.class);
-		Location location = dao.getLocation(Integer.valueOf(locationId));
-		for (Location l : location.getDescendantLocations(true)) {
-			ids.add(l.getId().toString());
-		}
-		
-		return ids;
-	}
-	
-	/**
-	 * Gets the view privilege for the encounter type matching the specified encounter type id
+	 * Gets the view privilege for the encounter type matching the specified encounter type id, the
+	 * privileges of all encounter types are cached until an encounter type is changed
 	 * 
 	 * @param encounterTypeId the encounter type id to match
 	 * @return the view privilege for the matched encounter type otherwise null
@@ -159,12 +252,27 @@ public class AccessUtil {
 		if (encounterTypeId == null) {
 			throw new APIException("Encounter type id is required");
 		}
-		final String query = "SELECT view_privilege FROM encounter_type WHERE encounter_type_id = " + encounterTypeId;
-		List<List<Object>> rows = executeQuery(query);
-		if (rows.isEmpty() || rows.get(0).isEmpty() || rows.get(0).get(0) == null) {
-			return null;
+		
+		return EncounterTypePrivilegeCache.getViewPrivilege(encounterTypeId);
+	}
+	
+	/**
+	 * Gets the ids of the encounter types the specified user is allowed to view, these are the
+	 * encounter types with no view privilege and those whose view privilege is granted to one of the
+	 * roles of the user, they are resolved from the cached view privileges of all encounter types.
+	 *
+	 * @param user the user to match
+	 * @return a set of encounter type ids
+	 */
+	public static Set<Integer> getViewableEncounterTypeIds(User user) {
+		Set<Integer> encounterTypeIds = new HashSet();
+		for (Map.Entry<Integer, String> entry : EncounterTypePrivilegeCache.getViewPrivileges().entrySet()) {
+			if (entry.getValue() == null || (user != null && user.hasPrivilege(entry.getValue()))) {
+				encounterTypeIds.add(entry.getKey());
+			}
 		}
-		return rows.get(0).get(0).toString();
+		
+		return encounterTypeIds;
 	}
 	
 	/**
@@ -182,20 +290,34 @@ public class AccessUtil {
 	}
 	
 	/**
-	 * Gets the list of all roles mapped to a program
+	 * Gets the encounter type ids for the encounters matching the specified encounter ids, the
+	 * encounters are looked up in batches to keep the number of bind values per query low.
+	 *
+	 * @param encounterIds the encounter ids to match
+	 * @return a map of encounter ids and their encounter type ids
+	 */
+	public static Map<Integer, Integer> getEncounterTypeIdsForEncounters(Collection<Integer> encounterIds) {
+		Map<Integer, Integer> encIdAndTypeIdMap = new HashMap(encounterIds.size());
+		List<Integer> ids = new ArrayList(encounterIds);
+		for (int i = 0; i < ids.size(); i += ENCOUNTER_BATCH_SIZE) {
+			List<Integer> batch = ids.subList(i, Math.min(i + ENCOUNTER_BATCH_SIZE, ids.size()));
+			final String query = "SELECT encounter_id, encounter_type FROM encounter WHERE encounter_id IN ("
+			        + StringUtils.join(batch, ",") + ")";
+			for (List<Object> row : executeQuery(query)) {
+				encIdAndTypeIdMap.put(((Number) row.get(0)).intValue(), ((Number) row.get(1)).intValue());
+			}
+		}
+		
+		return encIdAndTypeIdMap;
+	}
+	
+	/**
+	 * Gets the list of all roles mapped to a program, they are served from the {@link ProgramRoleIndex}
 	 * 
 	 * @return a list of all program role names
 	 */
 	protected static Collection<String> getAllProgramRoles() {
-		final String query = "SELECT DISTINCT entity_identifier FROM datafilter_entity_basis_map WHERE entity_type = '"
-		        + Role.class.getName() + "' AND basis_type = '" + Program.class.getName() + "'";
-		List<List<Object>> rows = executeQuery(query);
-		List<String> roles = new ArrayList();
-		for (List<Object> row : rows) {
-			roles.add(row.get(0).toString());
-		}
-		
-		return roles;
+		return ProgramRoleIndex.getProgramRoles();
 	}
 	
 }
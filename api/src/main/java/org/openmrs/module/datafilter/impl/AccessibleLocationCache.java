@@ -0,0 +1,97 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openmrs.module.datafilter.FilterSnapshotCache;
+import org.openmrs.module.datafilter.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the ids of the locations each user has access to i.e. the assigned locations and all their
+ * descendants so that the access interceptor can check the location of every loaded encounter or
+ * visit without querying the database.
+ *
+ * <pre>
+ * An entry is only valid for the filter snapshot assignment version it was computed for, therefore
+ * any change to the user's assigned bases or to the locations discards it.
+ * </pre>
+ */
+public final class AccessibleLocationCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(AccessibleLocationCache.class);
+	
+	protected static final int MAX_SIZE = 500;
+	
+	private static final Map<Integer, Entry> entries = new ConcurrentHashMap();
+	
+	private AccessibleLocationCache() {
+	}
+	
+	/**
+	 * Gets the cached location ids for the specified user if they are still valid
+	 *
+	 * @param userId the id of the user
+	 * @return the cached location ids or null if none are found
+	 */
+	public static IntSet get(Integer userId) {
+		Entry entry = entries.get(userId);
+		if (entry == null || entry.version != FilterSnapshotCache.getVersion()) {
+			return null;
+		}
+		
+		return entry.locationIds;
+	}
+	
+	/**
+	 * Adds the specified location ids to the cache, if the current transaction gets rolled back the
+	 * entry is discarded since it could have been created from uncommitted data.
+	 *
+	 * @param userId the id of the user
+	 * @param version the filter snapshot assignment version read before resolving the ids
+	 * @param locationIds the location ids to cache
+	 */
+	public static void put(Integer userId, long version, IntSet locationIds) {
+		if (entries.size() >= MAX_SIZE) {
+			//Most entries are stale at this point since the version changes every time assignments change
+			entries.clear();
+		}
+		
+		entries.put(userId, new Entry(version, locationIds));
+		Util.registerRollbackCallback(() -> entries.remove(userId));
+	}
+	
+	/**
+	 * Discards all cached location ids
+	 */
+	public static void clear() {
+		entries.clear();
+		if (log.isDebugEnabled()) {
+			log.debug("Discarded all cached accessible location ids");
+		}
+	}
+	
+	private static class Entry {
+		
+		private final long version;
+		
+		private final IntSet locationIds;
+		
+		Entry(long version, IntSet locationIds) {
+			this.version = version;
+			this.locationIds = locationIds;
+		}
+		
+	}
+	
+}
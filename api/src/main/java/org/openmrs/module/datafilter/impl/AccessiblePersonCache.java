@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.module.datafilter.FilterSnapshotCache;
+import org.openmrs.module.datafilter.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the ids of the persons each user has access to so that the access interceptor can check
+ * every loaded record against them without querying the database.
+ *
+ * <pre>
+ * An entry is only valid for the filter snapshot assignment version it was computed for, therefore
+ * any change to the user's assigned bases or to the locations discards it, changes to the patient
+ * location links discard all the entries.
+ * </pre>
+ */
+public final class AccessiblePersonCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(AccessiblePersonCache.class);
+	
+	protected static final int MAX_SIZE = 500;
+	
+	private static final Map<Integer, Entry> entries = new ConcurrentHashMap();
+	
+	private static final AtomicLong generation = new AtomicLong();
+	
+	private AccessiblePersonCache() {
+	}
+	
+	/**
+	 * Gets the cached person ids for the specified user and basis type if they are still valid
+	 *
+	 * @param userId the id of the user
+	 * @param basisType the basis type the ids were resolved for
+	 * @return the cached person ids or null if none are found
+	 */
+	public static IntSet get(Integer userId, Class<?> basisType) {
+		Entry entry = entries.get(userId);
+		if (entry == null || entry.basisType != basisType || entry.version != FilterSnapshotCache.getVersion()
+		        || entry.generation != generation.get()) {
+			return null;
+		}
+		
+		return entry.personIds;
+	}
+	
+	/**
+	 * Gets the current generation, callers should read it before they resolve the person ids to
+	 * cache so that the ids are discarded if the patient location links change in the meantime.
+	 *
+	 * @return the generation
+	 */
+	public static long getGeneration() {
+		return generation.get();
+	}
+	
+	/**
+	 * Adds the specified person ids to the cache, if the current transaction gets rolled back the
+	 * entry is discarded since it could have been created from uncommitted data.
+	 *
+	 * @param userId the id of the user
+	 * @param basisType the basis type the ids were resolved for
+	 * @param version the filter snapshot assignment version read before resolving the ids
+	 * @param generation the generation read before resolving the ids
+	 * @param personIds the person ids to cache
+	 */
+	public static void put(Integer userId, Class<?> basisType, long version, long generation, IntSet personIds) {
+		if (entries.size() >= MAX_SIZE) {
+			//Most entries are stale at this point since the version changes every time assignments change
+			entries.clear();
+		}
+		
+		entries.put(userId, new Entry(basisType, version, generation, personIds));
+		Util.registerRollbackCallback(() -> entries.remove(userId));
+	}
+	
+	/**
+	 * Discards all cached person ids
+	 */
+	public static void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+		if (log.isDebugEnabled()) {
+			log.debug("Discarded all cached accessible person ids");
+		}
+	}
+	
+	private static class Entry {
+		
+		private final Class<?> basisType;
+		
+		private final long version;
+		
+		private final long generation;
+		
+		private final IntSet personIds;
+		
+		Entry(Class<?> basisType, long version, long generation, IntSet personIds) {
+			this.basisType = basisType;
+			this.version = version;
+			this.generation = generation;
+			this.personIds = personIds;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,124 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.datafilter.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the view privileges of all the encounter types, they are loaded with a single query the
+ * first time they are needed and discarded every time an encounter type is saved, retired or
+ * deleted.
+ */
+public final class EncounterTypePrivilegeCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(EncounterTypePrivilegeCache.class);
+	
+	protected static final String QUERY = "SELECT encounter_type_id, view_privilege FROM encounter_type";
+	
+	private static volatile Map<Integer, String> privileges;
+	
+	private static long generation;
+	
+	private EncounterTypePrivilegeCache() {
+	}
+	
+	/**
+	 * Gets the view privilege of the encounter type with the specified id
+	 *
+	 * @param encounterTypeId the encounter type id to match
+	 * @return the name of the view privilege or null if the encounter type has none
+	 */
+	public static String getViewPrivilege(Integer encounterTypeId) {
+		Map<Integer, String> encTypeIdPrivilegeMap = getViewPrivileges();
+		if (encTypeIdPrivilegeMap.containsKey(encounterTypeId)) {
+			return encTypeIdPrivilegeMap.get(encounterTypeId);
+		}
+		
+		//The encounter type could have been created after the cache was loaded, it's not added to the
+		//cache because it is yet to be committed
+		if (log.isDebugEnabled()) {
+			log.debug("No cached view privilege found for encounter type with id: " + encounterTypeId);
+		}
+		
+		List<List<Object>> rows = AccessUtil
+		        .executeQuery(QUERY + " WHERE encounter_type_id = " + encounterTypeId.intValue());
+		if (rows.isEmpty() || rows.get(0).get(1) == null) {
+			return null;
+		}
+		
+		return rows.get(0).get(1).toString();
+	}
+	
+	/**
+	 * Gets the view privileges of all the encounter types, they are loaded from the database if they
+	 * are not yet loaded.
+	 *
+	 * @return an unmodifiable map of encounter type ids and the names of their view privileges, the
+	 *         value is null for encounter types with no view privilege
+	 */
+	public static Map<Integer, String> getViewPrivileges() {
+		Map<Integer, String> encTypeIdPrivilegeMap = privileges;
+		if (encTypeIdPrivilegeMap == null) {
+			encTypeIdPrivilegeMap = load();
+		}
+		
+		return encTypeIdPrivilegeMap;
+	}
+	
+	/**
+	 * Discards the cached view privileges, they will be reloaded the next time they are requested.
+	 */
+	public static synchronized void clear() {
+		generation++;
+		privileges = null;
+	}
+	
+	private static Map<Integer, String> load() {
+		long loadGeneration;
+		synchronized (EncounterTypePrivilegeCache.class) {
+			if (privileges != null) {
+				return privileges;
+			}
+			
+			loadGeneration = generation;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Loading encounter type view privileges");
+		}
+		
+		List<List<Object>> rows = AccessUtil.executeQuery(QUERY);
+		Map<Integer, String> encTypeIdPrivilegeMap = new HashMap(rows.size());
+		for (List<Object> row : rows) {
+			Object privilege = row.get(1);
+			encTypeIdPrivilegeMap.put(((Number) row.get(0)).intValue(), privilege == null ? null : privilege.toString());
+		}
+		
+		encTypeIdPrivilegeMap = Collections.unmodifiableMap(encTypeIdPrivilegeMap);
+		synchronized (EncounterTypePrivilegeCache.class) {
+			//Don't cache them if an encounter type was changed while we were loading
+			if (loadGeneration == generation) {
+				privileges = encTypeIdPrivilegeMap;
+				//The loaded privileges could include changes made in the current transaction
+				Util.registerRollbackCallback(EncounterTypePrivilegeCache::clear);
+			}
+		}
+		
+		return encTypeIdPrivilegeMap;
+	}
+	
+}
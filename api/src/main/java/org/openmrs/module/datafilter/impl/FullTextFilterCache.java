@@ -0,0 +1,123 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.Filter;
+import org.openmrs.module.datafilter.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the full text filters matching the patients accessible at each set of locations so that
+ * they are shared by all the searches of the users with the same resolved locations, each filter
+ * caches the matching documents per index segment and only computes them for segments added after.
+ *
+ * <pre>
+ * The access key includes the filter snapshot assignment version read before the filter parameters
+ * were resolved, therefore any change to the assignments or locations implies new keys and the stale
+ * filters are never matched, the keys of filters that match patient ids also include the accessible
+ * person cache generation since they change along with the patient location links.
+ * </pre>
+ */
+public final class FullTextFilterCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(FullTextFilterCache.class);
+	
+	protected static final int MAX_SIZE = 100;
+	
+	private static final Map<String, Filter> filters = new ConcurrentHashMap();
+	
+	private FullTextFilterCache() {
+	}
+	
+	/**
+	 * Creates the access key for the specified resolved location ids
+	 *
+	 * @param version the filter snapshot assignment version read before resolving the ids
+	 * @param generation the accessible person cache generation read before resolving the ids
+	 * @param locationIds the ids of the locations including their descendants
+	 * @return the access key
+	 */
+	public static String createAccessKey(long version, long generation, Collection<String> locationIds) {
+		return version + ":" + generation + ":" + join(locationIds);
+	}
+	
+	/**
+	 * Creates the access key for the specified resolved location ids of a filter that doesn't depend on
+	 * the patient location links
+	 *
+	 * @param version the filter snapshot assignment version read before resolving the ids
+	 * @param locationIds the ids of the locations including their descendants
+	 * @return the access key
+	 */
+	public static String createAccessKey(long version, Collection<String> locationIds) {
+		return version + ":" + join(locationIds);
+	}
+	
+	private static String join(Collection<String> locationIds) {
+		int[] ids = new int[locationIds.size()];
+		int index = 0;
+		for (String id : locationIds) {
+			ids[index++] = Integer.parseInt(id);
+		}
+		
+		//Sort them so that the same locations always produce the same key
+		Arrays.sort(ids);
+		
+		return StringUtils.join(ids, ',');
+	}
+	
+	/**
+	 * Gets the cached filter for the specified field and access key
+	 *
+	 * @param field the name of the field the filter matches
+	 * @param accessKey the access key
+	 * @return the cached filter or null if none is found
+	 */
+	public static Filter get(String field, String accessKey) {
+		return filters.get(field + "|" + accessKey);
+	}
+	
+	/**
+	 * Adds the specified filter to the cache, if the current transaction gets rolled back the filter
+	 * is discarded since it could have been created from uncommitted data.
+	 *
+	 * @param field the name of the field the filter matches
+	 * @param accessKey the access key
+	 * @param filter the filter to cache
+	 */
+	public static void put(String field, String accessKey, Filter filter) {
+		if (filters.size() >= MAX_SIZE) {
+			//Most filters are stale at this point since the keys change every time assignments change
+			filters.clear();
+		}
+		
+		final String key = field + "|" + accessKey;
+		filters.put(key, filter);
+		Util.registerRollbackCallback(() -> filters.remove(key));
+	}
+	
+	/**
+	 * Discards all the cached filters
+	 */
+	public static void clear() {
+		filters.clear();
+		if (log.isDebugEnabled()) {
+			log.debug("Discarded all cached full text filters");
+		}
+	}
+	
+}
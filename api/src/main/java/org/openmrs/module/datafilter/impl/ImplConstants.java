@@ -18,8 +18,6 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.openmrs.Location;
-import org.openmrs.Patient;
 import org.openmrs.module.datafilter.DataFilterConstants;
 
 public final class ImplConstants {
@@ -32,13 +30,25 @@ public final class ImplConstants {
 	
 	public static final String PARAM_NAME_BASIS_IDS = "basisIds";
 	
-	public static final String PARAM_NAME_ROLES = "roles";
+	public static final String PARAM_NAME_ENC_TYPE_IDS = "encounterTypeIds";
 	
 	public static final String PARAM_NAME_AUTHENTICATED_PERSON_ID = "authenticatedPersonId";
 	
+	public static final String PARAM_NAME_HIDDEN_USER_IDS = "hiddenUserIds";
+	
 	public static final String PARAM_NAME_USER_PROG_ROLES = "userProgramRoles";
 	
-	public static final String PARAM_NAME_ALL_PROG_ROlES = "allProgramRoles";
+	public static final String PARAM_NAME_ALL_PROG_ROLES = "allProgramRoles";
+	
+	public static final String PARAM_NAME_PATIENT_IDS = "patientIds";
+	
+	public static final String PARAM_NAME_LOCATION_IDS = "locationIds";
+	
+	public static final String STRATEGY_ID_LIST = "idList";
+	
+	public static final String STRATEGY_ENCOUNTER_LOCATION = "encounterLocation";
+	
+	public static final String STRATEGY_PROGRAM_ROLES = "programRoles";
 	
 	public static final String LOCATION_BASED_FILTER_NAME_ENCOUNTER = LOCATION_BASED_FILTER_NAME_PREFIX + "EncounterFilter";
 	
@@ -69,6 +79,14 @@ public final class ImplConstants {
 	            LOCATION_FILTER_NAME)
 	        .collect(Collectors.toSet());
 	
+	public static final Set<String> LOCATION_BASED_PATIENT_FILTER_NAMES = Stream
+	        .of(LOCATION_BASED_FILTER_NAME_PATIENT, LOCATION_BASED_FILTER_NAME_VISIT, LOCATION_BASED_FILTER_NAME_ENCOUNTER,
+	            LOCATION_BASED_FILTER_NAME_OBS)
+	        .collect(Collectors.toSet());
+	
+	public static final Set<String> ENCOUNTER_LOCATION_FILTER_NAMES = Stream
+	        .of(LOCATION_BASED_FILTER_NAME_VISIT, LOCATION_BASED_FILTER_NAME_ENCOUNTER).collect(Collectors.toSet());
+	
 	public static final Set<String> PROGRAM_BASED_FILTER_NAMES = Stream
 	        .of(PROGRAM_BASED_FILTER_NAME_USER, PROGRAM_BASED_FILTER_NAME_PROVIDER).collect(Collectors.toSet());
 	
@@ -87,11 +105,17 @@ public final class ImplConstants {
 	public static final String LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT = MODULE_ID
 	        + "_locationBasedPatientFullTextFilter";
 	
+	public static final String LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT_ID = MODULE_ID
+	        + "_locationBasedPatientIdFullTextFilter";
+	
+	public static final String FULL_TEXT_LOCATION_FIELD = MODULE_ID + ".locationId";
+	
+	public static final String FULL_TEXT_PATIENT_ID_FIELD = MODULE_ID + ".patientId";
+	
 	public final static String BASIS_IDS_PLACEHOLDER = ":" + PARAM_NAME_BASIS_IDS;
 	
-	public static final String PERSON_ID_QUERY = "SELECT DISTINCT entity_identifier FROM " + DataFilterConstants.MODULE_ID
-	        + "_entity_basis_map WHERE entity_type = '" + Patient.class.getName() + "' AND basis_type = '"
-	        + Location.class.getName() + "' AND basis_identifier IN (" + BASIS_IDS_PLACEHOLDER + ")";
+	public static final String PERSON_ID_QUERY = "SELECT DISTINCT patient_id FROM " + DataFilterConstants.MODULE_ID
+	        + "_patient_location WHERE location_id IN (" + BASIS_IDS_PLACEHOLDER + ")";
 	
 	public static final String GP_LOCATION_BASED_FILTER_NAME_ENCOUNTER = LOCATION_BASED_FILTER_NAME_ENCOUNTER + DISABLED;
 	
@@ -119,10 +143,28 @@ public final class ImplConstants {
 	
 	public static final String GP_ENC_TYPE_PRIV_BASED_FILTER_NAME_OBS = ENC_TYPE_PRIV_BASED_FILTER_NAME_OBS + DISABLED;
 	
+	public static final String GP_ID_LIST_STRATEGY_THRESHOLD = MODULE_ID + ".idListStrategyThreshold";
+	
+	public static final int DEFAULT_ID_LIST_STRATEGY_THRESHOLD = 100;
+	
+	public static final String GP_HIDDEN_USER_ID_LIST_THRESHOLD = MODULE_ID + ".hiddenUserIdListThreshold";
+	
+	public static final int DEFAULT_HIDDEN_USER_ID_LIST_THRESHOLD = 500;
+	
 	public static final String GP_RUN_IN_STRICT_MODE = MODULE_ID + ".runInStrictMode";
 	
+	public static final String GP_STRICT_MODE_VERIFICATION = MODULE_ID + ".strictModeVerification";
+	
+	public static final String STRICT_MODE_VERIFICATION_DEFERRED = "deferred";
+	
+	public static final String GP_FULL_TEXT_LOCATION_INDEX_VERSION = MODULE_ID + ".fullTextLocationIndexVersion";
+	
+	public static final String FULL_TEXT_LOCATION_INDEX_VERSION = "2";
+	
 	public static final String GP_PAT_LOC_INTERCEPTOR_ENABLED = MODULE_ID + ".patientLocationLinkingInterceptor" + ENABLED;
 	
+	public static final String GP_ENCOUNTER_LOCATION_MODE_ENABLED = MODULE_ID + ".encounterLocationMode" + ENABLED;
+	
 	public static final String ILLEGAL_RECORD_ACCESS_MESSAGE = "Illegal Record Access";
 	
 }
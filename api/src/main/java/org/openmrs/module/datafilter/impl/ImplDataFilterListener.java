@@ -12,14 +12,15 @@ package org.openmrs.module.datafilter.impl;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.StringUtils;
 import org.openmrs.Location;
-import org.openmrs.Role;
-import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.DataFilterContext;
 import org.openmrs.module.datafilter.DataFilterListener;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -54,15 +55,17 @@ public class ImplDataFilterListener implements DataFilterListener {
 		if (filterContext.getFilterName().startsWith(ImplConstants.LOCATION_BASED_FILTER_NAME_PREFIX)
 		        || filterContext.getFilterName().equals(ImplConstants.LOCATION_FILTER_NAME)) {
 			
-			Collection<String> basisIds = new HashSet();
+			Collection<Integer> basisIds = new HashSet();
 			if (Context.isAuthenticated()) {
-				basisIds.addAll(AccessUtil.getAssignedBasisIds(Location.class));
+				//The filter conditions match the descendants via the location closure table, the ids are bound
+				//as integers since they are compared to integer columns
+				AccessUtil.getAssignedBasisIds(Location.class, false).forEach(id -> basisIds.add(Integer.valueOf(id)));
 			}
 			
 			if (basisIds.isEmpty()) {
 				//If the user isn't granted access to patients at any basis, we add -1 because ids are all > 0,
 				//in theory the query will match no records if the user isn't granted access to any basis
-				basisIds = Collections.singleton("-1");
+				basisIds.add(-1);
 			}
 			
 			if (filterContext.getFilterName().equals(ImplConstants.LOCATION_BASED_FILTER_NAME_PROVIDER)) {
@@ -76,40 +79,148 @@ public class ImplDataFilterListener implements DataFilterListener {
 			
 			filterContext.setParameter(ImplConstants.PARAM_NAME_BASIS_IDS, basisIds);
 			
+			if (filterContext.getFilterName().equals(ImplConstants.LOCATION_FILTER_NAME) && coversAllLocations(basisIds)) {
+				if (log.isTraceEnabled()) {
+					log.trace("Skipping enabling of " + filterContext.getFilterName() + " because all locations are assigned");
+				}
+				
+				return false;
+			}
+			
+			if (ImplConstants.ENCOUNTER_LOCATION_FILTER_NAMES.contains(filterContext.getFilterName())
+			        && "true".equalsIgnoreCase(GlobalPropertyCache.getValue(ImplConstants.GP_ENCOUNTER_LOCATION_MODE_ENABLED))) {
+				//Encounters and visits are matched by their own indexed location column instead of the patient
+				Collection<Integer> locationIds = new HashSet();
+				int[] ids = basisIds.stream().mapToInt(Integer::intValue).toArray();
+				for (int id : LocationHierarchy.getInstance().getSelfAndDescendantIds(ids)) {
+					locationIds.add(id);
+				}
+				
+				if (locationIds.isEmpty()) {
+					locationIds.add(-1);
+				}
+				
+				filterContext.setStrategy(ImplConstants.STRATEGY_ENCOUNTER_LOCATION);
+				filterContext.setParameter(ImplConstants.PARAM_NAME_LOCATION_IDS, locationIds);
+			} else if (ImplConstants.LOCATION_BASED_PATIENT_FILTER_NAMES.contains(filterContext.getFilterName())) {
+				//For a few accessible patients, matching their ids is cheaper than the subquery
+				int threshold = getThreshold(ImplConstants.GP_ID_LIST_STRATEGY_THRESHOLD,
+				    ImplConstants.DEFAULT_ID_LIST_STRATEGY_THRESHOLD);
+				//Read it before resolving the ids so that a snapshot built from stale ids is recreated
+				long generation = AccessiblePersonCache.getGeneration();
+				Collection<Integer> patientIds = threshold > 0 ? AccessUtil.getLinkedPatientIds(basisIds, threshold) : null;
+				if (patientIds != null) {
+					if (patientIds.isEmpty()) {
+						patientIds.add(-1);
+					}
+					
+					//The ids change whenever patients get linked to or unlinked from the locations
+					filterContext.setGeneration(AccessiblePersonCache::getGeneration, generation);
+					filterContext.setStrategy(ImplConstants.STRATEGY_ID_LIST);
+					filterContext.setParameter(ImplConstants.PARAM_NAME_PATIENT_IDS, patientIds);
+				}
+			}
+			
 		} else if (filterContext.getFilterName().startsWith(ImplConstants.ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX)) {
-			Collection<String> roles = new HashSet();
-			if (Context.isAuthenticated()) {
-				Collection<String> allRoles = Context.getAuthenticatedUser().getAllRoles().stream().map(r -> r.getName())
-				        .collect(Collectors.toSet());
-				roles.addAll(allRoles);
+			//The encounter types are resolved once per snapshot from the cached view privileges so the
+			//filter conditions don't have to look up the privileges of the roles for every row
+			Set<Integer> encounterTypeIds = AccessUtil.getViewableEncounterTypeIds(Context.getAuthenticatedUser());
+			if (encounterTypeIds.containsAll(EncounterTypePrivilegeCache.getViewPrivileges().keySet())) {
+				if (log.isTraceEnabled()) {
+					log.trace("Skipping enabling of " + filterContext.getFilterName()
+					        + " because the user can view all encounter types");
+				}
+				
+				return false;
+			}
+			
+			if (encounterTypeIds.isEmpty()) {
+				//Avoid 'IN ()' which is an invalid query, ids are all > 0 so no encounter type will be matched
+				encounterTypeIds.add(-1);
 			}
 			
-			filterContext.setParameter(ImplConstants.PARAM_NAME_ROLES, roles);
+			filterContext.setParameter(ImplConstants.PARAM_NAME_ENC_TYPE_IDS, encounterTypeIds);
 			
 		} else if (filterContext.getFilterName().startsWith(ImplConstants.PROGRAM_BASED_FILTER_NAME_PREFIX)) {
-			Collection<String> userProgramRoleNames = new HashSet();
-			Collection<String> allProgramRoleNames = AccessUtil.getAllProgramRoles();
+			Collection<String> roles = new HashSet();
 			if (Context.isAuthenticated()) {
-				Collection<Role> userProgramRoles = Context.getAuthenticatedUser().getAllRoles().stream()
-				        .filter(r -> allProgramRoleNames.contains(r.getName())).collect(Collectors.toList());
-				
-				userProgramRoleNames = userProgramRoles.stream().map(r -> r.getName()).collect(Collectors.toSet());
-				
-				if (allProgramRoleNames.isEmpty()) {
-					throw new APIException("No program roles were found");
+				roles = Context.getAuthenticatedUser().getAllRoles().stream().map(r -> r.getName())
+				        .collect(Collectors.toSet());
+			}
+			
+			//The users that only work in other programs are resolved from the program role index so the
+			//filter conditions don't have to match the roles and programs of every user
+			Collection<Integer> hiddenUserIds = ProgramRoleIndex.getHiddenUserIds(roles);
+			if (hiddenUserIds.isEmpty()) {
+				if (filterContext.getFilterName().equals(ImplConstants.PROGRAM_BASED_FILTER_NAME_USER)) {
+					if (log.isTraceEnabled()) {
+						log.trace("Skipping enabling of " + filterContext.getFilterName() + " because no user is hidden");
+					}
+					
+					return false;
 				}
 				
-				if (userProgramRoleNames.isEmpty()) {
+				//Providers must still be linked to a user account, ids are all > 0 so no user is excluded
+				hiddenUserIds = Collections.singleton(-1);
+			} else if (hiddenUserIds.size() > getThreshold(ImplConstants.GP_HIDDEN_USER_ID_LIST_THRESHOLD,
+			    ImplConstants.DEFAULT_HIDDEN_USER_ID_LIST_THRESHOLD)) {
+				//Too many users are hidden to bind their ids, the roles and programs of each user are matched instead
+				Collection<String> allProgramRoles = AccessUtil.getAllProgramRoles();
+				Collection<String> userProgramRoles = roles.stream().filter(allProgramRoles::contains)
+				        .collect(Collectors.toSet());
+				if (userProgramRoles.isEmpty()) {
 					//Avoid a 'select IN ()' would be an invalid query, in theory we expect no role to match #####
-					userProgramRoleNames.add("#####");
+					userProgramRoles.add("#####");
 				}
+				
+				filterContext.setStrategy(ImplConstants.STRATEGY_PROGRAM_ROLES);
+				filterContext.setParameter(ImplConstants.PARAM_NAME_USER_PROG_ROLES, userProgramRoles);
+				filterContext.setParameter(ImplConstants.PARAM_NAME_ALL_PROG_ROLES, allProgramRoles);
+				
+				return true;
 			}
 			
-			filterContext.setParameter(ImplConstants.PARAM_NAME_USER_PROG_ROLES, userProgramRoleNames);
-			filterContext.setParameter(ImplConstants.PARAM_NAME_ALL_PROG_ROlES, allProgramRoleNames);
+			filterContext.setParameter(ImplConstants.PARAM_NAME_HIDDEN_USER_IDS, hiddenUserIds);
 		}
 		
 		return true;
 	}
 	
+	/**
+	 * Checks if the specified locations and their descendants include all the locations
+	 *
+	 * @param locationIds the location ids to check
+	 * @return true if all locations are included otherwise false
+	 */
+	private boolean coversAllLocations(Collection<Integer> locationIds) {
+		LocationHierarchy hierarchy = LocationHierarchy.getInstance();
+		int[] ids = locationIds.stream().mapToInt(Integer::intValue).toArray();
+		return hierarchy.size() > 0 && hierarchy.getSelfAndDescendantIds(ids).length == hierarchy.size();
+	}
+	
+	/**
+	 * Gets the value of the global property with the specified name holding the maximum size of an id
+	 * list a filter binds before an alternative strategy is used, for the location based filters a
+	 * value of zero or less disables the id list strategy while for the program based filters it means
+	 * the roles and programs of the users are always matched.
+	 *
+	 * @param gpName the name of the global property
+	 * @param defaultValue the value to use if the global property is not set or is invalid
+	 * @return the threshold
+	 */
+	private int getThreshold(String gpName, int defaultValue) {
+		String value = GlobalPropertyCache.getValue(gpName);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value for the global property " + gpName + ": " + value);
+			return defaultValue;
+		}
+	}
+	
 }
@@ -10,7 +10,6 @@
 package org.openmrs.module.datafilter.impl;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 
 import org.openmrs.Location;
@@ -20,7 +19,10 @@ import org.openmrs.PersonName;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.DataFilterContext;
 import org.openmrs.module.datafilter.DataFilterListener;
+import org.openmrs.module.datafilter.FilterSnapshotCache;
 import org.openmrs.module.datafilter.FullTextDataFilterContext;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
+import org.openmrs.module.datafilter.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -41,7 +43,8 @@ public class ImplFullTextDataFilterListener implements DataFilterListener {
 	
 	@Override
 	public boolean supports(String filterName) {
-		return ImplConstants.LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT.equals(filterName);
+		return ImplConstants.LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT.equals(filterName)
+		        || ImplConstants.LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT_ID.equals(filterName);
 	}
 	
 	@Override
@@ -54,17 +57,52 @@ public class ImplFullTextDataFilterListener implements DataFilterListener {
 			return false;
 		}
 		
-		Collection<String> personIds = AccessUtil.getAccessiblePersonIds(Location.class);
-		if (personIds.isEmpty()) {
-			//If the user isn't granted access to patients at any basis, we add -1 because ids are all > 0,
-			//in theory the query will match no records if the user isn't granted access to any basis
-			personIds = Collections.singleton("-1");
+		//Documents indexed by an older version of the module don't have the location ids, the patient ids
+		//are matched instead until all of them are rebuilt
+		boolean isIndexRebuilt = ImplConstants.FULL_TEXT_LOCATION_INDEX_VERSION
+		        .equals(GlobalPropertyCache.getValue(ImplConstants.GP_FULL_TEXT_LOCATION_INDEX_VERSION));
+		if (ImplConstants.LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT_ID.equals(filterContext.getFilterName())) {
+			//The fallback is switched on and off along with the location id filter
+			if (isIndexRebuilt || Util.skipFilter(ImplConstants.LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT)) {
+				return false;
+			}
+			
+			//Read these before resolving the ids so that a filter built from stale ids is never matched
+			long version = FilterSnapshotCache.getVersion();
+			long generation = AccessiblePersonCache.getGeneration();
+			Collection<String> locationIds = AccessUtil.getAssignedBasisIds(Location.class);
+			
+			filterContext.setParameter("field",
+			    CLASS_FIELD_MAP.get(((FullTextDataFilterContext) filterContext).getEntityClass()));
+			filterContext.setParameter("accessKey", FullTextFilterCache.createAccessKey(version, generation, locationIds));
+			//The access key changes whenever patients get linked to or unlinked from the locations
+			filterContext.setGeneration(AccessiblePersonCache::getGeneration, generation);
+			
+			return true;
+		}
+		
+		if (!isIndexRebuilt) {
+			return false;
+		}
+		
+		long version = FilterSnapshotCache.getVersion();
+		if (PatientIdDocValuesFullTextFilter.class.equals(((FullTextDataFilterContext) filterContext).getImplClass())) {
+			//The doc values filter matches the patient ids, so it gets keyed by the links like the fallback
+			long generation = AccessiblePersonCache.getGeneration();
+			Collection<String> locationIds = AccessUtil.getAssignedBasisIds(Location.class);
+			filterContext.setParameter("accessKey", FullTextFilterCache.createAccessKey(version, generation, locationIds));
+			filterContext.setGeneration(AccessiblePersonCache::getGeneration, generation);
+			
+			return true;
 		}
 		
-		filterContext.setParameter("field",
-		    CLASS_FIELD_MAP.get(((FullTextDataFilterContext) filterContext).getEntityClass()));
+		Collection<String> locationIds = AccessUtil.getAssignedBasisIds(Location.class);
 		
-		filterContext.setParameter("patientIds", personIds);
+		//Users with the same resolved locations share the same filter and its cached matching documents,
+		//the location ids of the documents are updated when patient links change so the key doesn't
+		//depend on the links
+		filterContext.setParameter("accessKey", FullTextFilterCache.createAccessKey(version, locationIds));
+		filterContext.setParameter("locationIds", locationIds);
 		
 		return true;
 	}
@@ -0,0 +1,146 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of primitive ints backed by an open addressing hash table, it is meant for large
+ * sets of ids that get looked up frequently e.g. the ids of the persons a user has access to, a
+ * lookup neither boxes the id nor allocates any memory.
+ */
+public final class IntSet {
+	
+	public static final IntSet EMPTY = new IntSet(new int[0]);
+	
+	//Zero marks the empty slots in the table, so it is tracked separately
+	private static final int FREE = 0;
+	
+	private final int[] table;
+	
+	private final int mask;
+	
+	private final boolean containsFree;
+	
+	private final int size;
+	
+	/**
+	 * @param values the values to add to the set, duplicates are ignored
+	 */
+	public IntSet(int[] values) {
+		int capacity = 2;
+		//Keep the load factor at or below 0.5 so that the probe sequences stay short
+		while (capacity < values.length * 2) {
+			capacity <<= 1;
+		}
+		
+		table = new int[capacity];
+		mask = capacity - 1;
+		boolean foundFree = false;
+		int count = 0;
+		for (int value : values) {
+			if (value == FREE) {
+				if (!foundFree) {
+					foundFree = true;
+					count++;
+				}
+				
+				continue;
+			}
+			
+			int slot = slot(value);
+			while (table[slot] != FREE && table[slot] != value) {
+				slot = (slot + 1) & mask;
+			}
+			
+			if (table[slot] == FREE) {
+				table[slot] = value;
+				count++;
+			}
+		}
+		
+		containsFree = foundFree;
+		size = count;
+	}
+	
+	/**
+	 * Checks if the specified value is in the set
+	 *
+	 * @param value the value to look up
+	 * @return true if the set contains the value otherwise false
+	 */
+	public boolean contains(int value) {
+		if (value == FREE) {
+			return containsFree;
+		}
+		
+		int slot = slot(value);
+		while (true) {
+			int current = table[slot];
+			if (current == value) {
+				return true;
+			}
+			
+			if (current == FREE) {
+				return false;
+			}
+			
+			slot = (slot + 1) & mask;
+		}
+	}
+	
+	/**
+	 * Gets the number of values in the set
+	 *
+	 * @return the size of the set
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Checks if the set is empty
+	 *
+	 * @return true if the set contains no values otherwise false
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Gets the values in the set
+	 *
+	 * @return a new array of the values sorted in ascending order
+	 */
+	public int[] toArray() {
+		int[] values = new int[size];
+		int index = 0;
+		if (containsFree) {
+			values[index++] = FREE;
+		}
+		
+		for (int value : table) {
+			if (value != FREE) {
+				values[index++] = value;
+			}
+		}
+		
+		Arrays.sort(values);
+		
+		return values;
+	}
+	
+	private int slot(int value) {
+		//Spread the bits since ids are sequential and the table size is a power of 2
+		int hash = value * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+	
+}
@@ -0,0 +1,97 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.openmrs.module.datafilter.DataFilterConstants;
+
+/**
+ * An instance of this class is a row in the location closure table, there is a row for every
+ * location and each of its ancestors at all levels including a row where the location is its own
+ * ancestor, this allows filter conditions to match records at the descendants of the locations a
+ * user is assigned to with a join instead of binding all the descendant location ids.
+ */
+@Entity
+@Table(name = DataFilterConstants.MODULE_ID + "_location_closure")
+public class LocationClosure implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@Id
+	@Column(name = "ancestor_id", nullable = false, updatable = false)
+	private Integer ancestorId;
+	
+	@Id
+	@Column(name = "descendant_id", nullable = false, updatable = false)
+	private Integer descendantId;
+	
+	/**
+	 * Gets the ancestorId
+	 *
+	 * @return the ancestorId
+	 */
+	public Integer getAncestorId() {
+		return ancestorId;
+	}
+	
+	/**
+	 * Sets the ancestorId
+	 *
+	 * @param ancestorId the ancestorId to set
+	 */
+	public void setAncestorId(Integer ancestorId) {
+		this.ancestorId = ancestorId;
+	}
+	
+	/**
+	 * Gets the descendantId
+	 *
+	 * @return the descendantId
+	 */
+	public Integer getDescendantId() {
+		return descendantId;
+	}
+	
+	/**
+	 * Sets the descendantId
+	 *
+	 * @param descendantId the descendantId to set
+	 */
+	public void setDescendantId(Integer descendantId) {
+		this.descendantId = descendantId;
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		
+		if (!(other instanceof LocationClosure)) {
+			return false;
+		}
+		
+		LocationClosure that = (LocationClosure) other;
+		return Objects.equals(ancestorId, that.ancestorId) && Objects.equals(descendantId, that.descendantId);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(ancestorId, descendantId);
+	}
+	
+}
@@ -0,0 +1,122 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.module.datafilter.DataFilterConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Liquibase custom change that populates the location closure table from the existing locations,
+ * after that the table is kept up to date incrementally as locations are added, moved or deleted.
+ */
+public class LocationClosureInitializer implements CustomTaskChange {
+	
+	private static final Logger log = LoggerFactory.getLogger(LocationClosureInitializer.class);
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private int rowCount;
+	
+	/**
+	 * @see CustomTaskChange#execute(Database)
+	 */
+	@Override
+	public void execute(Database database) throws CustomChangeException {
+		Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+		List<Integer> locationIds = new ArrayList();
+		List<Integer> parentIds = new ArrayList();
+		try (Statement statement = connection.createStatement();
+		        ResultSet resultSet = statement.executeQuery(LocationHierarchy.QUERY)) {
+			while (resultSet.next()) {
+				locationIds.add(resultSet.getInt(1));
+				int parentId = resultSet.getInt(2);
+				parentIds.add(resultSet.wasNull() ? null : parentId);
+			}
+		}
+		catch (SQLException e) {
+			throw new CustomChangeException("Failed to load locations", e);
+		}
+		
+		int[] ids = locationIds.stream().mapToInt(Integer::intValue).toArray();
+		LocationHierarchy hierarchy = new LocationHierarchy(ids, parentIds.toArray(new Integer[0]));
+		String sql = "INSERT INTO " + DataFilterConstants.MODULE_ID
+		        + "_location_closure (ancestor_id, descendant_id) VALUES (?, ?)";
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (int ancestorId : ids) {
+				for (int descendantId : hierarchy.getSelfAndDescendantIds(new int[] { ancestorId })) {
+					statement.setInt(1, ancestorId);
+					statement.setInt(2, descendantId);
+					statement.addBatch();
+					rowCount++;
+					if (rowCount % BATCH_SIZE == 0) {
+						statement.executeBatch();
+					}
+				}
+			}
+			
+			statement.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new CustomChangeException("Failed to populate the location closure table", e);
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Added " + rowCount + " row(s) to the location closure table");
+		}
+	}
+	
+	/**
+	 * @see CustomTaskChange#getConfirmationMessage()
+	 */
+	@Override
+	public String getConfirmationMessage() {
+		return "Added " + rowCount + " row(s) to the location closure table";
+	}
+	
+	/**
+	 * @see CustomTaskChange#setUp()
+	 */
+	@Override
+	public void setUp() throws SetupException {
+	}
+	
+	/**
+	 * @see CustomTaskChange#setFileOpener(ResourceAccessor)
+	 */
+	@Override
+	public void setFileOpener(ResourceAccessor resourceAccessor) {
+	}
+	
+	/**
+	 * @see CustomTaskChange#validate(Database)
+	 */
+	@Override
+	public ValidationErrors validate(Database database) {
+		return null;
+	}
+	
+}
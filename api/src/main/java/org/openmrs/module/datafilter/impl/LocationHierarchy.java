@@ -0,0 +1,259 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.openmrs.module.datafilter.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact in memory copy of the location tree used to resolve descendant locations without loading
+ * any Location entities, the tree is loaded with a single query the first time it is needed and
+ * discarded every time a location is saved, retired or deleted.
+ *
+ * <pre>
+ * Locations are numbered in the order they are visited by a depth first pre-order traversal of the
+ * tree, the descendants of a location are therefore the locations numbered in the interval
+ * (pre, end] where pre is the location's number and end is the number of its last descendant, this
+ * implies expanding any set of locations to include their descendants is an array scan.
+ * </pre>
+ */
+public final class LocationHierarchy {
+	
+	private static final Logger log = LoggerFactory.getLogger(LocationHierarchy.class);
+	
+	protected static final String QUERY = "SELECT location_id, parent_location FROM location";
+	
+	private static volatile LocationHierarchy instance;
+	
+	private static long generation;
+	
+	//Sorted location ids, the index of a location id in this array is its position in the arrays below
+	private final int[] locationIds;
+	
+	//The pre-order numbers of the locations
+	private final int[] pre;
+	
+	//The pre-order numbers of the last descendants of the locations
+	private final int[] end;
+	
+	//The location ids ordered by their pre-order numbers
+	private final int[] preOrderLocationIds;
+	
+	/**
+	 * @param locationIds the location ids
+	 * @param parentIds the parent location ids where the parent of the location at a given index in
+	 *            locationIds is at the same index in this array, null for locations with no parent
+	 */
+	protected LocationHierarchy(int[] locationIds, Integer[] parentIds) {
+		final int count = locationIds.length;
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> Integer.compare(locationIds[i1], locationIds[i2]));
+		
+		this.locationIds = new int[count];
+		for (int i = 0; i < count; i++) {
+			this.locationIds[i] = locationIds[order[i]];
+		}
+		
+		//Build the child lists as linked lists stored in arrays
+		int[] firstChild = new int[count];
+		int[] nextSibling = new int[count];
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+		boolean[] hasParent = new boolean[count];
+		//Iterate backwards so that children end up in ascending order of their ids
+		for (int i = count - 1; i >= 0; i--) {
+			Integer parentId = parentIds[order[i]];
+			int parent = parentId == null ? -1 : indexOf(parentId);
+			if (parent >= 0 && parent != i) {
+				nextSibling[i] = firstChild[parent];
+				firstChild[parent] = i;
+				hasParent[i] = true;
+			}
+		}
+		
+		pre = new int[count];
+		end = new int[count];
+		preOrderLocationIds = new int[count];
+		Arrays.fill(pre, -1);
+		int[] stack = new int[count];
+		int counter = 0;
+		//Locations with no parent are visited first, the second pass picks up any location whose
+		//ancestors form a cycle so that every location gets numbered
+		for (int pass = 0; pass < 2; pass++) {
+			for (int root = 0; root < count; root++) {
+				if (pre[root] >= 0 || (pass == 0 && hasParent[root])) {
+					continue;
+				}
+				
+				int top = 0;
+				stack[top] = root;
+				pre[root] = counter;
+				preOrderLocationIds[counter++] = this.locationIds[root];
+				while (top >= 0) {
+					int node = stack[top];
+					//firstChild doubles as a cursor to the next child to visit
+					int child = firstChild[node];
+					while (child >= 0 && pre[child] >= 0) {
+						child = nextSibling[child];
+					}
+					
+					if (child >= 0) {
+						firstChild[node] = nextSibling[child];
+						pre[child] = counter;
+						preOrderLocationIds[counter++] = this.locationIds[child];
+						stack[++top] = child;
+					} else {
+						end[node] = counter - 1;
+						top--;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the cached location hierarchy, it is loaded from the database if it is not yet loaded.
+	 *
+	 * @return the location hierarchy
+	 */
+	public static LocationHierarchy getInstance() {
+		LocationHierarchy hierarchy = instance;
+		if (hierarchy == null) {
+			hierarchy = load();
+		}
+		
+		return hierarchy;
+	}
+	
+	/**
+	 * Discards the cached location hierarchy, it will be reloaded the next time it is requested.
+	 */
+	public static synchronized void clear() {
+		generation++;
+		instance = null;
+	}
+	
+	private static LocationHierarchy load() {
+		long loadGeneration;
+		synchronized (LocationHierarchy.class) {
+			if (instance != null) {
+				return instance;
+			}
+			
+			loadGeneration = generation;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Loading location hierarchy");
+		}
+		
+		List<List<Object>> rows = AccessUtil.executeQuery(QUERY);
+		int[] locationIds = new int[rows.size()];
+		Integer[] parentIds = new Integer[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			List<Object> row = rows.get(i);
+			locationIds[i] = ((Number) row.get(0)).intValue();
+			parentIds[i] = row.get(1) == null ? null : ((Number) row.get(1)).intValue();
+		}
+		
+		LocationHierarchy hierarchy = new LocationHierarchy(locationIds, parentIds);
+		synchronized (LocationHierarchy.class) {
+			//Don't cache it if a location was changed while we were loading
+			if (loadGeneration == generation) {
+				instance = hierarchy;
+				//The loaded hierarchy could include changes made in the current transaction
+				Util.registerRollbackCallback(LocationHierarchy::clear);
+			}
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Loaded location hierarchy with " + locationIds.length + " location(s)");
+		}
+		
+		return hierarchy;
+	}
+	
+	/**
+	 * Gets the number of locations in the hierarchy
+	 *
+	 * @return the number of locations
+	 */
+	public int size() {
+		return locationIds.length;
+	}
+	
+	/**
+	 * Checks if the location with the specified id is a descendant of the other location at any level
+	 *
+	 * @param ancestorId the id of the ancestor location
+	 * @param descendantId the id of the descendant location
+	 * @return true if the location is a descendant otherwise false
+	 */
+	public boolean isDescendant(int ancestorId, int descendantId) {
+		int ancestor = indexOf(ancestorId);
+		int descendant = indexOf(descendantId);
+		if (ancestor < 0 || descendant < 0) {
+			return false;
+		}
+		
+		return pre[ancestor] < pre[descendant] && pre[descendant] <= end[ancestor];
+	}
+	
+	/**
+	 * Gets the ids of the specified locations along with those of all their descendants at all levels,
+	 * ids of locations that don't exist are excluded.
+	 *
+	 * @param ids the ids of the locations to expand
+	 * @return the location ids in pre-order, each id is included exactly once
+	 */
+	public int[] getSelfAndDescendantIds(int[] ids) {
+		final int count = locationIds.length;
+		//Mark the start and end of each interval and then sweep through them
+		int[] delta = new int[count + 1];
+		boolean found = false;
+		for (int id : ids) {
+			int index = indexOf(id);
+			if (index >= 0) {
+				delta[pre[index]]++;
+				delta[end[index] + 1]--;
+				found = true;
+			}
+		}
+		
+		if (!found) {
+			return new int[0];
+		}
+		
+		int[] result = new int[count];
+		int size = 0;
+		int depth = 0;
+		for (int i = 0; i < count; i++) {
+			depth += delta[i];
+			if (depth > 0) {
+				result[size++] = preOrderLocationIds[i];
+			}
+		}
+		
+		return Arrays.copyOf(result, size);
+	}
+	
+	private int indexOf(int locationId) {
+		int index = Arrays.binarySearch(locationIds, locationId);
+		return index < 0 ? -1 : index;
+	}
+	
+}
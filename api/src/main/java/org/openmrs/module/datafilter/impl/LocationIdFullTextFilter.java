@@ -0,0 +1,87 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.BytesRef;
+import org.hibernate.search.annotations.Analyze;
+import org.hibernate.search.annotations.ClassBridge;
+import org.hibernate.search.annotations.Factory;
+import org.hibernate.search.annotations.Norms;
+
+/**
+ * Full text Filter that matches the documents of patient records by the ids of the locations the
+ * patients are linked to, the ids are added to the documents at index time by
+ * {@link PatientLocationFieldBridge}, the class bridge annotation below is added to the target
+ * classes of the filter registration when the filters are initialized.
+ */
+@ClassBridge(name = ImplConstants.FULL_TEXT_LOCATION_FIELD, impl = PatientLocationFieldBridge.class, analyze = Analyze.NO, norms = Norms.NO)
+public class LocationIdFullTextFilter {
+	
+	private Collection<String> locationIds;
+	
+	private String accessKey;
+	
+	/**
+	 * Sets the locationIds
+	 *
+	 * @param locationIds the locationIds to set
+	 */
+	public void setLocationIds(Collection<String> locationIds) {
+		this.locationIds = locationIds;
+	}
+	
+	/**
+	 * Sets the accessKey
+	 *
+	 * @param accessKey the accessKey to set
+	 */
+	public void setAccessKey(String accessKey) {
+		this.accessKey = accessKey;
+	}
+	
+	@Factory
+	public Filter getFilter() {
+		if (accessKey == null) {
+			return createFilter();
+		}
+		
+		Filter filter = FullTextFilterCache.get(ImplConstants.FULL_TEXT_LOCATION_FIELD, accessKey);
+		if (filter == null) {
+			filter = createFilter();
+			FullTextFilterCache.put(ImplConstants.FULL_TEXT_LOCATION_FIELD, accessKey, filter);
+		}
+		
+		return filter;
+	}
+	
+	private Filter createFilter() {
+		List<BytesRef> byteRefs = new ArrayList(locationIds.size() + 1);
+		for (String id : locationIds) {
+			byteRefs.add(new BytesRef(id));
+		}
+		
+		if (byteRefs.isEmpty()) {
+			//If the user isn't granted access to any location, we add -1 because ids are all > 0,
+			//in theory the filter will match no documents if the user isn't granted access to any basis
+			byteRefs.add(new BytesRef("-1"));
+		}
+		
+		//The wrapper caches the matching documents of each index segment the first time it is searched
+		return new CachingWrapperFilter(new TermsFilter(ImplConstants.FULL_TEXT_LOCATION_FIELD, byteRefs));
+	}
+	
+}
@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.BitDocIdSet;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Lucene Filter that matches documents whose numeric doc values field contains one of the specified
+ * patient ids, unlike a TermsFilter which seeks the term dictionary once per id, the documents of
+ * each segment are scanned once and each value is looked up in a bit set indexed by patient id so
+ * the cost doesn't grow with the number of ids.
+ */
+public class PatientIdDocValuesFilter extends Filter {
+	
+	private final String field;
+	
+	private final FixedBitSet patientIds;
+	
+	/**
+	 * @param field the name of the numeric doc values field to match
+	 * @param sortedIds the sorted patient ids to match
+	 */
+	public PatientIdDocValuesFilter(String field, int[] sortedIds) {
+		this.field = field;
+		int maxId = sortedIds.length > 0 ? sortedIds[sortedIds.length - 1] : 0;
+		patientIds = new FixedBitSet(maxId + 1);
+		for (int id : sortedIds) {
+			if (id > 0) {
+				patientIds.set(id);
+			}
+		}
+	}
+	
+	/**
+	 * @see Filter#getDocIdSet(LeafReaderContext, Bits)
+	 */
+	@Override
+	public DocIdSet getDocIdSet(LeafReaderContext context, Bits acceptDocs) throws IOException {
+		LeafReader reader = context.reader();
+		NumericDocValues values = reader.getNumericDocValues(field);
+		if (values == null) {
+			return null;
+		}
+		
+		final int maxDoc = reader.maxDoc();
+		final long maxId = patientIds.length();
+		FixedBitSet matches = new FixedBitSet(maxDoc);
+		int count = 0;
+		for (int doc = 0; doc < maxDoc; doc++) {
+			if (acceptDocs != null && !acceptDocs.get(doc)) {
+				continue;
+			}
+			
+			//Documents without the field have a value of 0 which never matches since ids are all > 0
+			long id = values.get(doc);
+			if (id > 0 && id < maxId && patientIds.get((int) id)) {
+				matches.set(doc);
+				count++;
+			}
+		}
+		
+		return count == 0 ? null : new BitDocIdSet(matches, count);
+	}
+	
+	@Override
+	public String toString(String defaultField) {
+		return "PatientIdDocValuesFilter{field=" + field + ", patientCount=" + patientIds.cardinality() + "}";
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		
+		if (!super.equals(other)) {
+			return false;
+		}
+		
+		PatientIdDocValuesFilter that = (PatientIdDocValuesFilter) other;
+		return field.equals(that.field) && patientIds.equals(that.patientIds);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * (31 * super.hashCode() + field.hashCode()) + patientIds.hashCode();
+	}
+	
+}
@@ -0,0 +1,78 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
+import org.hibernate.search.annotations.Analyze;
+import org.hibernate.search.annotations.ClassBridge;
+import org.hibernate.search.annotations.Factory;
+import org.hibernate.search.annotations.Norms;
+import org.openmrs.Location;
+
+/**
+ * Full text Filter that matches the documents of patient records by the numeric patient ids added
+ * to the documents at index time by {@link PatientLocationFieldBridge}, it is an alternative to
+ * {@link PatientIdFullTextFilter} for installations where users have access to a large number of
+ * patients, it can be used by setting it as the implClass of the full text filter registration with
+ * accessKey as the only parameter, {@link ImplFullTextDataFilterListener} then includes the
+ * generation of the {@link AccessiblePersonCache} in the accessKey so that the cached filter is
+ * replaced when patients get linked to or unlinked from locations.
+ */
+@ClassBridge(name = ImplConstants.FULL_TEXT_LOCATION_FIELD, impl = PatientLocationFieldBridge.class, analyze = Analyze.NO, norms = Norms.NO)
+public class PatientIdDocValuesFullTextFilter {
+	
+	private IntSet patientIds;
+	
+	private String accessKey;
+	
+	/**
+	 * Sets the patientIds
+	 *
+	 * @param patientIds the patientIds to set
+	 */
+	public void setPatientIds(IntSet patientIds) {
+		this.patientIds = patientIds;
+	}
+	
+	/**
+	 * Sets the accessKey
+	 *
+	 * @param accessKey the accessKey to set
+	 */
+	public void setAccessKey(String accessKey) {
+		this.accessKey = accessKey;
+	}
+	
+	@Factory
+	public Filter getFilter() {
+		if (accessKey == null) {
+			return createFilter();
+		}
+		
+		Filter filter = FullTextFilterCache.get(ImplConstants.FULL_TEXT_PATIENT_ID_FIELD, accessKey);
+		if (filter == null) {
+			filter = createFilter();
+			FullTextFilterCache.put(ImplConstants.FULL_TEXT_PATIENT_ID_FIELD, accessKey, filter);
+		}
+		
+		return filter;
+	}
+	
+	private Filter createFilter() {
+		//If the ids are not provided they are only resolved when there is no cached filter
+		IntSet idSet = patientIds != null ? patientIds : AccessUtil.getAccessiblePersonIdSet(Location.class);
+		
+		//The wrapper caches the matching documents of each index segment the first time it is searched
+		return new CachingWrapperFilter(
+		        new PatientIdDocValuesFilter(ImplConstants.FULL_TEXT_PATIENT_ID_FIELD, idSet.toArray()));
+	}
+	
+}
@@ -11,13 +11,13 @@ package org.openmrs.module.datafilter.impl;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.lucene.queries.TermsFilter;
 import org.apache.lucene.search.CachingWrapperFilter;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.BytesRef;
 import org.hibernate.search.annotations.Factory;
+import org.openmrs.Location;
 
 /**
  * Full text Filter that can be applied to patient records and any domain objects that represent
@@ -27,7 +27,9 @@ public class PatientIdFullTextFilter {
 	
 	private String field;
 	
-	private Set<String> patientIds;
+	private IntSet patientIds;
+	
+	private String accessKey;
 	
 	/**
 	 * Sets the field
@@ -43,17 +45,50 @@ public class PatientIdFullTextFilter {
 	 *
 	 * @param patientIds the patientIds to set
 	 */
-	public void setPatientIds(Set<String> patientIds) {
+	public void setPatientIds(IntSet patientIds) {
 		this.patientIds = patientIds;
 	}
 	
+	/**
+	 * Sets the accessKey
+	 *
+	 * @param accessKey the accessKey to set
+	 */
+	public void setAccessKey(String accessKey) {
+		this.accessKey = accessKey;
+	}
+	
 	@Factory
 	public Filter getFilter() {
-		List<BytesRef> byteRefs = new ArrayList(patientIds.size());
-		for (String id : patientIds) {
-			byteRefs.add(new BytesRef(id));
+		if (accessKey == null) {
+			return createFilter();
+		}
+		
+		Filter filter = FullTextFilterCache.get(field, accessKey);
+		if (filter == null) {
+			filter = createFilter();
+			FullTextFilterCache.put(field, accessKey, filter);
+		}
+		
+		return filter;
+	}
+	
+	private Filter createFilter() {
+		//If the ids are not provided they are only resolved when there is no cached filter
+		IntSet idSet = patientIds != null ? patientIds : AccessUtil.getAccessiblePersonIdSet(Location.class);
+		int[] ids = idSet.toArray();
+		List<BytesRef> byteRefs = new ArrayList(ids.length + 1);
+		for (int id : ids) {
+			byteRefs.add(new BytesRef(Integer.toString(id)));
+		}
+		
+		if (byteRefs.isEmpty()) {
+			//If the user isn't granted access to patients at any basis, we add -1 because ids are all > 0,
+			//in theory the filter will match no documents if the user isn't granted access to any basis
+			byteRefs.add(new BytesRef("-1"));
 		}
 		
+		//The wrapper caches the matching documents of each index segment the first time it is searched
 		return new CachingWrapperFilter(new TermsFilter(field, byteRefs));
 	}
 	
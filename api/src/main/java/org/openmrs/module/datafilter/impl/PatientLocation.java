@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.openmrs.module.datafilter.DataFilterConstants;
+
+/**
+ * An instance of this class links a patient to a location, it mirrors the patient to location rows
+ * in the entity basis map table but with integer columns and a primary key that leads with the
+ * location id so that filter conditions can look up the patients at a set of locations with an index
+ * range scan and without casting the ids.
+ */
+@Entity
+@Table(name = DataFilterConstants.MODULE_ID + "_patient_location")
+public class PatientLocation implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@Id
+	@Column(name = "location_id", nullable = false, updatable = false)
+	private Integer locationId;
+	
+	@Id
+	@Column(name = "patient_id", nullable = false, updatable = false)
+	private Integer patientId;
+	
+	public PatientLocation() {
+	}
+	
+	public PatientLocation(Integer locationId, Integer patientId) {
+		this.locationId = locationId;
+		this.patientId = patientId;
+	}
+	
+	/**
+	 * Gets the locationId
+	 *
+	 * @return the locationId
+	 */
+	public Integer getLocationId() {
+		return locationId;
+	}
+	
+	/**
+	 * Sets the locationId
+	 *
+	 * @param locationId the locationId to set
+	 */
+	public void setLocationId(Integer locationId) {
+		this.locationId = locationId;
+	}
+	
+	/**
+	 * Gets the patientId
+	 *
+	 * @return the patientId
+	 */
+	public Integer getPatientId() {
+		return patientId;
+	}
+	
+	/**
+	 * Sets the patientId
+	 *
+	 * @param patientId the patientId to set
+	 */
+	public void setPatientId(Integer patientId) {
+		this.patientId = patientId;
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		
+		if (!(other instanceof PatientLocation)) {
+			return false;
+		}
+		
+		PatientLocation that = (PatientLocation) other;
+		return Objects.equals(locationId, that.locationId) && Objects.equals(patientId, that.patientId);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(locationId, patientId);
+	}
+	
+}
@@ -0,0 +1,117 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.DataFilterConstants;
+
+/**
+ * Class bridge that adds the ids of the locations a patient is linked to to the full text index
+ * documents of the patient's names, identifiers and attributes, this allows the full text filter to
+ * match the documents by the locations of the user instead of the ids of all the accessible patients.
+ * The patient id is also added as a numeric doc values field for {@link PatientIdDocValuesFilter}.
+ */
+public class PatientLocationFieldBridge implements FieldBridge {
+	
+	protected static final String LOCATION_ID_QUERY = "SELECT location_id FROM " + DataFilterConstants.MODULE_ID
+	        + "_patient_location WHERE patient_id = ?";
+	
+	/**
+	 * @see FieldBridge#set(String, Object, Document, LuceneOptions)
+	 */
+	@Override
+	public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+		Person person = null;
+		if (value instanceof PersonName) {
+			person = ((PersonName) value).getPerson();
+		} else if (value instanceof PersonAttribute) {
+			person = ((PersonAttribute) value).getPerson();
+		} else if (value instanceof PatientIdentifier) {
+			person = ((PatientIdentifier) value).getPatient();
+		}
+		
+		if (person == null || person.getPersonId() == null) {
+			return;
+		}
+		
+		document.add(new NumericDocValuesField(ImplConstants.FULL_TEXT_PATIENT_ID_FIELD, person.getPersonId()));
+		for (Integer locationId : getLocationIds(person.getPersonId())) {
+			luceneOptions.addFieldToDocument(name, locationId.toString(), document);
+		}
+	}
+	
+	/**
+	 * Looks up the ids of the locations the patient with the specified id is linked to, the query is
+	 * run with the connection of the current session so that it sees the links saved in the current
+	 * transaction, the documents are rebuilt by the mass indexer in threads with no current session,
+	 * in which case a stateless session is used.
+	 *
+	 * @param patientId the patient id to match
+	 * @return a list of location ids
+	 */
+	private static List<Integer> getLocationIds(Integer patientId) {
+		SessionFactory sf = Context.getRegisteredComponents(SessionFactory.class).get(0);
+		Session session;
+		try {
+			session = sf.getCurrentSession();
+		}
+		catch (HibernateException e) {
+			session = null;
+		}
+		
+		if (session == null) {
+			StatelessSession statelessSession = sf.openStatelessSession();
+			try {
+				List<Integer> locationIds = new ArrayList();
+				for (Object id : statelessSession.createSQLQuery(LOCATION_ID_QUERY).setInteger(0, patientId).list()) {
+					locationIds.add(((Number) id).intValue());
+				}
+				
+				return locationIds;
+			}
+			finally {
+				statelessSession.close();
+			}
+		}
+		
+		List<Integer> locationIds = new ArrayList();
+		//Use the connection directly since a query through the session would trigger a flush
+		session.doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(LOCATION_ID_QUERY)) {
+				statement.setInt(1, patientId);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						locationIds.add(resultSet.getInt(1));
+					}
+				}
+			}
+		});
+		
+		return locationIds;
+	}
+	
+}
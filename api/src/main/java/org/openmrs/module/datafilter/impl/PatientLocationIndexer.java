@@ -0,0 +1,147 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the location ids added to the full text index documents of patient names, identifiers and
+ * attributes by {@link PatientLocationFieldBridge} up to date, the documents of a patient are
+ * rebuilt in a daemon thread after the transaction that links or unlinks the patient to a location
+ * is committed.
+ */
+public final class PatientLocationIndexer {
+	
+	private static final Logger log = LoggerFactory.getLogger(PatientLocationIndexer.class);
+	
+	private static final List<Class<?>> INDEXED_TYPES = Arrays.asList(PersonName.class, PatientIdentifier.class,
+	    PersonAttribute.class);
+	
+	private static ThreadLocal<Set<Integer>> patientIdsHolder = new ThreadLocal();
+	
+	private static DaemonToken daemonToken;
+	
+	private PatientLocationIndexer() {
+	}
+	
+	/**
+	 * Sets the daemonToken
+	 *
+	 * @param daemonToken the daemonToken to set
+	 */
+	public static void setDaemonToken(DaemonToken daemonToken) {
+		PatientLocationIndexer.daemonToken = daemonToken;
+	}
+	
+	/**
+	 * Schedules the documents of the patient with the specified id to be rebuilt after the current
+	 * transaction is committed, they are rebuilt immediately if there is no transaction.
+	 *
+	 * @param patientId the id of the patient
+	 */
+	public static void reindexAfterCommit(Integer patientId) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			reindex(new HashSet(Arrays.asList(patientId)));
+			return;
+		}
+		
+		Set<Integer> patientIds = patientIdsHolder.get();
+		if (patientIds == null) {
+			patientIds = new HashSet();
+			patientIdsHolder.set(patientIds);
+			//All the patients linked in the same transaction are rebuilt together
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					Set<Integer> ids = patientIdsHolder.get();
+					patientIdsHolder.remove();
+					if (status == TransactionSynchronization.STATUS_COMMITTED && ids != null) {
+						reindex(ids);
+					}
+				}
+				
+			});
+		}
+		
+		patientIds.add(patientId);
+	}
+	
+	/**
+	 * Rebuilds the documents of all the patient names, identifiers and attributes if they were indexed
+	 * by a different version of the module, this is typically the case the first time the module is
+	 * started after an upgrade.
+	 */
+	public static void reindexAllIfRequired() {
+		AdministrationService as = Context.getAdministrationService();
+		String version = as.getGlobalProperty(ImplConstants.GP_FULL_TEXT_LOCATION_INDEX_VERSION);
+		if (ImplConstants.FULL_TEXT_LOCATION_INDEX_VERSION.equals(version)) {
+			return;
+		}
+		
+		if (daemonToken == null) {
+			log.warn("Can't rebuild the full text index documents of patients, no daemon token found");
+			return;
+		}
+		
+		Daemon.runInDaemonThread(() -> {
+			log.info("Rebuilding the full text index documents of patient names, identifiers and attributes");
+			for (Class<?> type : INDEXED_TYPES) {
+				Context.updateSearchIndexForType(type);
+			}
+			
+			Context.getAdministrationService().setGlobalProperty(ImplConstants.GP_FULL_TEXT_LOCATION_INDEX_VERSION,
+			    ImplConstants.FULL_TEXT_LOCATION_INDEX_VERSION);
+			log.info("Rebuilt the full text index documents of patient names, identifiers and attributes");
+		}, daemonToken);
+	}
+	
+	private static void reindex(Set<Integer> patientIds) {
+		if (daemonToken == null) {
+			log.warn("Can't rebuild the full text index documents of patients, no daemon token found");
+			return;
+		}
+		
+		Daemon.runInDaemonThread(() -> {
+			if (log.isDebugEnabled()) {
+				log.debug("Rebuilding the full text index documents of patient(s) with id(s): " + patientIds);
+			}
+			
+			for (Integer patientId : patientIds) {
+				Patient patient = Context.getPatientService().getPatient(patientId);
+				if (patient == null) {
+					continue;
+				}
+				
+				patient.getNames().forEach(Context::updateSearchIndexForObject);
+				patient.getIdentifiers().forEach(Context::updateSearchIndexForObject);
+				patient.getAttributes().forEach(Context::updateSearchIndexForObject);
+			}
+		}, daemonToken);
+	}
+	
+}
@@ -0,0 +1,203 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Program;
+import org.openmrs.Role;
+import org.openmrs.module.datafilter.DataFilterConstants;
+import org.openmrs.module.datafilter.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the programs each role is linked to and the roles of all users so that the users a user
+ * can't see because they only work in programs the user doesn't work in can be resolved without
+ * querying the database, these are the only users the program based filters exclude.
+ *
+ * <pre>
+ * The index is refreshed incrementally, a change to the roles of a user only reloads the roles of
+ * that user and a change to the links between roles and programs only reloads the links, the
+ * excluded users are computed once per group of programs until either changes.
+ * </pre>
+ */
+public final class ProgramRoleIndex {
+	
+	private static final Logger log = LoggerFactory.getLogger(ProgramRoleIndex.class);
+	
+	protected static final String ROLE_PROGRAM_QUERY = "SELECT entity_identifier, basis_identifier FROM "
+	        + DataFilterConstants.MODULE_ID + "_entity_basis_map WHERE entity_type = '" + Role.class.getName()
+	        + "' AND basis_type = '" + Program.class.getName() + "'";
+	
+	protected static final String USER_ROLE_QUERY = "SELECT user_id, role FROM user_role";
+	
+	private static Map<String, Set<String>> roleProgramsMap;
+	
+	private static Map<Integer, Set<String>> userRolesMap;
+	
+	private static final Set<Integer> staleUserIds = new HashSet();
+	
+	private static final Map<Set<String>, Set<Integer>> hiddenUserIdsByPrograms = new HashMap();
+	
+	private ProgramRoleIndex() {
+	}
+	
+	/**
+	 * Gets the names of all the roles linked to at least one program
+	 *
+	 * @return a set of role names
+	 */
+	public static synchronized Set<String> getProgramRoles() {
+		return Collections.unmodifiableSet(getRoleProgramsMap().keySet());
+	}
+	
+	/**
+	 * Gets the ids of the users that have at least one role and are only granted program roles none of
+	 * which is linked to a program any of the specified roles is linked to.
+	 *
+	 * @param roles the names of the roles of the user to resolve the hidden users for
+	 * @return an unmodifiable set of user ids
+	 */
+	public static synchronized Set<Integer> getHiddenUserIds(Collection<String> roles) {
+		Map<String, Set<String>> roleProgramsMap = getRoleProgramsMap();
+		Set<String> programIds = new HashSet();
+		for (String role : roles) {
+			programIds.addAll(roleProgramsMap.getOrDefault(role, Collections.emptySet()));
+		}
+		
+		Map<Integer, Set<String>> userRolesMap = getUserRolesMap();
+		Set<Integer> hiddenUserIds = hiddenUserIdsByPrograms.get(programIds);
+		if (hiddenUserIds != null) {
+			return hiddenUserIds;
+		}
+		
+		hiddenUserIds = new HashSet();
+		userLoop: for (Map.Entry<Integer, Set<String>> entry : userRolesMap.entrySet()) {
+			for (String role : entry.getValue()) {
+				Set<String> rolePrograms = roleProgramsMap.get(role);
+				//Users with any role that isn't a program role or that shares a program are visible
+				if (rolePrograms == null || !Collections.disjoint(rolePrograms, programIds)) {
+					continue userLoop;
+				}
+			}
+			
+			hiddenUserIds.add(entry.getKey());
+		}
+		
+		hiddenUserIds = Collections.unmodifiableSet(hiddenUserIds);
+		hiddenUserIdsByPrograms.put(Collections.unmodifiableSet(programIds), hiddenUserIds);
+		
+		return hiddenUserIds;
+	}
+	
+	/**
+	 * Marks the roles of the user with the specified id as stale, they are reloaded the next time the
+	 * index is used.
+	 *
+	 * @param userId the id of the user whose roles changed
+	 */
+	public static synchronized void userRolesChanged(Integer userId) {
+		if (userId == null) {
+			return;
+		}
+		
+		staleUserIds.add(userId);
+		hiddenUserIdsByPrograms.clear();
+	}
+	
+	/**
+	 * Discards the indexed links between roles and programs, they are reloaded the next time the
+	 * index is used.
+	 */
+	public static synchronized void roleProgramsChanged() {
+		roleProgramsMap = null;
+		hiddenUserIdsByPrograms.clear();
+	}
+	
+	/**
+	 * Discards the entire index
+	 */
+	public static synchronized void clear() {
+		roleProgramsMap = null;
+		userRolesMap = null;
+		staleUserIds.clear();
+		hiddenUserIdsByPrograms.clear();
+	}
+	
+	private static Map<String, Set<String>> getRoleProgramsMap() {
+		if (roleProgramsMap == null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Loading the links between roles and programs");
+			}
+			
+			Map<String, Set<String>> map = new HashMap();
+			for (List<Object> row : AccessUtil.executeQuery(ROLE_PROGRAM_QUERY)) {
+				map.computeIfAbsent(row.get(0).toString(), k -> new HashSet()).add(row.get(1).toString());
+			}
+			
+			roleProgramsMap = map;
+			//The loaded links could include changes made in the current transaction
+			Util.registerRollbackCallback(ProgramRoleIndex::roleProgramsChanged);
+		}
+		
+		return roleProgramsMap;
+	}
+	
+	private static Map<Integer, Set<String>> getUserRolesMap() {
+		if (userRolesMap == null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Loading the roles of all users");
+			}
+			
+			userRolesMap = loadUserRoles(USER_ROLE_QUERY);
+			staleUserIds.clear();
+			Util.registerRollbackCallback(ProgramRoleIndex::clear);
+		} else if (!staleUserIds.isEmpty()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Reloading the roles of the users with ids: " + staleUserIds);
+			}
+			
+			Map<Integer, Set<String>> reloaded = loadUserRoles(
+			    USER_ROLE_QUERY + " WHERE user_id IN (" + StringUtils.join(staleUserIds, ",") + ")");
+			for (Integer userId : staleUserIds) {
+				Set<String> roles = reloaded.get(userId);
+				if (roles == null) {
+					userRolesMap.remove(userId);
+				} else {
+					userRolesMap.put(userId, roles);
+				}
+			}
+			
+			final Set<Integer> reloadedUserIds = new HashSet(staleUserIds);
+			staleUserIds.clear();
+			Util.registerRollbackCallback(() -> reloadedUserIds.forEach(ProgramRoleIndex::userRolesChanged));
+		}
+		
+		return userRolesMap;
+	}
+	
+	private static Map<Integer, Set<String>> loadUserRoles(String query) {
+		Map<Integer, Set<String>> map = new HashMap();
+		for (List<Object> row : AccessUtil.executeQuery(query)) {
+			map.computeIfAbsent(((Number) row.get(0)).intValue(), k -> new HashSet()).add(row.get(1).toString());
+		}
+		
+		return map;
+	}
+	
+}
@@ -27,14 +27,16 @@ public interface DataFilterDAO {
 	EntityBasisMap getEntityBasisMap(String entityIdentifier, String entityType, String basisIdentifier, String basisType);
 	
 	/**
-	 * Saves the specified EntityBasisMap instance to the database
+	 * Saves the specified EntityBasisMap instance to the database, if it links a patient to a location
+	 * the link is also added to the patient location table
 	 * 
 	 * @param entityBasisMap
 	 */
 	EntityBasisMap saveEntityBasisMap(EntityBasisMap entityBasisMap);
 	
 	/**
-	 * Deletes the specified EntityBasisMap instance from the database
+	 * Deletes the specified EntityBasisMap instance from the database, if it links a patient to a
+	 * location the link is also removed from the patient location table
 	 * 
 	 * @param entityBasisMap
 	 */
@@ -48,4 +50,30 @@ public interface DataFilterDAO {
 	 * @param basisType
 	 */
 	Collection<EntityBasisMap> getEntityBasisMaps(String entityIdentifier, String entityType, String basisType);
+	
+	/**
+	 * Adds the rows for a new location to the location closure table i.e. a row where the location is
+	 * its own ancestor and a row for each ancestor of its parent location.
+	 * 
+	 * @param locationId the id of the new location
+	 * @param parentLocationId the id of the parent location, null if it has no parent
+	 */
+	void addLocationToClosure(Integer locationId, Integer parentLocationId);
+	
+	/**
+	 * Updates the location closure table after the parent of the specified location has changed, the
+	 * location and all its descendants get detached from their old ancestors and attached to the
+	 * ancestors of the new parent location.
+	 * 
+	 * @param locationId the id of the location whose parent has changed
+	 * @param parentLocationId the id of the new parent location, null if it no longer has a parent
+	 */
+	void moveLocationInClosure(Integer locationId, Integer parentLocationId);
+	
+	/**
+	 * Removes all the rows in the location closure table that reference the specified location
+	 * 
+	 * @param locationId the id of the deleted location
+	 */
+	void removeLocationFromClosure(Integer locationId);
 }
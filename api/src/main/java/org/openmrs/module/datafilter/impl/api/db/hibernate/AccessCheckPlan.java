@@ -0,0 +1,182 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.Visit;
+
+/**
+ * Describes the access checks {@link AccessInterceptor} runs when an entity of a given type is
+ * loaded, it is compiled once from the property names of the entity persister so that the
+ * interceptor does no lookups by name when each entity is loaded.
+ */
+final class AccessCheckPlan {
+	
+	/**
+	 * The plan of the entity types that are not filtered
+	 */
+	static final AccessCheckPlan NONE = new AccessCheckPlan(null, null, null, false, -1, -1, -1, -1);
+	
+	private final String[] propertyNames;
+	
+	private final String locationFilterName;
+	
+	private final String encTypeFilterName;
+	
+	private final boolean obs;
+	
+	private final int personIndex;
+	
+	private final int encounterTypeIndex;
+	
+	private final int encounterIndex;
+	
+	private final int locationIndex;
+	
+	private AccessCheckPlan(String[] propertyNames, String locationFilterName, String encTypeFilterName, boolean obs,
+	    int personIndex, int encounterTypeIndex, int encounterIndex, int locationIndex) {
+		this.propertyNames = propertyNames;
+		this.locationFilterName = locationFilterName;
+		this.encTypeFilterName = encTypeFilterName;
+		this.obs = obs;
+		this.personIndex = personIndex;
+		this.encounterTypeIndex = encounterTypeIndex;
+		this.encounterIndex = encounterIndex;
+		this.locationIndex = locationIndex;
+	}
+	
+	/**
+	 * Compiles the plan for the specified entity type
+	 *
+	 * @param entityClass the entity type
+	 * @param propertyNames the property names of the entity persister
+	 * @param locationFilterName the name of the location based filter for the type if any
+	 * @param encTypeFilterName the name of the encounter type based filter for the type if any
+	 * @return the compiled plan
+	 */
+	static AccessCheckPlan compile(Class<?> entityClass, String[] propertyNames, String locationFilterName,
+	                               String encTypeFilterName) {
+		
+		if (locationFilterName == null && encTypeFilterName == null) {
+			return NONE;
+		}
+		
+		boolean obs = entityClass == Obs.class;
+		int personIndex = -1;
+		if (entityClass != Patient.class) {
+			personIndex = ArrayUtils.indexOf(propertyNames, obs ? "person" : "patient");
+		}
+		
+		int encounterTypeIndex = -1;
+		if (entityClass == Encounter.class) {
+			encounterTypeIndex = ArrayUtils.indexOf(propertyNames, "encounterType");
+		}
+		
+		int encounterIndex = -1;
+		if (obs) {
+			encounterIndex = ArrayUtils.indexOf(propertyNames, "encounter");
+		}
+		
+		int locationIndex = -1;
+		if (entityClass == Encounter.class || entityClass == Visit.class) {
+			locationIndex = ArrayUtils.indexOf(propertyNames, "location");
+		}
+		
+		return new AccessCheckPlan(propertyNames, locationFilterName, encTypeFilterName, obs, personIndex,
+		        encounterTypeIndex, encounterIndex, locationIndex);
+	}
+	
+	/**
+	 * Checks if the plan was compiled from the specified property names, Hibernate passes the same
+	 * array of the entity persister for every load so this is an identity check.
+	 *
+	 * @param propertyNames the property names to check
+	 * @return true if the plan applies to the property names otherwise false
+	 */
+	boolean isCompiledFrom(String[] propertyNames) {
+		return this == NONE || this.propertyNames == propertyNames;
+	}
+	
+	String getLocationFilterName() {
+		return locationFilterName;
+	}
+	
+	String getEncTypeFilterName() {
+		return encTypeFilterName;
+	}
+	
+	boolean isObs() {
+		return obs;
+	}
+	
+	/**
+	 * Checks if the loaded entity has its own location i.e. it is an encounter or a visit
+	 *
+	 * @return true if the entity has a location otherwise false
+	 */
+	boolean hasLocation() {
+		return locationIndex >= 0;
+	}
+	
+	/**
+	 * Gets the id of the location of the loaded encounter or visit from its state
+	 *
+	 * @param state the loaded state
+	 * @return the location id or null if the entity has no location
+	 */
+	Integer getLocationId(Object[] state) {
+		Location location = (Location) state[locationIndex];
+		return location == null ? null : location.getLocationId();
+	}
+	
+	/**
+	 * Gets the id of the person the loaded entity belongs to, for a patient it's the entity id
+	 *
+	 * @param id the id of the loaded entity
+	 * @param state the loaded state
+	 * @return the person id
+	 */
+	Integer getPersonId(Serializable id, Object[] state) {
+		if (personIndex < 0) {
+			return (Integer) id;
+		}
+		
+		return ((Person) state[personIndex]).getPersonId();
+	}
+	
+	/**
+	 * Gets the encounter type of the loaded encounter from its state
+	 *
+	 * @param state the loaded state
+	 * @return the encounter type
+	 */
+	EncounterType getEncounterType(Object[] state) {
+		return (EncounterType) state[encounterTypeIndex];
+	}
+	
+	/**
+	 * Gets the encounter of the loaded obs from its state
+	 *
+	 * @param state the loaded state
+	 * @return the encounter or null for an encounter-less obs
+	 */
+	Encounter getEncounter(Object[] state) {
+		return (Encounter) state[encounterIndex];
+	}
+	
+}
@@ -11,17 +11,18 @@ package org.openmrs.module.datafilter.impl.api.db.hibernate;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.hibernate.EmptyInterceptor;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.type.Type;
 import org.openmrs.Encounter;
-import org.openmrs.EncounterType;
 import org.openmrs.Location;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
-import org.openmrs.Person;
 import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.api.context.Context;
@@ -32,6 +33,8 @@ import org.openmrs.module.datafilter.impl.AccessUtil;
 import org.openmrs.module.datafilter.impl.ImplConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 
 /**
@@ -39,9 +42,15 @@ import org.springframework.stereotype.Component;
  * user has no access to is getting loaded from the DB, by default the module runs in strict mode
  * implying that the interceptor is enabled by default, also note that the interceptor isn't applied
  * for super and daemon user.
+ *
+ * <pre>
+ * By default each record is verified as it gets loaded, when verification is deferred the records
+ * are collected as they get loaded and {@link DeferredAccessCheckListener} verifies them all at once
+ * before the query result is returned.
+ * </pre>
  */
 @Component("accessInterceptor")
-public class AccessInterceptor extends EmptyInterceptor {
+public class AccessInterceptor extends EmptyInterceptor implements ApplicationListener<ContextRefreshedEvent> {
 	
 	private static final Logger log = LoggerFactory.getLogger(AccessInterceptor.class);
 	
@@ -49,6 +58,8 @@ public class AccessInterceptor extends EmptyInterceptor {
 	
 	protected static final Map<Class<?>, String> encTypeBasedClassAndFiltersMap;
 	
+	private volatile Map<Class<?>, AccessCheckPlan> plans = new IdentityHashMap();
+	
 	static {
 		locationBasedClassAndFiltersMap = new HashMap();
 		locationBasedClassAndFiltersMap.put(Visit.class, ImplConstants.LOCATION_BASED_FILTER_NAME_VISIT);
@@ -66,6 +77,12 @@ public class AccessInterceptor extends EmptyInterceptor {
 	 */
 	@Override
 	public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		//Most loaded entities aren't filtered, they exit here after a single identity lookup
+		AccessCheckPlan plan = entity == null ? AccessCheckPlan.NONE : getPlan(entity.getClass(), propertyNames);
+		if (plan == AccessCheckPlan.NONE) {
+			return false;
+		}
+		
 		if (Daemon.isDaemonThread()) {
 			if (log.isTraceEnabled()) {
 				log.trace("Skipping AccessInterceptor for daemon thread");
@@ -81,29 +98,29 @@ public class AccessInterceptor extends EmptyInterceptor {
 			  	log.trace("Skipping AccessInterceptor for user with bypass privilege");
 			  }
 			  }*/ else {
-				boolean filteredByLoc = locationBasedClassAndFiltersMap.keySet().contains(entity.getClass());
-				boolean filteredByEnc = encTypeBasedClassAndFiltersMap.keySet().contains(entity.getClass());
 				//TODO We should allow filter registrations to actually provide the logic of what the interceptor
 				//should reject vs accept when loading a filtered type, some sort of callback and pass them the
 				//entity and state.
-				if (filteredByLoc || filteredByEnc) {
-					//Hibernate will flush any changes in the current session before querying the DB when fetching
-					//the GP value below and we end up in this method again, therefore we need to disable auto flush
-					String strictModeStr = InterceptorUtil.getGpValueNoFlush(ImplConstants.GP_RUN_IN_STRICT_MODE);
-					if ("false".equalsIgnoreCase(strictModeStr)) {
-						if (log.isTraceEnabled()) {
-							log.trace("Skipping AccessInterceptor because the module is not running in strict mode");
-						}
-					} else {
-						if (filteredByLoc) {
-							String filterName = locationBasedClassAndFiltersMap.get(entity.getClass());
-							checkIfHasLocationBasedAccess(entity, id, state, propertyNames, user, filterName);
-						}
-						
-						if (filteredByEnc) {
-							String filterName = encTypeBasedClassAndFiltersMap.get(entity.getClass());
-							checkIfHasEncounterTypeBasedAccess(entity, state, propertyNames, user, filterName);
-						}
+				
+				//Hibernate will flush any changes in the current session before querying the DB when fetching
+				//the GP value below and we end up in this method again, therefore we need to disable auto flush
+				String strictModeStr = InterceptorUtil.getGpValueNoFlush(ImplConstants.GP_RUN_IN_STRICT_MODE);
+				if ("false".equalsIgnoreCase(strictModeStr)) {
+					if (log.isTraceEnabled()) {
+						log.trace("Skipping AccessInterceptor because the module is not running in strict mode");
+					}
+				} else {
+					DeferredAccessChecks deferredChecks = null;
+					if (isVerificationDeferred()) {
+						deferredChecks = DeferredAccessChecks.get();
+					}
+					
+					if (plan.getLocationFilterName() != null) {
+						checkIfHasLocationBasedAccess(plan, id, state, user, deferredChecks);
+					}
+					
+					if (plan.getEncTypeFilterName() != null) {
+						checkIfHasEncounterTypeBasedAccess(plan, state, user, deferredChecks);
 					}
 				}
 			}
@@ -112,43 +129,124 @@ public class AccessInterceptor extends EmptyInterceptor {
 		return super.onLoad(entity, id, state, propertyNames, types);
 	}
 	
-	private void checkIfHasLocationBasedAccess(Object entity, Serializable id, Object[] state, String[] propertyNames,
-	                                           User user, String filterName) {
+	/**
+	 * Compiles the access check plans of all the mapped entities every time the application context
+	 * is refreshed, this also discards the plans of the entity classes of any refreshed modules.
+	 *
+	 * @see ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+	 */
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		SessionFactory sf = Context.getRegisteredComponents(SessionFactory.class).get(0);
+		Map<Class<?>, AccessCheckPlan> classAndPlanMap = new IdentityHashMap();
+		for (ClassMetadata metadata : sf.getAllClassMetadata().values()) {
+			Class<?> entityClass = metadata.getMappedClass();
+			if (entityClass != null) {
+				classAndPlanMap.put(entityClass, compile(entityClass, metadata.getPropertyNames()));
+			}
+		}
 		
-		boolean check = !Util.skipFilter(filterName);
-		if (check) {
-			Object personId = id;
-			if (entity instanceof Visit || entity instanceof Encounter || entity instanceof Obs) {
-				final String personPropertyName = entity instanceof Obs ? "person" : "patient";
-				int patientIndex = ArrayUtils.indexOf(propertyNames, personPropertyName);
-				personId = ((Person) state[patientIndex]).getPersonId();
+		plans = classAndPlanMap;
+		if (log.isDebugEnabled()) {
+			log.debug("Compiled access check plans for " + classAndPlanMap.size() + " entity types");
+		}
+	}
+	
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		DeferredAccessChecks.discard();
+	}
+	
+	/**
+	 * Checks if the loaded records should be collected and verified all at once before the query
+	 * result is returned instead of verifying each record as it gets loaded.
+	 */
+	private boolean isVerificationDeferred() {
+		return DeferredAccessCheckListener.isRegistered() && ImplConstants.STRICT_MODE_VERIFICATION_DEFERRED
+		        .equalsIgnoreCase(InterceptorUtil.getGpValueNoFlush(ImplConstants.GP_STRICT_MODE_VERIFICATION));
+	}
+	
+	/**
+	 * Gets the access check plan for the specified entity type, Hibernate passes the property names
+	 * array of the entity persister which is the one the plan was compiled from, a plan is only
+	 * compiled here for a type that was not mapped when the context was refreshed.
+	 */
+	private AccessCheckPlan getPlan(Class<?> entityClass, String[] propertyNames) {
+		AccessCheckPlan plan = plans.get(entityClass);
+		if (plan != null && plan.isCompiledFrom(propertyNames)) {
+			return plan;
+		}
+		
+		plan = compile(entityClass, propertyNames);
+		synchronized (this) {
+			//Copy on write, lookups happen on every load and never lock
+			Map<Class<?>, AccessCheckPlan> classAndPlanMap = new IdentityHashMap(plans);
+			classAndPlanMap.put(entityClass, plan);
+			plans = classAndPlanMap;
+		}
+		
+		return plan;
+	}
+	
+	private static AccessCheckPlan compile(Class<?> entityClass, String[] propertyNames) {
+		return AccessCheckPlan.compile(entityClass, propertyNames, locationBasedClassAndFiltersMap.get(entityClass),
+		    encTypeBasedClassAndFiltersMap.get(entityClass));
+	}
+	
+	private void checkIfHasLocationBasedAccess(AccessCheckPlan plan, Serializable id, Object[] state, User user,
+	                                           DeferredAccessChecks deferredChecks) {
+		
+		boolean check = !Util.skipFilter(plan.getLocationFilterName());
+		if (check && plan.hasLocation() && "true"
+		        .equalsIgnoreCase(InterceptorUtil.getGpValueNoFlush(ImplConstants.GP_ENCOUNTER_LOCATION_MODE_ENABLED))) {
+			//Encounters and visits are matched by their own location just like the filters do in this mode
+			Integer locationId = plan.getLocationId(state);
+			if (deferredChecks != null) {
+				deferredChecks.addLocationId(locationId);
+				return;
+			}
+			
+			if (user == null || locationId == null || !AccessUtil.getAccessibleLocationIdSet().contains(locationId)) {
+				throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+			}
+		} else if (check) {
+			Integer personId = plan.getPersonId(id, state);
+			if (deferredChecks != null) {
+				deferredChecks.addPersonId(personId);
+				return;
 			}
 			
-			if (user == null || !AccessUtil.getAccessiblePersonIds(Location.class).contains(personId.toString())) {
+			//The accessible person ids are resolved once and cached for the user, so this is a hash lookup
+			if (user == null || !AccessUtil.getAccessiblePersonIdSet(Location.class).contains(personId)) {
 				throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
 			}
 		}
 	}
 	
-	private void checkIfHasEncounterTypeBasedAccess(Object entity, Object[] state, String[] propertyNames, User user,
-	                                                String filterName) {
+	private void checkIfHasEncounterTypeBasedAccess(AccessCheckPlan plan, Object[] state, User user,
+	                                                DeferredAccessChecks deferredChecks) {
 		
-		boolean check = !Util.skipFilter(filterName);
+		boolean check = !Util.skipFilter(plan.getEncTypeFilterName());
 		if (check) {
 			Integer encounterTypeId = null;
 			boolean isEncounterLessObs = false;
-			if (entity instanceof Encounter) {
-				int encounterTypeIndex = ArrayUtils.indexOf(propertyNames, "encounterType");
-				encounterTypeId = ((EncounterType) state[encounterTypeIndex]).getEncounterTypeId();
+			if (!plan.isObs()) {
+				encounterTypeId = plan.getEncounterType(state).getEncounterTypeId();
 			} else {
-				//This is an Obs
-				int encounterIndex = ArrayUtils.indexOf(propertyNames, "encounter");
-				Encounter encounter = (Encounter) state[encounterIndex];
+				Encounter encounter = plan.getEncounter(state);
 				if (encounter == null) {
 					isEncounterLessObs = true;
 				} else {
 					if (encounter.getEncounterType() != null) {
 						encounterTypeId = encounter.getEncounterType().getEncounterTypeId();
+					} else if (DeferredAccessCheckListener.isRegistered()) {
+						//The encounter types are looked up for all the obs of the current load at once before
+						//the result is returned, even when the other checks are not deferred
+						DeferredAccessChecks.get().addEncounterId(encounter.getEncounterId());
+						return;
 					} else {
 						//If it's an obs that's getting loaded, encounter.encounterType could be
 						//null so fetch the encounter type id from the database
@@ -157,7 +255,9 @@ public class AccessInterceptor extends EmptyInterceptor {
 				}
 			}
 			
-			if (!isEncounterLessObs) {
+			if (!isEncounterLessObs && deferredChecks != null) {
+				deferredChecks.addEncounterTypeId(encounterTypeId);
+			} else if (!isEncounterLessObs) {
 				String requiredPrivilege = AccessUtil.getViewPrivilege(encounterTypeId);
 				if (requiredPrivilege != null) {
 					if (user == null || !user.hasPrivilege(requiredPrivilege)) {
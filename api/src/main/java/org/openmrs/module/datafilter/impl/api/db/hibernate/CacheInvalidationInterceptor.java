@@ -0,0 +1,234 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.type.Type;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.Program;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.module.datafilter.DataFilterSessionContext;
+import org.openmrs.module.datafilter.FilterSnapshotCache;
+import org.openmrs.module.datafilter.impl.AccessiblePersonCache;
+import org.openmrs.module.datafilter.impl.EncounterTypePrivilegeCache;
+import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.LocationHierarchy;
+import org.openmrs.module.datafilter.impl.PatientLocation;
+import org.openmrs.module.datafilter.impl.ProgramRoleIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * This interceptor discards the cached data derived from entities that get created, updated or
+ * deleted e.g. the {@link LocationHierarchy} is discarded when a Location is saved, retired or
+ * deleted, the {@link AccessiblePersonCache} is discarded when a patient gets linked to or
+ * unlinked from a location which makes the filter snapshots containing the ids of the linked
+ * patients stale and the {@link EncounterTypePrivilegeCache} is discarded when an encounter type is
+ * changed, filter snapshots are also discarded when an encounter type or the privileges of a role
+ * are changed since they contain the encounter types users can view. The
+ * {@link ProgramRoleIndex} is refreshed incrementally when the roles of a user change or a role gets
+ * linked to or unlinked from a program.
+ *
+ * <pre>
+ * The caches are discarded as soon as the change is detected so that the current transaction sees
+ * its own changes and again after the transaction completes so that no other thread keeps data it
+ * loaded before the changes were committed or rolled back.
+ * </pre>
+ */
+@Component("cacheInvalidationInterceptor")
+public class CacheInvalidationInterceptor extends EmptyInterceptor {
+	
+	private static final Logger log = LoggerFactory.getLogger(CacheInvalidationInterceptor.class);
+	
+	private static final String USER_ROLES = User.class.getName() + ".roles";
+	
+	private static ThreadLocal<Set<Class<?>>> changedTypesHolder = new ThreadLocal();
+	
+	private static ThreadLocal<Set<Integer>> changedUserIdsHolder = new ThreadLocal();
+	
+	/**
+	 * @see EmptyInterceptor#onSave(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		entityChanged(entity);
+		
+		return super.onSave(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onFlushDirty(Object, Serializable, Object[], Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	                            String[] propertyNames, Type[] types) {
+		entityChanged(entity);
+		
+		return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onDelete(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		entityChanged(entity);
+		
+		super.onDelete(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onCollectionRecreate(Object, Serializable)
+	 */
+	@Override
+	public void onCollectionRecreate(Object collection, Serializable key) {
+		collectionChanged(collection);
+		
+		super.onCollectionRecreate(collection, key);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onCollectionUpdate(Object, Serializable)
+	 */
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		collectionChanged(collection);
+		
+		super.onCollectionUpdate(collection, key);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onCollectionRemove(Object, Serializable)
+	 */
+	@Override
+	public void onCollectionRemove(Object collection, Serializable key) {
+		collectionChanged(collection);
+		
+		super.onCollectionRemove(collection, key);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		Set<Class<?>> changedTypes = changedTypesHolder.get();
+		if (changedTypes != null) {
+			changedTypesHolder.remove();
+			changedTypes.forEach(type -> invalidate(type));
+		}
+		
+		Set<Integer> changedUserIds = changedUserIdsHolder.get();
+		if (changedUserIds != null) {
+			changedUserIdsHolder.remove();
+			changedUserIds.forEach(userId -> userRolesChanged(userId));
+		}
+	}
+	
+	private void collectionChanged(Object collection) {
+		if (!(collection instanceof PersistentCollection)) {
+			return;
+		}
+		
+		Object owner = ((PersistentCollection) collection).getOwner();
+		if (owner instanceof Role) {
+			//Changes to the privileges of a role don't make the role itself dirty
+			entityChanged(owner);
+		} else if (owner instanceof User && USER_ROLES.equals(((PersistentCollection) collection).getRole())) {
+			Integer userId = ((User) owner).getUserId();
+			if (log.isDebugEnabled()) {
+				log.debug("Detected changes to the roles of the user with id: " + userId);
+			}
+			
+			Set<Integer> changedUserIds = changedUserIdsHolder.get();
+			if (changedUserIds == null) {
+				changedUserIds = new HashSet();
+				changedUserIdsHolder.set(changedUserIds);
+			}
+			
+			changedUserIds.add(userId);
+			userRolesChanged(userId);
+		}
+	}
+	
+	private void entityChanged(Object entity) {
+		Class<?> type;
+		if (entity instanceof Location) {
+			type = Location.class;
+		} else if (entity instanceof PatientLocation) {
+			type = PatientLocation.class;
+		} else if (entity instanceof EncounterType) {
+			type = EncounterType.class;
+		} else if (entity instanceof Role) {
+			type = Role.class;
+		} else if (entity instanceof EntityBasisMap && Role.class.getName().equals(((EntityBasisMap) entity).getEntityType())
+		        && Program.class.getName().equals(((EntityBasisMap) entity).getBasisType())) {
+			type = Program.class;
+		} else {
+			return;
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Detected changes to a " + type.getSimpleName() + ", discarding the cached data derived from it");
+		}
+		
+		Set<Class<?>> changedTypes = changedTypesHolder.get();
+		if (changedTypes == null) {
+			changedTypes = new HashSet();
+			changedTypesHolder.set(changedTypes);
+		}
+		
+		changedTypes.add(type);
+		invalidate(type);
+	}
+	
+	private void invalidate(Class<?> type) {
+		if (type == Location.class) {
+			LocationHierarchy.clear();
+			//Filter snapshots contain the descendants of the locations assigned to users
+			FilterSnapshotCache.invalidate();
+		} else if (type == PatientLocation.class) {
+			//Only the filter snapshots containing the ids of the linked patients depend on the links, they
+			//are recreated when they are next used since the generation of the cache changes
+			AccessiblePersonCache.clear();
+			DataFilterSessionContext.reset();
+		} else if (type == EncounterType.class) {
+			EncounterTypePrivilegeCache.clear();
+			//Filter snapshots contain the encounter types users are allowed to view
+			FilterSnapshotCache.invalidate();
+			DataFilterSessionContext.reset();
+		} else if (type == Role.class) {
+			FilterSnapshotCache.invalidate();
+			DataFilterSessionContext.reset();
+		} else if (type == Program.class) {
+			//A role got linked to or unlinked from a program
+			ProgramRoleIndex.roleProgramsChanged();
+			FilterSnapshotCache.invalidate();
+			DataFilterSessionContext.reset();
+		}
+	}
+	
+	private void userRolesChanged(Integer userId) {
+		ProgramRoleIndex.userRolesChanged(userId);
+		//Filter snapshots contain the users hidden by the program based filters
+		FilterSnapshotCache.invalidate();
+		DataFilterSessionContext.reset();
+	}
+	
+}
@@ -0,0 +1,88 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.openmrs.api.context.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Verifies the access checks deferred by {@link AccessInterceptor}, Hibernate calls the interceptor
+ * for every row of a query result before it calls this listener for any of them, this implies the
+ * first call verifies the entire result before it is returned to the caller.
+ */
+public class DeferredAccessCheckListener implements PostLoadEventListener {
+	
+	private static final Logger log = LoggerFactory.getLogger(DeferredAccessCheckListener.class);
+	
+	private static volatile boolean registered;
+	
+	/**
+	 * @see PostLoadEventListener#onPostLoad(PostLoadEvent)
+	 */
+	@Override
+	public void onPostLoad(PostLoadEvent event) {
+		DeferredAccessChecks.verify();
+	}
+	
+	/**
+	 * Checks if the listener is registered with the session factory, the access interceptor falls
+	 * back to verifying each record as it is loaded if it is not.
+	 *
+	 * @return true if the listener is registered otherwise false
+	 */
+	static boolean isRegistered() {
+		return registered;
+	}
+	
+	/**
+	 * Registers the listener with the session factory every time the application context is
+	 * refreshed, the registration is skipped if it is already registered.
+	 */
+	@Component(MODULE_ID + "DeferredAccessCheckListenerRegistrar")
+	public static class DeferredAccessCheckListenerRegistrar implements ApplicationListener<ContextRefreshedEvent> {
+		
+		/**
+		 * @see ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+		 */
+		@Override
+		public void onApplicationEvent(ContextRefreshedEvent event) {
+			SessionFactory sf = Context.getRegisteredComponents(SessionFactory.class).get(0);
+			EventListenerRegistry registry = ((SessionFactoryImplementor) sf).getServiceRegistry()
+			        .getService(EventListenerRegistry.class);
+			
+			for (PostLoadEventListener listener : registry.getEventListenerGroup(EventType.POST_LOAD).listeners()) {
+				if (listener instanceof DeferredAccessCheckListener) {
+					registered = true;
+					return;
+				}
+			}
+			
+			registry.appendListeners(EventType.POST_LOAD, new DeferredAccessCheckListener());
+			registered = true;
+			if (log.isDebugEnabled()) {
+				log.debug("Registered the deferred access check listener");
+			}
+		}
+		
+	}
+	
+}
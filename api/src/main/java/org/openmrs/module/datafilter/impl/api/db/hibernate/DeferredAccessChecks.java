@@ -0,0 +1,193 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.openmrs.Location;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.module.datafilter.impl.AccessUtil;
+import org.openmrs.module.datafilter.impl.ImplConstants;
+import org.openmrs.module.datafilter.impl.IntSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the access checks for the records loaded by the current thread when the module runs in
+ * strict mode with deferred verification, the checks are verified all at once before the query
+ * result is returned to the caller by {@link DeferredAccessCheckListener}. The encounter types of
+ * obs whose encounters are not yet loaded are always collected here regardless of the verification
+ * mode so that they are looked up with one query per load.
+ */
+final class DeferredAccessChecks {
+	
+	private static final Logger log = LoggerFactory.getLogger(DeferredAccessChecks.class);
+	
+	private static ThreadLocal<DeferredAccessChecks> checksHolder = new ThreadLocal();
+	
+	private static ThreadLocal<Boolean> verificationRegisteredHolder = new ThreadLocal();
+	
+	private final Set<Integer> personIds = new HashSet();
+	
+	private final Set<Integer> locationIds = new HashSet();
+	
+	private final Set<Integer> encounterTypeIds = new HashSet();
+	
+	private final Set<Integer> encounterIds = new HashSet();
+	
+	private DeferredAccessChecks() {
+	}
+	
+	/**
+	 * Gets the pending checks for the current thread, they are created if none exist
+	 *
+	 * @return the pending checks
+	 */
+	static DeferredAccessChecks get() {
+		DeferredAccessChecks checks = checksHolder.get();
+		if (checks == null) {
+			checks = new DeferredAccessChecks();
+			checksHolder.set(checks);
+			//The checks are recreated for each load, one process verifies whichever ones are left at the end
+			if (verificationRegisteredHolder.get() == null) {
+				registerVerificationBeforeTransactionCompletion();
+				verificationRegisteredHolder.set(true);
+			}
+		}
+		
+		return checks;
+	}
+	
+	/**
+	 * Registers a process that verifies any checks that are still pending when the current transaction
+	 * completes e.g. if no post load event was fired for the loaded records, it is registered once per
+	 * transaction. Hibernate swallows any exception thrown from Interceptor.beforeTransactionCompletion
+	 * whereas it bubbles out if it is thrown from a BeforeTransactionCompletionProcess instance.
+	 */
+	private static void registerVerificationBeforeTransactionCompletion() {
+		SessionFactory sessionFactory = Context.getRegisteredComponents(SessionFactory.class).get(0);
+		Session session = sessionFactory.getCurrentSession();
+		if (session instanceof EventSource) {
+			((EventSource) session).getActionQueue().registerProcess(new VerificationProcess());
+		}
+	}
+	
+	/**
+	 * Verifies the pending checks for the current thread
+	 *
+	 * @throws ContextAuthenticationException if any of the loaded records can't be accessed by the
+	 *             authenticated user
+	 */
+	static void verify() {
+		DeferredAccessChecks checks = checksHolder.get();
+		if (checks == null) {
+			return;
+		}
+		
+		//Remove them first since any record loaded while verifying is collected separately
+		checksHolder.remove();
+		checks.verify(Context.getAuthenticatedUser());
+	}
+	
+	/**
+	 * Discards the pending checks for the current thread, it is called when the transaction completes
+	 * so that the verification process gets registered again in the next transaction
+	 */
+	static void discard() {
+		if (checksHolder.get() != null) {
+			checksHolder.remove();
+		}
+		
+		verificationRegisteredHolder.remove();
+	}
+	
+	void addPersonId(Integer personId) {
+		personIds.add(personId);
+	}
+	
+	void addLocationId(Integer locationId) {
+		locationIds.add(locationId);
+	}
+	
+	void addEncounterTypeId(Integer encounterTypeId) {
+		encounterTypeIds.add(encounterTypeId);
+	}
+	
+	void addEncounterId(Integer encounterId) {
+		encounterIds.add(encounterId);
+	}
+	
+	private void verify(User user) {
+		if (log.isDebugEnabled()) {
+			log.debug("Verifying access to " + personIds.size() + " person(s), " + locationIds.size() + " location(s), "
+			        + encounterTypeIds.size() + " encounter type(s) and " + encounterIds.size()
+			        + " encounter(s) with unloaded encounter types");
+		}
+		
+		if (!personIds.isEmpty()) {
+			if (user == null) {
+				throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+			}
+			
+			IntSet accessiblePersonIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+			for (Integer personId : personIds) {
+				if (!accessiblePersonIds.contains(personId)) {
+					throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+				}
+			}
+		}
+		
+		if (!locationIds.isEmpty()) {
+			if (user == null) {
+				throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+			}
+			
+			IntSet accessibleLocationIds = AccessUtil.getAccessibleLocationIdSet();
+			for (Integer locationId : locationIds) {
+				if (locationId == null || !accessibleLocationIds.contains(locationId)) {
+					throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+				}
+			}
+		}
+		
+		if (!encounterIds.isEmpty()) {
+			encounterTypeIds.addAll(AccessUtil.getEncounterTypeIdsForEncounters(encounterIds).values());
+		}
+		
+		//Each distinct encounter type is checked once regardless of the number of records loaded
+		for (Integer encounterTypeId : encounterTypeIds) {
+			String requiredPrivilege = AccessUtil.getViewPrivilege(encounterTypeId);
+			if (requiredPrivilege != null && (user == null || !user.hasPrivilege(requiredPrivilege))) {
+				throw new ContextAuthenticationException(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+			}
+		}
+	}
+	
+	/**
+	 * Verifies the pending checks of the current thread before the transaction completes
+	 */
+	private static class VerificationProcess implements BeforeTransactionCompletionProcess {
+		
+		@Override
+		public void doBeforeTransactionCompletion(SessionImplementor session) {
+			verify();
+		}
+		
+	}
+	
+}
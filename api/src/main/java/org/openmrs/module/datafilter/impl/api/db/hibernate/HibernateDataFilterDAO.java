@@ -9,16 +9,44 @@
  */
 package org.openmrs.module.datafilter.impl.api.db.hibernate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Restrictions;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.api.db.DAOException;
+import org.openmrs.module.datafilter.DataFilterConstants;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.module.datafilter.impl.PatientLocation;
+import org.openmrs.module.datafilter.impl.PatientLocationIndexer;
 import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
 
 public class HibernateDataFilterDAO implements DataFilterDAO {
 	
+	private static final String CLOSURE_TABLE = DataFilterConstants.MODULE_ID + "_location_closure";
+	
+	private static final String INSERT_CLOSURE_ROW = "INSERT INTO " + CLOSURE_TABLE
+	        + " (ancestor_id, descendant_id) VALUES (?, ?)";
+	
+	private static final String INSERT_PARENT_CLOSURE_ROWS = "INSERT INTO " + CLOSURE_TABLE
+	        + " (ancestor_id, descendant_id) SELECT ancestor_id, ? FROM " + CLOSURE_TABLE + " WHERE descendant_id = ?";
+	
+	private static final String SELECT_DESCENDANT_IDS = "SELECT descendant_id FROM " + CLOSURE_TABLE
+	        + " WHERE ancestor_id = ?";
+	
+	private static final String SELECT_ANCESTOR_IDS = "SELECT ancestor_id FROM " + CLOSURE_TABLE
+	        + " WHERE descendant_id = ?";
+	
 	private SessionFactory sessionFactory;
 	
 	/**
@@ -51,7 +79,15 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 	 */
 	@Override
 	public EntityBasisMap saveEntityBasisMap(EntityBasisMap entityBasisMap) {
-		sessionFactory.getCurrentSession().save(entityBasisMap);
+		Session session = sessionFactory.getCurrentSession();
+		session.save(entityBasisMap);
+		PatientLocation patientLocation = toPatientLocation(entityBasisMap);
+		if (patientLocation != null && session.get(PatientLocation.class, patientLocation) == null) {
+			session.save(patientLocation);
+			//The patient's full text index documents are tagged with the ids of the locations
+			PatientLocationIndexer.reindexAfterCommit(patientLocation.getPatientId());
+		}
+		
 		return entityBasisMap;
 	}
 	
@@ -60,7 +96,16 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 	 */
 	@Override
 	public void deleteEntityBasisMap(EntityBasisMap entityBasisMap) {
-		sessionFactory.getCurrentSession().delete(entityBasisMap);
+		Session session = sessionFactory.getCurrentSession();
+		session.delete(entityBasisMap);
+		PatientLocation patientLocation = toPatientLocation(entityBasisMap);
+		if (patientLocation != null) {
+			patientLocation = (PatientLocation) session.get(PatientLocation.class, patientLocation);
+			if (patientLocation != null) {
+				session.delete(patientLocation);
+				PatientLocationIndexer.reindexAfterCommit(patientLocation.getPatientId());
+			}
+		}
 	}
 	
 	/**
@@ -75,4 +120,113 @@ public class HibernateDataFilterDAO implements DataFilterDAO {
 		
 		return (Collection<EntityBasisMap>) criteria.list();
 	}
+	
+	/**
+	 * @see DataFilterDAO#addLocationToClosure(Integer, Integer)
+	 */
+	@Override
+	public void addLocationToClosure(Integer locationId, Integer parentLocationId) {
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			executeUpdate(connection, INSERT_CLOSURE_ROW, locationId, locationId);
+			if (parentLocationId != null) {
+				executeUpdate(connection, INSERT_PARENT_CLOSURE_ROWS, locationId, parentLocationId);
+			}
+		});
+	}
+	
+	/**
+	 * @see DataFilterDAO#moveLocationInClosure(Integer, Integer)
+	 */
+	@Override
+	public void moveLocationInClosure(Integer locationId, Integer parentLocationId) {
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			List<Integer> subtreeIds = getIds(connection, SELECT_DESCENDANT_IDS, locationId);
+			if (subtreeIds.isEmpty()) {
+				executeUpdate(connection, INSERT_CLOSURE_ROW, locationId, locationId);
+				subtreeIds.add(locationId);
+			}
+			
+			if (parentLocationId != null && subtreeIds.contains(parentLocationId)) {
+				throw new DAOException("A location can't be moved under itself or any of its descendants");
+			}
+			
+			//The location and its descendants are detached from the old ancestors of the location
+			List<Integer> oldAncestorIds = getIds(connection, SELECT_ANCESTOR_IDS, locationId);
+			oldAncestorIds.remove(locationId);
+			if (!oldAncestorIds.isEmpty()) {
+				executeUpdate(connection, "DELETE FROM " + CLOSURE_TABLE + " WHERE ancestor_id IN ("
+				        + StringUtils.join(oldAncestorIds, ",") + ") AND descendant_id IN ("
+				        + StringUtils.join(subtreeIds, ",") + ")");
+			}
+			
+			if (parentLocationId == null) {
+				return;
+			}
+			
+			//And then attached to the ancestors of the new parent
+			List<Integer> newAncestorIds = getIds(connection, SELECT_ANCESTOR_IDS, parentLocationId);
+			try (PreparedStatement statement = connection.prepareStatement(INSERT_CLOSURE_ROW)) {
+				for (Integer ancestorId : newAncestorIds) {
+					for (Integer descendantId : subtreeIds) {
+						statement.setInt(1, ancestorId);
+						statement.setInt(2, descendantId);
+						statement.addBatch();
+					}
+				}
+				
+				statement.executeBatch();
+			}
+		});
+	}
+	
+	/**
+	 * @see DataFilterDAO#removeLocationFromClosure(Integer)
+	 */
+	@Override
+	public void removeLocationFromClosure(Integer locationId) {
+		sessionFactory.getCurrentSession().doWork(connection -> executeUpdate(connection,
+		    "DELETE FROM " + CLOSURE_TABLE + " WHERE ancestor_id = ? OR descendant_id = ?", locationId, locationId));
+	}
+	
+	/**
+	 * Creates the row in the patient location table that mirrors the specified entity basis map if it
+	 * links a patient to a location
+	 *
+	 * @param entityBasisMap the entity basis map
+	 * @return the PatientLocation or null if the entity basis map doesn't link a patient to a location
+	 */
+	private static PatientLocation toPatientLocation(EntityBasisMap entityBasisMap) {
+		if (!Patient.class.getName().equals(entityBasisMap.getEntityType())
+		        || !Location.class.getName().equals(entityBasisMap.getBasisType())) {
+			return null;
+		}
+		
+		return new PatientLocation(Integer.valueOf(entityBasisMap.getBasisIdentifier()),
+		        Integer.valueOf(entityBasisMap.getEntityIdentifier()));
+	}
+	
+	private static void executeUpdate(Connection connection, String sql, Integer... params) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (int i = 0; i < params.length; i++) {
+				statement.setInt(i + 1, params[i]);
+			}
+			
+			statement.executeUpdate();
+		}
+	}
+	
+	private static List<Integer> getIds(Connection connection, String sql, Integer id) throws SQLException {
+		List<Integer> ids = new ArrayList();
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setInt(1, id);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					ids.add(resultSet.getInt(1));
+				}
+			}
+		}
+		
+		return ids;
+	}
+	
 }
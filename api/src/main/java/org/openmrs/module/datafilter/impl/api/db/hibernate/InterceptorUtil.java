@@ -9,27 +9,36 @@
  */
 package org.openmrs.module.datafilter.impl.api.db.hibernate;
 
+import java.util.Map;
+
 import org.hibernate.FlushMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
 
 final class InterceptorUtil {
 	
 	/**
-	 * Gets a GP value from the DB without triggering a hibernate flush.
+	 * Gets a GP value without triggering a hibernate flush, the value is read from
+	 * {@link GlobalPropertyCache} and the session is only touched if the cache is not yet loaded.
 	 * 
 	 * @param gpName the name of the global property
 	 * @return the global property value
 	 */
 	public static String getGpValueNoFlush(String gpName) {
+		Map<String, String> values = GlobalPropertyCache.getLoadedValues();
+		if (values != null) {
+			return values.get(gpName);
+		}
+		
 		Session session = Context.getRegisteredComponents(SessionFactory.class).get(0).getCurrentSession();
 		//Hibernate will flush any changes in the current session before querying the DB when fetching
 		//the GP value below and we end up in this method again, therefore we need to disable auto flush
 		final FlushMode flushMode = session.getFlushMode();
 		session.setFlushMode(FlushMode.MANUAL);
 		try {
-			return Context.getAdministrationService().getGlobalProperty(gpName);
+			return GlobalPropertyCache.getValue(gpName);
 		}
 		finally {
 			//reset
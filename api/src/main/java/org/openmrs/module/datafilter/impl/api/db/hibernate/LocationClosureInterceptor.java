@@ -0,0 +1,174 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * This interceptor keeps the location closure table up to date, new, moved and deleted locations are
+ * tracked as they are detected and the closure table gets updated after the changes have been
+ * flushed to the database, at which point new locations have their ids assigned.
+ */
+@Component("locationClosureInterceptor")
+public class LocationClosureInterceptor extends EmptyInterceptor {
+	
+	private static final Logger log = LoggerFactory.getLogger(LocationClosureInterceptor.class);
+	
+	private static final String PROP_PARENT_LOCATION = "parentLocation";
+	
+	private static ThreadLocal<List<LocationChange>> changesHolder = new ThreadLocal();
+	
+	/**
+	 * @see EmptyInterceptor#onSave(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Location) {
+			addChange(new LocationChange(ChangeType.ADDED, (Location) entity, null));
+		}
+		
+		return super.onSave(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onFlushDirty(Object, Serializable, Object[], Object[], String[], Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	                            String[] propertyNames, Type[] types) {
+		
+		if (entity instanceof Location && isParentChanged(currentState, previousState, propertyNames)) {
+			addChange(new LocationChange(ChangeType.MOVED, (Location) entity, null));
+		}
+		
+		return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#onDelete(Object, Serializable, Object[], String[], Type[])
+	 */
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Location) {
+			addChange(new LocationChange(ChangeType.REMOVED, (Location) entity, (Integer) id));
+		}
+		
+		super.onDelete(entity, id, state, propertyNames, types);
+	}
+	
+	/**
+	 * @see EmptyInterceptor#postFlush(Iterator)
+	 */
+	@Override
+	public void postFlush(Iterator entities) {
+		List<LocationChange> changes = changesHolder.get();
+		if (changes == null) {
+			return;
+		}
+		
+		changesHolder.remove();
+		DataFilterDAO dao = Context.getRegisteredComponents(DataFilterDAO.class).get(0);
+		for (LocationChange change : changes) {
+			Integer locationId = change.locationId != null ? change.locationId : change.location.getLocationId();
+			Location parent = change.location.getParentLocation();
+			Integer parentId = parent != null ? parent.getLocationId() : null;
+			if (log.isDebugEnabled()) {
+				log.debug("Updating location closure for " + change.type + " location with id: " + locationId);
+			}
+			
+			switch (change.type) {
+				case ADDED:
+					dao.addLocationToClosure(locationId, parentId);
+					break;
+				case MOVED:
+					dao.moveLocationInClosure(locationId, parentId);
+					break;
+				case REMOVED:
+					dao.removeLocationFromClosure(locationId);
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		if (changesHolder.get() != null) {
+			changesHolder.remove();
+		}
+	}
+	
+	private void addChange(LocationChange change) {
+		List<LocationChange> changes = changesHolder.get();
+		if (changes == null) {
+			changes = new ArrayList();
+			changesHolder.set(changes);
+		}
+		
+		changes.add(change);
+	}
+	
+	private boolean isParentChanged(Object[] currentState, Object[] previousState, String[] propertyNames) {
+		if (previousState == null) {
+			return true;
+		}
+		
+		for (int i = 0; i < propertyNames.length; i++) {
+			if (PROP_PARENT_LOCATION.equals(propertyNames[i])) {
+				return !Objects.equals(getLocationId(currentState[i]), getLocationId(previousState[i]));
+			}
+		}
+		
+		return false;
+	}
+	
+	private Integer getLocationId(Object location) {
+		return location == null ? null : ((Location) location).getLocationId();
+	}
+	
+	private enum ChangeType {
+		ADDED,
+		MOVED,
+		REMOVED
+	}
+	
+	private static class LocationChange {
+		
+		private ChangeType type;
+		
+		private Location location;
+		
+		private Integer locationId;
+		
+		LocationChange(ChangeType type, Location location, Integer locationId) {
+			this.type = type;
+			this.location = location;
+			this.locationId = locationId;
+		}
+		
+	}
+	
+}
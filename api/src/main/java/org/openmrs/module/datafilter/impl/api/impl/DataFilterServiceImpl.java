@@ -21,6 +21,8 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.datafilter.DataFilterSessionContext;
+import org.openmrs.module.datafilter.FilterSnapshotCache;
+import org.openmrs.module.datafilter.Util;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
 import org.openmrs.module.datafilter.impl.api.DataFilterService;
 import org.openmrs.module.datafilter.impl.api.db.DataFilterDAO;
@@ -67,7 +69,7 @@ public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFil
 			}
 		}
 		
-		DataFilterSessionContext.reset();
+		assignmentsChanged();
 	}
 	
 	/**
@@ -93,7 +95,7 @@ public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFil
 			}
 		}
 		
-		DataFilterSessionContext.reset();
+		assignmentsChanged();
 	}
 	
 	/**
@@ -136,4 +138,16 @@ public class DataFilterServiceImpl extends BaseOpenmrsService implements DataFil
 	public Collection<EntityBasisMap> getEntityBasisMaps(OpenmrsObject entity, String basisClassName) {
 		return dao.getEntityBasisMaps(entity.getId().toString(), entity.getClass().getName(), basisClassName);
 	}
+	
+	/**
+	 * Discards the filter snapshots and the data cached for the assignments version, this is done
+	 * again after the transaction commits because other threads can cache data read from the
+	 * previously committed assignments in the meantime.
+	 */
+	private void assignmentsChanged() {
+		DataFilterSessionContext.reset();
+		FilterSnapshotCache.invalidate();
+		Util.registerAfterCommitCallback(FilterSnapshotCache::invalidate);
+	}
+	
 }
@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.registration;
+
+/**
+ * A variant of the condition of a hibernate filter to use instead of the portable one with the
+ * databases named by dbms, it is a comma separated list of names like mysql, postgresql or h2 which
+ * are matched against the configured hibernate dialect or the jdbc url if no dialect is set.
+ */
+public class DialectCondition {
+	
+	private String dbms;
+	
+	private String condition;
+	
+	/**
+	 * Gets the dbms
+	 *
+	 * @return the dbms
+	 */
+	public String getDbms() {
+		return dbms;
+	}
+	
+	/**
+	 * Sets the dbms
+	 *
+	 * @param dbms the dbms to set
+	 */
+	public void setDbms(String dbms) {
+		this.dbms = dbms;
+	}
+	
+	/**
+	 * Gets the condition
+	 *
+	 * @return the condition
+	 */
+	public String getCondition() {
+		return condition;
+	}
+	
+	/**
+	 * Sets the condition
+	 *
+	 * @param condition the condition to set
+	 */
+	public void setCondition(String condition) {
+		this.condition = condition;
+	}
+	
+	/**
+	 * Checks if this condition applies to the specified dialect
+	 *
+	 * @param dialect the hibernate dialect class name or jdbc url
+	 * @return true if one of the dbms names is contained in the dialect otherwise false
+	 */
+	public boolean matches(String dialect) {
+		if (dbms == null || dialect == null) {
+			return false;
+		}
+		
+		final String lcDialect = dialect.toLowerCase();
+		for (String name : dbms.split(",")) {
+			if (!name.trim().isEmpty() && lcDialect.contains(name.trim().toLowerCase())) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+}
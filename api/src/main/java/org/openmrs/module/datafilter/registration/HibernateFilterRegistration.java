@@ -23,6 +23,14 @@ public class HibernateFilterRegistration extends FilterRegistration<HibernateFil
 	
 	private List<FilterAlias> aliases;
 	
+	private List<DialectCondition> dialectConditions;
+	
+	private ParameterListBinding parameterListBinding = ParameterListBinding.EXPANDED;
+	
+	private String strategyOf;
+	
+	private String strategy;
+	
 	/**
 	 * Gets the property
 	 *
@@ -113,4 +121,97 @@ public class HibernateFilterRegistration extends FilterRegistration<HibernateFil
 		this.aliases = aliases;
 	}
 	
+	/**
+	 * Gets the dialectConditions
+	 *
+	 * @return the dialectConditions
+	 */
+	public List<DialectCondition> getDialectConditions() {
+		return dialectConditions;
+	}
+	
+	/**
+	 * Sets the dialectConditions
+	 *
+	 * @param dialectConditions the dialectConditions to set
+	 */
+	public void setDialectConditions(List<DialectCondition> dialectConditions) {
+		this.dialectConditions = dialectConditions;
+	}
+	
+	/**
+	 * Gets the parameterListBinding
+	 *
+	 * @return the parameterListBinding
+	 */
+	public ParameterListBinding getParameterListBinding() {
+		return parameterListBinding;
+	}
+	
+	/**
+	 * Sets the parameterListBinding
+	 *
+	 * @param parameterListBinding the parameterListBinding to set
+	 */
+	public void setParameterListBinding(ParameterListBinding parameterListBinding) {
+		this.parameterListBinding = parameterListBinding;
+	}
+	
+	/**
+	 * Gets the strategyOf, this is the name of the filter this registration is an alternative strategy
+	 * for, such a registration is only enabled in place of that filter when a listener selects its
+	 * strategy
+	 *
+	 * @return the strategyOf
+	 */
+	public String getStrategyOf() {
+		return strategyOf;
+	}
+	
+	/**
+	 * Sets the strategyOf
+	 *
+	 * @param strategyOf the strategyOf to set
+	 */
+	public void setStrategyOf(String strategyOf) {
+		this.strategyOf = strategyOf;
+	}
+	
+	/**
+	 * Gets the strategy
+	 *
+	 * @return the strategy
+	 */
+	public String getStrategy() {
+		return strategy;
+	}
+	
+	/**
+	 * Sets the strategy
+	 *
+	 * @param strategy the strategy to set
+	 */
+	public void setStrategy(String strategy) {
+		this.strategy = strategy;
+	}
+	
+	/**
+	 * Gets the condition to use with the specified dialect, this is the first dialect condition that
+	 * matches it otherwise the portable condition.
+	 *
+	 * @param dialect the hibernate dialect class name or jdbc url, can be null
+	 * @return the condition
+	 */
+	public String getCondition(String dialect) {
+		if (dialectConditions != null) {
+			for (DialectCondition dialectCondition : dialectConditions) {
+				if (dialectCondition.matches(dialect)) {
+					return dialectCondition.getCondition();
+				}
+			}
+		}
+		
+		return condition;
+	}
+	
 }
@@ -0,0 +1,31 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.registration;
+
+/**
+ * Specifies how the collection and array values of the parameters of a hibernate filter are bound,
+ * hibernate expands a parameter list into one bind marker per element so every distinct list size
+ * produces a different sql string.
+ */
+public enum ParameterListBinding {
+	
+	/**
+	 * Each element is bound as is, this is the default
+	 */
+	EXPANDED,
+	
+	/**
+	 * The list is padded to the next power of 2 by repeating its last element so that lists of
+	 * similar sizes produce the same sql string and statements can be reused from the cache of the
+	 * driver or database, only applicable to parameters used with IN since duplicates are harmless
+	 */
+	PADDED
+	
+}
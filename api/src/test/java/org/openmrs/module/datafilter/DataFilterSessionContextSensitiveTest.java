@@ -9,8 +9,13 @@
  */
 package org.openmrs.module.datafilter;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -21,8 +26,11 @@ import org.hibernate.context.spi.CurrentSessionContext;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.impl.AccessiblePersonCache;
 import org.openmrs.module.datafilter.impl.BaseFilterTest;
+import org.openmrs.module.datafilter.impl.ImplConstants;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.powermock.reflect.Whitebox;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -53,10 +61,73 @@ public class DataFilterSessionContextSensitiveTest extends BaseFilterTest {
 		Session session = currentSessionContext.currentSession();
 		
 		List<HibernateFilterRegistration> filters = Util.getHibernateFilterRegistrations();
-		List<String> enabledFilterNames = filters.stream().filter(f -> !disabledFilters.contains(f.getName()))
-		        .map(f -> f.getName()).collect(Collectors.toList());
-		enabledFilterNames.forEach(f -> assertNotNull(session.getEnabledFilter(f)));
-		disabledFilters.forEach(f -> assertNull(session.getEnabledFilter(f)));
+		List<String> enabledFilterNames = filters.stream()
+		        .filter(f -> f.getStrategyOf() == null && !disabledFilters.contains(f.getName())).map(f -> f.getName())
+		        .collect(Collectors.toList());
+		//A filter can be enabled via one of its alternative strategies
+		enabledFilterNames.forEach(f -> assertTrue(filters.stream()
+		        .filter(s -> f.equals(s.getName()) || f.equals(s.getStrategyOf()))
+		        .anyMatch(s -> session.getEnabledFilter(s.getName()) != null)));
+		filters.stream().filter(f -> disabledFilters.contains(f.getName()) || disabledFilters.contains(f.getStrategyOf()))
+		        .forEach(f -> assertNull(session.getEnabledFilter(f.getName())));
+	}
+	
+	@Test
+	public void currentSession_shouldEnableTheIdListStrategyOfALocationBasedFilterIfTheUserCanAccessFewPatients() {
+		reloginAs("dyorke", "test");
+		
+		Session session = currentSessionContext.currentSession();
+		
+		assertNull(session.getEnabledFilter(ImplConstants.LOCATION_BASED_FILTER_NAME_PATIENT));
+		assertNotNull(session.getEnabledFilter(ImplConstants.LOCATION_BASED_FILTER_NAME_PATIENT + "_idList"));
+	}
+	
+	@Test
+	public void currentSession_shouldNotEnableTheIdListStrategyOfALocationBasedFilterIfTheThresholdIsZero() {
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(ImplConstants.GP_ID_LIST_STRATEGY_THRESHOLD, "0"));
+		reloginAs("dyorke", "test");
+		
+		Session session = currentSessionContext.currentSession();
+		
+		assertNotNull(session.getEnabledFilter(ImplConstants.LOCATION_BASED_FILTER_NAME_PATIENT));
+		assertNull(session.getEnabledFilter(ImplConstants.LOCATION_BASED_FILTER_NAME_PATIENT + "_idList"));
+	}
+	
+	@Test
+	public void currentSession_shouldRecreateAnIdListSnapshotWithoutInvalidatingOthersWhenPatientLinksChange() {
+		reloginAs("dyorke", "test");
+		currentSessionContext.currentSession();
+		FilterSnapshotKey key = FilterSnapshotCache.createKey(Context.getAuthenticatedUser());
+		FilterSnapshot snapshot = FilterSnapshotCache.get(key);
+		assertEquals(ImplConstants.STRATEGY_ID_LIST, snapshot.getStrategy(ImplConstants.LOCATION_BASED_FILTER_NAME_PATIENT));
+		long version = FilterSnapshotCache.getVersion();
+		
+		//This is what happens when a patient gets linked to or unlinked from a location
+		AccessiblePersonCache.clear();
+		DataFilterSessionContext.reset();
+		currentSessionContext.currentSession();
+		
+		assertEquals(version, FilterSnapshotCache.getVersion());
+		assertTrue(snapshot.isStale());
+		assertNotSame(snapshot, FilterSnapshotCache.get(key));
+	}
+	
+	@Test
+	public void currentSession_shouldKeepASnapshotWithoutAnIdListStrategyWhenPatientLinksChange() {
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(ImplConstants.GP_ID_LIST_STRATEGY_THRESHOLD, "0"));
+		reloginAs("dyorke", "test");
+		currentSessionContext.currentSession();
+		FilterSnapshotKey key = FilterSnapshotCache.createKey(Context.getAuthenticatedUser());
+		FilterSnapshot snapshot = FilterSnapshotCache.get(key);
+		
+		AccessiblePersonCache.clear();
+		DataFilterSessionContext.reset();
+		currentSessionContext.currentSession();
+		
+		assertFalse(snapshot.isStale());
+		assertSame(snapshot, FilterSnapshotCache.get(key));
 	}
 	
 }
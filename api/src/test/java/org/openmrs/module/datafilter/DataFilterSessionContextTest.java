@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.datafilter;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -17,6 +18,13 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.support.membermodification.MemberMatcher.method;
 import static org.powermock.api.support.membermodification.MemberModifier.suppress;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,6 +33,9 @@ import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.openmrs.api.context.Daemon;
+import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.openmrs.module.datafilter.registration.ParameterListBinding;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
@@ -32,7 +43,7 @@ import org.slf4j.Logger;
 import org.springframework.orm.hibernate4.SpringSessionContext;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ SpringSessionContext.class, Daemon.class, Util.class })
+@PrepareForTest({ SpringSessionContext.class, Daemon.class, Util.class, FilterListenerIndex.class })
 public class DataFilterSessionContextTest {
 	
 	@Mock
@@ -41,6 +52,9 @@ public class DataFilterSessionContextTest {
 	@Mock
 	private Logger mockLogger;
 	
+	@Mock
+	private Session mockSession;
+	
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
@@ -80,4 +94,67 @@ public class DataFilterSessionContextTest {
 		    ((ThreadLocal<Boolean>) Whitebox.getInternalState(DataFilterSessionContext.class, "areFiltersSet")).get());
 	}
 	
+	private HibernateFilterRegistration createRegistration(String name, Class targetClass, String paramName,
+	                                                      ParameterListBinding parameterListBinding) {
+		HibernateFilterRegistration registration = new HibernateFilterRegistration();
+		registration.setName(name);
+		registration.setTargetClasses(Collections.singletonList(targetClass));
+		registration.setParameterListBinding(parameterListBinding);
+		if (paramName != null) {
+			HibernateFilterParameter parameter = new HibernateFilterParameter();
+			parameter.setName(paramName);
+			registration.setParameters(Collections.singletonList(parameter));
+		}
+		
+		return registration;
+	}
+	
+	@Test
+	public void createFilterSnapshot_shouldEvaluateRegistrationsSharingANameOnceAndPadIfAnyOfThemIsPadded()
+	    throws Exception {
+		final String filterName = "datafilter_testFilter";
+		final String paramName = "ids";
+		List<HibernateFilterRegistration> registrations = Arrays.asList(
+		    createRegistration(filterName, Object.class, paramName, ParameterListBinding.PADDED),
+		    createRegistration(filterName, String.class, null, null));
+		AtomicInteger callCount = new AtomicInteger();
+		DataFilterListener listener = new DataFilterListener() {
+			
+			@Override
+			public boolean supports(String name) {
+				return filterName.equals(name);
+			}
+			
+			@Override
+			public boolean onEnableFilter(DataFilterContext filterContext) {
+				callCount.incrementAndGet();
+				filterContext.setParameter(paramName, Arrays.asList(1, 2, 3));
+				return true;
+			}
+		};
+		mockStatic(Util.class);
+		mockStatic(FilterListenerIndex.class);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(registrations);
+		when(FilterListenerIndex.getListener(filterName)).thenReturn(listener);
+		
+		FilterSnapshot snapshot = Whitebox.invokeMethod(new DataFilterSessionContext(sfImpl), "createFilterSnapshot",
+		    mockSession);
+		
+		assertEquals(1, callCount.get());
+		assertEquals(Arrays.asList(1, 2, 3, 3), snapshot.getParameters(filterName).get(paramName));
+	}
+	
+	@Test
+	public void padParameterList_shouldPadTheListToTheNextPowerOfTwoWithTheLastElement() {
+		assertEquals(Arrays.asList(1, 2, 3, 3), DataFilterSessionContext.padParameterList(Arrays.asList(1, 2, 3)));
+		assertEquals(Arrays.asList(1, 2, 3, 4), DataFilterSessionContext.padParameterList(new Integer[] { 1, 2, 3, 4 }));
+		assertEquals(8, ((Collection) DataFilterSessionContext.padParameterList(Arrays.asList(1, 2, 3, 4, 5))).size());
+		assertEquals(Collections.singletonList(1), DataFilterSessionContext.padParameterList(Collections.singleton(1)));
+	}
+	
+	@Test
+	public void padParameterList_shouldReturnTheValueIfItIsNotACollectionOrArray() {
+		assertEquals(5, DataFilterSessionContext.padParameterList(5));
+	}
+	
 }
@@ -12,6 +12,7 @@ package org.openmrs.module.datafilter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
@@ -99,9 +100,11 @@ public class DataFilterSessionFactoryBeanTest {
 		classFiltersMap.put(Module2Entity.class, module2EntityFilters);
 		when(Util.getClassFiltersMap()).thenReturn(classFiltersMap);
 		sessionFactoryBean.setFilteredResourcesLocation(filteredResourcesLocation);
-		when(Util.getMappedClassName(module1EntityHbmFile)).thenReturn(Module1Entity.class.getName());
-		when(Util.getMappedClassName(module1UnFilteredEntityHbmFile)).thenReturn(UnfilteredModule1Entity.class.getName());
-		when(Util.getMappedClassName(module2EntityHbmFile)).thenReturn(Module2Entity.class.getName());
+		Map<String, String> resourceClassnames = new HashMap();
+		resourceClassnames.put(module1EntityHbmFile, Module1Entity.class.getName());
+		resourceClassnames.put(module1UnFilteredEntityHbmFile, UnfilteredModule1Entity.class.getName());
+		resourceClassnames.put(module2EntityHbmFile, Module2Entity.class.getName());
+		when(Util.getMappedClassNames(anyCollection())).thenReturn(resourceClassnames);
 		when(OpenmrsClassLoader.getInstance()).thenReturn(mockClassLoader);
 		when(mockClassLoader.loadClass(Module1Entity.class.getName())).thenReturn((Class) Module1Entity.class);
 		when(mockClassLoader.loadClass(UnfilteredModule1Entity.class.getName()))
@@ -0,0 +1,102 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.registration.FullTextFilterRegistration;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Util.class, Context.class })
+public class FilterListenerIndexTest {
+	
+	private static final String FILTER1 = "filter1";
+	
+	private static final String FILTER2 = "filter2";
+	
+	@Rule
+	public ExpectedException ee = ExpectedException.none();
+	
+	@Before
+	public void setup() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		HibernateFilterRegistration hibernateRegistration = new HibernateFilterRegistration();
+		hibernateRegistration.setName(FILTER1);
+		FullTextFilterRegistration fullTextRegistration = new FullTextFilterRegistration();
+		fullTextRegistration.setName(FILTER2);
+		when(Util.getHibernateFilterRegistrations()).thenReturn(Collections.singletonList(hibernateRegistration));
+		when(Util.getFullTextFilterRegistrations()).thenReturn(Collections.singletonList(fullTextRegistration));
+		FilterListenerIndex.clear();
+	}
+	
+	private DataFilterListener createListener(String... filterNames) {
+		DataFilterListener listener = mock(DataFilterListener.class);
+		for (String filterName : filterNames) {
+			when(listener.supports(eq(filterName))).thenReturn(true);
+		}
+		
+		return listener;
+	}
+	
+	@Test
+	public void getListener_shouldReturnTheListenerThatSupportsTheFilter() {
+		DataFilterListener listener1 = createListener(FILTER1);
+		DataFilterListener listener2 = createListener(FILTER2);
+		when(Context.getRegisteredComponents(DataFilterListener.class))
+		        .thenReturn(Stream.of(listener1, listener2).collect(Collectors.toList()));
+		
+		assertSame(listener1, FilterListenerIndex.getListener(FILTER1));
+		assertSame(listener2, FilterListenerIndex.getListener(FILTER2));
+		assertNull(FilterListenerIndex.getListener("someOtherFilter"));
+	}
+	
+	@Test
+	public void rebuild_shouldFailIfMultipleListenersSupportTheSameFilter() {
+		when(Context.getRegisteredComponents(DataFilterListener.class))
+		        .thenReturn(Stream.of(createListener(FILTER1), createListener(FILTER1)).collect(Collectors.toList()));
+		ee.expect(APIException.class);
+		ee.expectMessage("Found multiple listeners for the filter named " + FILTER1);
+		
+		FilterListenerIndex.rebuild();
+	}
+	
+	@Test
+	public void rebuild_shouldPickUpNewlyRegisteredListeners() {
+		when(Context.getRegisteredComponents(DataFilterListener.class)).thenReturn(Collections.emptyList());
+		assertNull(FilterListenerIndex.getListener(FILTER1));
+		DataFilterListener listener = createListener(FILTER1);
+		when(Context.getRegisteredComponents(DataFilterListener.class)).thenReturn(Collections.singletonList(listener));
+		
+		FilterListenerIndex.rebuild();
+		
+		assertSame(listener, FilterListenerIndex.getListener(FILTER1));
+	}
+	
+}
@@ -0,0 +1,114 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.Entity;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Mappings;
+import org.hibernate.engine.spi.FilterDefinition;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.mapping.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
+import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
+
+public class FilterMetadataContributorTest {
+	
+	private static final String FILTER_NAME = "myFilterName";
+	
+	private static final String CONDITION = "location_id IN (:locationIds)";
+	
+	@Entity
+	private static class AnnotatedEntity {}
+	
+	private static class XmlMappedEntity {}
+	
+	private Configuration cfg;
+	
+	private Mappings mappings;
+	
+	private RootClass persistentClass;
+	
+	@Before
+	public void setup() {
+		cfg = new Configuration();
+		mappings = cfg.createMappings();
+		persistentClass = new RootClass();
+		persistentClass.setEntityName(AnnotatedEntity.class.getName());
+		mappings.addClass(persistentClass);
+	}
+	
+	private List<HibernateFilterRegistration> createRegistrations(Class targetClass, String property) {
+		HibernateFilterRegistration registration = new HibernateFilterRegistration();
+		registration.setName(FILTER_NAME);
+		registration.setTargetClasses(Collections.singletonList(targetClass));
+		registration.setProperty(property);
+		registration.setCondition(CONDITION);
+		HibernateFilterParameter parameter = new HibernateFilterParameter();
+		parameter.setName("locationIds");
+		parameter.setType("integer");
+		registration.setParameters(Collections.singletonList(parameter));
+		return Collections.singletonList(registration);
+	}
+	
+	@Test
+	public void contribute_shouldAddTheFiltersOfClassesMappedWithAnnotationsToTheMappingMetadata() {
+		FilterMetadataContributor.contribute(cfg, createRegistrations(AnnotatedEntity.class, null));
+		
+		FilterDefinition filterDefinition = cfg.getFilterDefinitions().get(FILTER_NAME);
+		assertNotNull(filterDefinition);
+		assertNotNull(filterDefinition.getParameterType("locationIds"));
+		assertEquals(1, persistentClass.getFilters().size());
+		assertEquals(FILTER_NAME, persistentClass.getFilters().get(0).getName());
+		assertEquals(CONDITION, persistentClass.getFilters().get(0).getCondition());
+	}
+	
+	@Test
+	public void contribute_shouldNotAddTheSameFiltersAgain() {
+		List<HibernateFilterRegistration> registrations = createRegistrations(AnnotatedEntity.class, null);
+		FilterMetadataContributor.contribute(cfg, registrations);
+		
+		FilterMetadataContributor.contribute(cfg, registrations);
+		
+		assertEquals(1, cfg.getFilterDefinitions().size());
+		assertEquals(1, persistentClass.getFilters().size());
+	}
+	
+	@Test
+	public void contribute_shouldSkipClassesMappedWithXml() {
+		FilterMetadataContributor.contribute(cfg, createRegistrations(XmlMappedEntity.class, null));
+		
+		assertTrue(cfg.getFilterDefinitions().isEmpty());
+		assertTrue(persistentClass.getFilters().isEmpty());
+	}
+	
+	@Test
+	public void contribute_shouldAddTheFilterForAPropertyToTheCollectionMapping() {
+		Set collection = new Set(mappings, persistentClass);
+		collection.setRole(AnnotatedEntity.class.getName() + ".items");
+		mappings.addCollection(collection);
+		
+		FilterMetadataContributor.contribute(cfg, createRegistrations(AnnotatedEntity.class, "items"));
+		
+		assertEquals(1, collection.getFilters().size());
+		assertEquals(CONDITION, collection.getFilters().get(0).getCondition());
+		assertTrue(persistentClass.getFilters().isEmpty());
+	}
+	
+}
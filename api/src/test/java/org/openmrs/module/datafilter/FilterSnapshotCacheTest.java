@@ -0,0 +1,141 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.Privilege;
+import org.openmrs.Role;
+import org.openmrs.User;
+
+public class FilterSnapshotCacheTest {
+	
+	@Before
+	public void setup() {
+		FilterSnapshotCache.invalidate();
+	}
+	
+	private User createUser(Integer userId, String... roleNames) {
+		User user = new User(userId);
+		for (String roleName : roleNames) {
+			user.addRole(new Role(roleName));
+		}
+		
+		return user;
+	}
+	
+	@Test
+	public void get_shouldReturnTheCachedSnapshotForAMatchingKey() {
+		FilterSnapshot snapshot = new FilterSnapshot(Collections.emptyMap());
+		FilterSnapshotCache.put(FilterSnapshotCache.createKey(createUser(1, "Clerk")), snapshot);
+		long hits = FilterSnapshotCache.getHitCount();
+		
+		assertSame(snapshot, FilterSnapshotCache.get(FilterSnapshotCache.createKey(createUser(1, "Clerk"))));
+		assertEquals(hits + 1, FilterSnapshotCache.getHitCount());
+	}
+	
+	@Test
+	public void get_shouldReturnNullIfTheRolesOfTheUserChange() {
+		FilterSnapshotCache.put(FilterSnapshotCache.createKey(createUser(1, "Clerk")),
+		    new FilterSnapshot(Collections.emptyMap()));
+		long misses = FilterSnapshotCache.getMissCount();
+		
+		assertNull(FilterSnapshotCache.get(FilterSnapshotCache.createKey(createUser(1, "Clerk", "Nurse"))));
+		assertEquals(misses + 1, FilterSnapshotCache.getMissCount());
+	}
+	
+	@Test
+	public void get_shouldReturnNullIfTheRolePrivilegesChange() {
+		User user = createUser(1, "Clerk");
+		FilterSnapshotCache.put(FilterSnapshotCache.createKey(user), new FilterSnapshot(Collections.emptyMap()));
+		
+		user.getRoles().iterator().next().addPrivilege(new Privilege("datafilter_someFilter_ByPass"));
+		
+		assertNull(FilterSnapshotCache.get(FilterSnapshotCache.createKey(user)));
+	}
+	
+	@Test
+	public void invalidate_shouldChangeTheAssignmentVersionAndDiscardAllSnapshots() {
+		FilterSnapshotKey key = FilterSnapshotCache.createKey(createUser(1, "Clerk"));
+		FilterSnapshotCache.put(key, new FilterSnapshot(Collections.emptyMap()));
+		
+		FilterSnapshotCache.invalidate();
+		
+		assertEquals(0, FilterSnapshotCache.getSize());
+		assertNotEquals(key, FilterSnapshotCache.createKey(createUser(1, "Clerk")));
+	}
+	
+	@Test
+	public void clearFullText_shouldDiscardOnlyTheFullTextSnapshots() {
+		FilterSnapshotKey key = FilterSnapshotCache.createKey(createUser(1, "Clerk"));
+		FilterSnapshot snapshot = new FilterSnapshot(Collections.emptyMap());
+		FilterSnapshot fullTextSnapshot = new FilterSnapshot(Collections.emptyMap());
+		FilterSnapshotCache.put(key, snapshot);
+		FilterSnapshotCache.putFullText(key, PersonName.class, fullTextSnapshot);
+		assertSame(fullTextSnapshot, FilterSnapshotCache.getFullText(key, PersonName.class));
+		assertNull(FilterSnapshotCache.getFullText(key, PersonAttribute.class));
+		
+		FilterSnapshotCache.clearFullText();
+		
+		assertNull(FilterSnapshotCache.getFullText(key, PersonName.class));
+		assertSame(snapshot, FilterSnapshotCache.get(key));
+	}
+	
+	@Test
+	public void put_shouldEvictTheLeastRecentlyUsedSnapshotWhenTheMaximumSizeIsExceeded() {
+		long evictions = FilterSnapshotCache.getEvictionCount();
+		FilterSnapshotKey firstKey = FilterSnapshotCache.createKey(createUser(0));
+		for (int i = 0; i <= FilterSnapshotCache.MAX_SIZE; i++) {
+			FilterSnapshotCache.put(FilterSnapshotCache.createKey(createUser(i)), new FilterSnapshot(Collections.emptyMap()));
+		}
+		
+		assertEquals(FilterSnapshotCache.MAX_SIZE, FilterSnapshotCache.getSize());
+		assertEquals(evictions + 1, FilterSnapshotCache.getEvictionCount());
+		assertNull(FilterSnapshotCache.get(firstKey));
+	}
+	
+	@Test
+	public void filterSnapshot_shouldNotBeAffectedByChangesToTheParameterValuesPassedToIt() {
+		Collection<String> basisIds = new HashSet(Stream.of("1", "2").collect(Collectors.toSet()));
+		Map<String, Object> params = new HashMap();
+		params.put("basisIds", basisIds);
+		Map<String, Map<String, Object>> filterParamsMap = new LinkedHashMap();
+		filterParamsMap.put("filter1", params);
+		filterParamsMap.put("filter2", null);
+		
+		FilterSnapshot snapshot = new FilterSnapshot(filterParamsMap);
+		basisIds.add("3");
+		
+		assertTrue(snapshot.isEnabled("filter1"));
+		assertTrue(snapshot.isEnabled("filter2"));
+		assertFalse(snapshot.isEnabled("filter3"));
+		assertEquals(2, ((Collection) snapshot.getParameters("filter1").get("basisIds")).size());
+		assertTrue(snapshot.getParameters("filter2").isEmpty());
+	}
+	
+}
@@ -16,18 +16,23 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.hibernate.search.FullTextQuery;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.openmrs.PersonAttribute;
 import org.openmrs.PersonName;
+import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.FullTextQueryAndEntityClass;
 import org.openmrs.api.db.FullTextQueryCreatedEvent;
@@ -42,8 +47,22 @@ public class FullTextQueryCreatedEventListenerTest {
 	@Mock
 	private FullTextQuery fullTextQuery;
 	
+	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
+		FilterSnapshotCache.invalidate();
+	}
+	
+	private List<FullTextFilterRegistration> createRegistrations(Class clazz, String... filterNames) {
+		List<FullTextFilterRegistration> registrations = new ArrayList();
+		for (String filterName : filterNames) {
+			FullTextFilterRegistration registration = new FullTextFilterRegistration();
+			registration.setName(filterName);
+			registration.setTargetClasses(Collections.singletonList(clazz));
+			registrations.add(registration);
+		}
+		
+		return registrations;
 	}
 	
 	@Test
@@ -63,6 +82,7 @@ public class FullTextQueryCreatedEventListenerTest {
 		when(Util.getFullTextFilterRegistrations()).thenReturn(filters);
 		when(Util.skipFilter(anyString())).thenCallRealMethod();
 		when(Context.isAuthenticated()).thenReturn(true);
+		when(Context.getAuthenticatedUser()).thenReturn(new User(1));
 		when(Context.hasPrivilege(eq(filter1 + DataFilterConstants.BYPASS_PRIV_SUFFIX))).thenReturn(true);
 		
 		new FullTextQueryCreatedEventListener()
@@ -72,4 +92,38 @@ public class FullTextQueryCreatedEventListenerTest {
 		verify(fullTextQuery, times(1)).enableFullTextFilter(eq(filter2));
 	}
 	
+	@Test
+	public void onApplicationEvent_shouldReuseTheCachedFilterSnapshotForTheSameUserAndEntityClass() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		final String filter1 = "filter1";
+		final Class clazz = PersonName.class;
+		when(Util.getFullTextFilterRegistrations()).thenReturn(createRegistrations(clazz, filter1));
+		when(Context.isAuthenticated()).thenReturn(true);
+		when(Context.getAuthenticatedUser()).thenReturn(new User(1));
+		FullTextQueryCreatedEventListener listener = new FullTextQueryCreatedEventListener();
+		
+		listener.onApplicationEvent(new FullTextQueryCreatedEvent(new FullTextQueryAndEntityClass(fullTextQuery, clazz)));
+		listener.onApplicationEvent(new FullTextQueryCreatedEvent(new FullTextQueryAndEntityClass(fullTextQuery, clazz)));
+		
+		verify(fullTextQuery, times(2)).enableFullTextFilter(eq(filter1));
+		verifyStatic(times(1));
+		Util.skipFilter(eq(filter1));
+	}
+	
+	@Test
+	public void onApplicationEvent_shouldSkipEntityClassesThatAreNotFiltered() {
+		mockStatic(Util.class);
+		mockStatic(Context.class);
+		final String filter1 = "filter1";
+		when(Util.getFullTextFilterRegistrations()).thenReturn(createRegistrations(PersonName.class, filter1));
+		
+		new FullTextQueryCreatedEventListener().onApplicationEvent(
+		    new FullTextQueryCreatedEvent(new FullTextQueryAndEntityClass(fullTextQuery, PersonAttribute.class)));
+		
+		verify(fullTextQuery, never()).enableFullTextFilter(anyString());
+		verifyStatic(never());
+		Util.skipFilter(anyString());
+	}
+	
 }
@@ -9,24 +9,32 @@
  */
 package org.openmrs.module.datafilter;
 
+import static org.hibernate.search.cfg.Environment.MODEL_MAPPING;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 import static org.openmrs.module.datafilter.DataFilterConstants.BYPASS_PRIV_SUFFIX;
+import static org.openmrs.module.datafilter.DataFilterConstants.DISABLED;
 import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
 import static org.openmrs.module.datafilter.Util.getDocumentBuilder;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
-import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -36,9 +44,11 @@ import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.annotations.FilterDef;
+import org.hibernate.cfg.Environment;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -47,13 +57,14 @@ import org.openmrs.EncounterType;
 import org.openmrs.Location;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.db.AdministrationDAO;
-import org.openmrs.module.datafilter.annotations.FilterDefAnnotation;
+import org.openmrs.module.datafilter.registration.DialectCondition;
 import org.openmrs.module.datafilter.registration.HibernateFilterParameter;
 import org.openmrs.module.datafilter.registration.HibernateFilterRegistration;
 import org.openmrs.util.OpenmrsClassLoader;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 import org.w3c.dom.Document;
 
 @RunWith(PowerMockRunner.class)
@@ -79,6 +90,9 @@ public class UtilTest {
 	@Mock
 	private AdministrationDAO adminDAO;
 	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
 	public static String getAttribute(Object document, String path, String attribute) throws XPathExpressionException {
 		return xpath.compile(path + "/@" + attribute).evaluate(document);
 	}
@@ -99,28 +113,17 @@ public class UtilTest {
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
-	}
-	
-	@Test
-	public void addAnnotationToClass_shouldAddTheSpecifiedAnnotationToTheSpecifiedClass()
-	    throws ReflectiveOperationException {
-		Class<? extends Annotation> annotationClass = FilterDef.class;
-		Class<?> clazz = Concept.class;
-		assertFalse(clazz.isAnnotationPresent(annotationClass));
-		
-		Util.addAnnotationToClass(clazz, new FilterDefAnnotation("some name", null, null));
-		
-		assertTrue(clazz.isAnnotationPresent(annotationClass));
+		GlobalPropertyCache.clear();
 	}
 	
 	@Test
 	public void loadHibernateFilterRegistrations_shouldLoadAllHibernateFilterRegistrations() {
-		assertEquals(15, Util.getHibernateFilterRegistrations().size());
+		assertEquals(23, Util.getHibernateFilterRegistrations().size());
 	}
 	
 	@Test
 	public void loadFullTextFilterRegistrations_shouldLoadAllFullTextFilterRegistrations() {
-		assertEquals(1, Util.getFullTextFilterRegistrations().size());
+		assertEquals(2, Util.getFullTextFilterRegistrations().size());
 	}
 	
 	@Test
@@ -131,6 +134,21 @@ public class UtilTest {
 		assertNull(Util.getMappingResource(TEST_HIBERNATE_CFG_FILE, Concept.class.getName()));
 	}
 	
+	@Test
+	public void getMappedClassNames_shouldReturnTheMappedClassNamesOfTheSpecifiedHbmFiles() {
+		Map<String, String> hbmClassNames = Util
+		        .getMappedClassNames(Arrays.asList(TEST_LOCATION_HBM_FILE, "testEncounterType.hbm.xml"));
+		
+		assertEquals(2, hbmClassNames.size());
+		assertEquals(Location.class.getName(), hbmClassNames.get(TEST_LOCATION_HBM_FILE));
+		assertEquals(EncounterType.class.getName(), hbmClassNames.get("testEncounterType.hbm.xml"));
+	}
+	
+	@Test
+	public void getMappedClassName_shouldReturnNullForAFileThatDoesNotMapAClass() {
+		assertNull(Util.getMappedClassName(TEST_HIBERNATE_CFG_FILE));
+	}
+	
 	@Test
 	public void addFilterToMappingResource_shouldAddTheFilterToTheMappingResourceName() throws Exception {
 		final String filterName = "myFilterName";
@@ -186,6 +204,56 @@ public class UtilTest {
 		assertTrue(StringUtils.isBlank(getAttribute(updatedResource, PATH_FILTER, "condition")));
 	}
 	
+	@Test
+	public void addFiltersToMappingResource_shouldAddAllTheFiltersAndKeepTheDoctype() throws Exception {
+		HibernateFilterRegistration filterReg1 = new HibernateFilterRegistration();
+		filterReg1.setName("myFilterName1");
+		filterReg1.setCondition("location_id > 5");
+		HibernateFilterRegistration filterReg2 = new HibernateFilterRegistration();
+		filterReg2.setName("myFilterName2");
+		filterReg2.setCondition("location_id < 10");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(TEST_LOCATION_HBM_FILE);
+		
+		Util.addFiltersToMappingResource(in, out, Arrays.asList(filterReg1, filterReg2));
+		
+		Document updatedResource = getDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+		assertNotNull(updatedResource.getDoctype());
+		assertEquals(2, getCount(updatedResource, PATH_FILTER_DEF));
+		assertEquals(2, getCount(updatedResource, PATH_FILTER));
+		assertTrue(elementExists(updatedResource, PATH_FILTER, "name", filterReg1.getName()));
+		assertTrue(elementExists(updatedResource, PATH_FILTER, "condition", filterReg2.getCondition()));
+	}
+	
+	@Test
+	public void createNewMappingFile_shouldReuseTheCachedFileCreatedFromTheSameMappingAndFilters() throws Exception {
+		File cacheDir = temporaryFolder.newFolder();
+		Whitebox.setInternalState(Util.class, "mappingCacheDirectory", cacheDir);
+		try {
+			HibernateFilterRegistration filterReg = new HibernateFilterRegistration();
+			filterReg.setName("myFilterName");
+			filterReg.setCondition("location_id > 5");
+			List<HibernateFilterRegistration> filterRegs = Collections.singletonList(filterReg);
+			Util.createNewMappingFile(TEST_LOCATION_HBM_FILE, filterRegs, temporaryFolder.newFolder());
+			File[] cachedFiles = cacheDir.listFiles();
+			assertEquals(1, cachedFiles.length);
+			final String marker = "<!-- cached -->";
+			FileUtils.writeStringToFile(cachedFiles[0], marker, StandardCharsets.UTF_8);
+			
+			File mappingFile = Util.createNewMappingFile(TEST_LOCATION_HBM_FILE, filterRegs, temporaryFolder.newFolder());
+			assertEquals(marker, FileUtils.readFileToString(mappingFile, StandardCharsets.UTF_8));
+			
+			filterReg.setCondition("location_id > 6");
+			mappingFile = Util.createNewMappingFile(TEST_LOCATION_HBM_FILE, filterRegs, temporaryFolder.newFolder());
+			Document updatedResource = getDocumentBuilder().parse(mappingFile);
+			assertEquals("location_id > 6", getAttribute(updatedResource, PATH_FILTER, "condition"));
+			assertEquals(1, cacheDir.listFiles().length);
+		}
+		finally {
+			Whitebox.setInternalState(Util.class, "mappingCacheDirectory", (Object) null);
+		}
+	}
+	
 	@Test
 	public void updateResourceLocation_shouldReplaceMappingResourceLocationsWithFileLocations() throws Exception {
 		mockStatic(FileUtils.class);
@@ -203,6 +271,64 @@ public class UtilTest {
 		assertTrue(elementExists(updatedCfg, PATH_MAPPING, "resource", TEST_ENC_TYPE_HBM_FILE));
 	}
 	
+	@Test
+	public void addFiltersToMappingResource_shouldUseTheConditionForTheConfiguredDialect() throws Exception {
+		final String variantCondition = "EXISTS (SELECT 1 FROM location_tag_map datafilter_ltm)";
+		HibernateFilterRegistration filterReg = new HibernateFilterRegistration();
+		filterReg.setName("myFilterName");
+		filterReg.setCondition("location_id > 5");
+		DialectCondition dialectCondition = new DialectCondition();
+		dialectCondition.setDbms("mysql,postgresql");
+		dialectCondition.setCondition(variantCondition);
+		filterReg.setDialectConditions(Collections.singletonList(dialectCondition));
+		Properties props = new Properties();
+		props.setProperty(Environment.DIALECT, "org.hibernate.dialect.MySQL5InnoDBDialect");
+		mockStatic(Context.class);
+		when(Context.getRuntimeProperties()).thenReturn(props);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(TEST_LOCATION_HBM_FILE);
+		
+		Util.addFiltersToMappingResource(in, out, Collections.singletonList(filterReg));
+		
+		Document updatedResource = getDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(variantCondition, getAttribute(updatedResource, PATH_FILTER, "condition"));
+	}
+	
+	@Test
+	public void initializeFilters_shouldKeepAnExistingSearchMappingAndRestoreItWhenTheFilterPropertiesAreRemoved() {
+		final String existingFactory = "org.openmrs.module.custom.CustomSearchMappingFactory";
+		Properties configProps = new Properties();
+		configProps.put(MODEL_MAPPING, existingFactory);
+		mockStatic(Context.class);
+		when(Context.getConfigProperties()).thenReturn(configProps);
+		when(Context.getRuntimeProperties()).thenReturn(new Properties());
+		
+		Util.initializeFilters();
+		
+		verifyStatic();
+		Context.addConfigProperty(MODEL_MAPPING, FullTextFilterMappingFactory.class.getName());
+		assertEquals(existingFactory, Whitebox.getInternalState(FullTextFilterMappingFactory.class, "baseMapping"));
+		
+		Util.removeFilterConfigProperties();
+		
+		verifyStatic();
+		Context.addConfigProperty(MODEL_MAPPING, existingFactory);
+		verifyStatic();
+		Context.removeConfigProperty(Environment.CURRENT_SESSION_CONTEXT_CLASS);
+		assertNull(Whitebox.getInternalState(FullTextFilterMappingFactory.class, "baseMapping"));
+	}
+	
+	@Test
+	public void getDialect_shouldReturnTheJdbcUrlIfNoDialectIsSet() {
+		final String url = "jdbc:postgresql://localhost:5432/openmrs";
+		Properties props = new Properties();
+		props.setProperty("connection.url", url);
+		mockStatic(Context.class);
+		when(Context.getRuntimeProperties()).thenReturn(props);
+		
+		assertEquals(url, Util.getDialect());
+	}
+	
 	@Test
 	public void isFilterDisabled_shouldReturnFalseIfTheDisableGPForTheFilterIsNotSet() {
 		mockStatic(Context.class);
@@ -215,7 +341,7 @@ public class UtilTest {
 	public void isFilterDisabled_shouldReturnFalseIfTheDisableGPForTheFilterIsSetToFalse() {
 		mockStatic(Context.class);
 		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
-		List<List<Object>> expectedRows = Collections.singletonList(Collections.singletonList("false"));
+		List<List<Object>> expectedRows = Collections.singletonList(Arrays.asList("someFilter" + DISABLED, "false"));
 		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
 		assertFalse(Util.isFilterDisabled("someFilter"));
 	}
@@ -224,7 +350,7 @@ public class UtilTest {
 	public void isFilterDisabled_shouldReturnTrueIfTheDisableGPForTheFilterISetToTrue() {
 		mockStatic(Context.class);
 		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
-		List<List<Object>> expectedRows = Collections.singletonList(Collections.singletonList("true"));
+		List<List<Object>> expectedRows = Collections.singletonList(Arrays.asList("someFilter" + DISABLED, "true"));
 		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
 		assertTrue(Util.isFilterDisabled("someFilter"));
 	}
@@ -240,7 +366,7 @@ public class UtilTest {
 	public void skipFilter_shouldReturnTrueIfTheFilterIsDisabled() {
 		mockStatic(Context.class);
 		when(Context.getRegisteredComponent("adminDAO", AdministrationDAO.class)).thenReturn(adminDAO);
-		List<List<Object>> expectedRows = Collections.singletonList(Collections.singletonList("true"));
+		List<List<Object>> expectedRows = Collections.singletonList(Arrays.asList("someFilter" + DISABLED, "true"));
 		when(adminDAO.executeSQL(anyString(), eq(true))).thenReturn(expectedRows);
 		final String filterName = "someFilter";
 		assertTrue(Util.skipFilter(filterName));
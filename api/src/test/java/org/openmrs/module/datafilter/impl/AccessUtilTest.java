@@ -10,13 +10,21 @@
 package org.openmrs.module.datafilter.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.EncounterType;
 import org.openmrs.Location;
+import org.openmrs.Patient;
 import org.openmrs.Program;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.TestConstants;
@@ -84,12 +92,70 @@ public class AccessUtilTest extends BaseFilterTest {
 		assertTrue(patientIds.contains("1003"));
 	}
 	
+	@Test
+	public void getAccessiblePersonIdSet_shouldReturnTheCachedIdsUntilTheAssignmentsOrPatientLinksChange() {
+		reloginAs("dyorke", "test");
+		IntSet patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		assertEquals(1, patientIds.size());
+		assertTrue(patientIds.contains(1001));
+		assertSame(patientIds, AccessUtil.getAccessiblePersonIdSet(Location.class));
+		
+		service.grantAccess(Context.getAuthenticatedUser(), new Location(4001));
+		patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		assertEquals(3, patientIds.size());
+		assertTrue(patientIds.contains(1002));
+		assertTrue(patientIds.contains(1003));
+		
+		service.revokeAccess(new Patient(1003), new Location(4002));
+		Context.flushSession();
+		patientIds = AccessUtil.getAccessiblePersonIdSet(Location.class);
+		assertEquals(2, patientIds.size());
+		assertFalse(patientIds.contains(1003));
+	}
+	
 	@Test
 	public void getViewPrivilege_shouldReturnTheTheEncounterViewPrivilege() {
 		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "privilegedEncounters.xml");
 		assertEquals("Manage Chemo Patients", AccessUtil.getViewPrivilege(5000));
 	}
 	
+	@Test
+	public void getViewPrivilege_shouldReturnTheNewViewPrivilegeWhenTheEncounterTypeIsChanged() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "privilegedEncounters.xml");
+		assertEquals("Manage Chemo Patients", AccessUtil.getViewPrivilege(5000));
+		EncounterType encounterType = Context.getEncounterService().getEncounterType(5000);
+		encounterType.setViewPrivilege(null);
+		Context.getEncounterService().saveEncounterType(encounterType);
+		Context.flushSession();
+		
+		assertNull(AccessUtil.getViewPrivilege(5000));
+	}
+	
+	@Test
+	public void getViewableEncounterTypeIds_shouldReturnTheEncounterTypesTheUserHasTheViewPrivilegeFor() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "privilegedEncounters.xml");
+		reloginAs("dBeckham", "test");
+		Set<Integer> encounterTypeIds = AccessUtil.getViewableEncounterTypeIds(Context.getAuthenticatedUser());
+		assertTrue(encounterTypeIds.contains(1));
+		assertFalse(encounterTypeIds.contains(5000));
+		
+		DataFilterTestUtils.addPrivilege("Manage Chemo Patients");
+		encounterTypeIds = AccessUtil.getViewableEncounterTypeIds(Context.getAuthenticatedUser());
+		assertTrue(encounterTypeIds.contains(1));
+		assertTrue(encounterTypeIds.contains(5000));
+	}
+	
+	@Test
+	public void getEncounterTypeIdsForEncounters_shouldReturnTheEncounterTypeIdsOfTheSpecifiedEncounters() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "privilegedEncounters.xml");
+		Map<Integer, Integer> encIdAndTypeIdMap = AccessUtil.getEncounterTypeIdsForEncounters(Arrays.asList(1, 2001));
+		assertEquals(2, encIdAndTypeIdMap.size());
+		assertEquals(Integer.valueOf(5000), encIdAndTypeIdMap.get(2001));
+		for (Map.Entry<Integer, Integer> entry : encIdAndTypeIdMap.entrySet()) {
+			assertEquals(entry.getValue(), AccessUtil.getEncounterTypeId(entry.getKey()));
+		}
+	}
+	
 	@Test
 	public void getAllProgramRoles_shouldReturnAllTheProgramRelatedRoles() {
 		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "persons.xml");
@@ -15,11 +15,15 @@ import static org.junit.Assert.assertTrue;
 import java.util.Collection;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.module.datafilter.TestConstants;
 import org.openmrs.module.datafilter.impl.api.DataFilterService;
 import org.openmrs.test.TestUtil;
@@ -33,6 +37,9 @@ public class EncounterLocationBasedFilterTest extends BaseFilterTest {
 	@Autowired
 	private DataFilterService service;
 	
+	@Rule
+	public ExpectedException ee = ExpectedException.none();
+	
 	@Before
 	public void before() {
 		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "encounters.xml");
@@ -91,4 +98,46 @@ public class EncounterLocationBasedFilterTest extends BaseFilterTest {
 		assertEquals(expCount, encounterService.getEncounters(name, 0, Integer.MAX_VALUE, false).size());
 	}
 	
+	@Test
+	public void getEncounters_shouldReturnEncountersRecordedAtLocationsAccessibleToTheUserInEncounterLocationMode() {
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(ImplConstants.GP_ENCOUNTER_LOCATION_MODE_ENABLED, "true"));
+		//The patient is still linked to a location accessible to the user but the encounter is recorded elsewhere
+		Context.getAdministrationService().executeSQL("UPDATE encounter SET location_id = 4001 WHERE encounter_id = 1001",
+		    false);
+		reloginAs("dyorke", "test");
+		final String name = "Navuga";
+		int expCount = 1;
+		assertEquals(expCount, encounterService.getCountOfEncounters(name, false).intValue());
+		Collection<Encounter> encounters = encounterService.getEncounters(name, 0, Integer.MAX_VALUE, false);
+		assertEquals(expCount, encounters.size());
+		assertTrue(TestUtil.containsId(encounters, 1000));
+	}
+	
+	@Test
+	public void getEncounter_shouldFailInEncounterLocationModeIfTheEncounterIsRecordedAtALocationTheUserCannotAccess() {
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(ImplConstants.GP_ENCOUNTER_LOCATION_MODE_ENABLED, "true"));
+		//The patient is still linked to a location accessible to the user but the encounter is recorded elsewhere
+		Context.getAdministrationService().executeSQL("UPDATE encounter SET location_id = 4001 WHERE encounter_id = 1001",
+		    false);
+		reloginAs("dyorke", "test");
+		ee.expect(ContextAuthenticationException.class);
+		ee.expectMessage(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+		
+		encounterService.getEncounter(1001);
+	}
+	
+	@Test
+	public void getEncounter_shouldFailIfTheUserCannotAccessTheLoadedEncounterWhenVerificationIsDeferred() {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(ImplConstants.GP_STRICT_MODE_VERIFICATION, ImplConstants.STRICT_MODE_VERIFICATION_DEFERRED));
+		reloginAs("dyorke", "test");
+		assertTrue(TestUtil.containsId(encounterService.getEncounters("Navuga", 0, Integer.MAX_VALUE, false), 1000));
+		ee.expect(ContextAuthenticationException.class);
+		ee.expectMessage(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE);
+		
+		encounterService.getEncounter(1002);
+	}
+	
 }
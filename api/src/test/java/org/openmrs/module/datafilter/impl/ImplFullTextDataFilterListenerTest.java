@@ -0,0 +1,107 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.search.Filter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.datafilter.FullTextDataFilterContext;
+import org.openmrs.module.datafilter.TestConstants;
+import org.openmrs.module.datafilter.impl.api.DataFilterService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class ImplFullTextDataFilterListenerTest extends BaseFilterTest {
+	
+	private static final String FILTER_NAME = ImplConstants.LOCATION_BASED_FULL_TEXT_FILTER_NAME_PATIENT;
+	
+	@Autowired
+	private ImplFullTextDataFilterListener listener;
+	
+	@Autowired
+	private DataFilterService service;
+	
+	@Before
+	public void before() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "patients.xml");
+		Context.getAdministrationService().setGlobalProperty(ImplConstants.GP_FULL_TEXT_LOCATION_INDEX_VERSION,
+		    ImplConstants.FULL_TEXT_LOCATION_INDEX_VERSION);
+	}
+	
+	@After
+	public void after() {
+		FullTextFilterCache.clear();
+	}
+	
+	private FullTextDataFilterContext enableFilter(Class<?> implClass, Map<String, Object> params) {
+		Map<String, Map<String, Object>> filterParamsMap = new HashMap();
+		filterParamsMap.put(FILTER_NAME, params);
+		FullTextDataFilterContext filterContext = new FullTextDataFilterContext(FILTER_NAME, filterParamsMap,
+		        PersonName.class, implClass);
+		assertTrue(listener.onEnableFilter(filterContext));
+		return filterContext;
+	}
+	
+	private Filter getDocValuesFilter(String accessKey) {
+		PatientIdDocValuesFullTextFilter fullTextFilter = new PatientIdDocValuesFullTextFilter();
+		fullTextFilter.setAccessKey(accessKey);
+		return fullTextFilter.getFilter();
+	}
+	
+	@Test
+	public void onEnableFilter_shouldKeyThePatientIdDocValuesFilterByThePatientLinks() {
+		reloginAs("dyorke", "test");
+		Map<String, Object> params = new HashMap();
+		FullTextDataFilterContext filterContext = enableFilter(PatientIdDocValuesFullTextFilter.class, params);
+		assertFalse(params.containsKey("locationIds"));
+		assertEquals(AccessiblePersonCache.getGeneration(), filterContext.getGeneration());
+		String accessKey = params.get("accessKey").toString();
+		Filter filter = getDocValuesFilter(accessKey);
+		
+		//A patient gets linked to a location accessible to the user between two searches
+		service.grantAccess(new Patient(1502), new Location(4000));
+		
+		assertNotEquals(filterContext.getGeneration(), filterContext.getGenerationSource().getAsLong());
+		Map<String, Object> newParams = new HashMap();
+		enableFilter(PatientIdDocValuesFullTextFilter.class, newParams);
+		String newAccessKey = newParams.get("accessKey").toString();
+		assertNotEquals(accessKey, newAccessKey);
+		assertNotSame(filter, getDocValuesFilter(newAccessKey));
+	}
+	
+	@Test
+	public void onEnableFilter_shouldNotKeyTheLocationIdFilterByThePatientLinks() {
+		reloginAs("dyorke", "test");
+		Map<String, Object> params = new HashMap();
+		FullTextDataFilterContext filterContext = enableFilter(LocationIdFullTextFilter.class, params);
+		assertNull(filterContext.getGenerationSource());
+		
+		service.grantAccess(new Patient(1502), new Location(4000));
+		
+		Map<String, Object> newParams = new HashMap();
+		enableFilter(LocationIdFullTextFilter.class, newParams);
+		assertEquals(params.get("accessKey"), newParams.get("accessKey"));
+	}
+	
+}
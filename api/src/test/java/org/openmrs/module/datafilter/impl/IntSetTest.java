@@ -0,0 +1,69 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IntSetTest {
+	
+	@Test
+	public void contains_shouldReturnTrueOnlyForTheValuesInTheSet() {
+		IntSet set = new IntSet(new int[] { 3, 1001, -7, 65536 });
+		assertTrue(set.contains(3));
+		assertTrue(set.contains(1001));
+		assertTrue(set.contains(-7));
+		assertTrue(set.contains(65536));
+		assertFalse(set.contains(4));
+		assertFalse(set.contains(0));
+		assertFalse(set.contains(1000));
+	}
+	
+	@Test
+	public void contains_shouldSupportZero() {
+		assertTrue(new IntSet(new int[] { 0 }).contains(0));
+		assertFalse(IntSet.EMPTY.contains(0));
+	}
+	
+	@Test
+	public void contains_shouldFindAllValuesInALargeSet() {
+		int[] values = new int[100000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 2 + 1;
+		}
+		
+		IntSet set = new IntSet(values);
+		assertEquals(values.length, set.size());
+		for (int i = 0; i < values.length; i++) {
+			assertTrue(set.contains(i * 2 + 1));
+			assertFalse(set.contains(i * 2 + 2));
+		}
+	}
+	
+	@Test
+	public void size_shouldIgnoreDuplicates() {
+		IntSet set = new IntSet(new int[] { 5, 5, 0, 0, 9 });
+		assertEquals(3, set.size());
+		assertFalse(set.isEmpty());
+		assertTrue(IntSet.EMPTY.isEmpty());
+	}
+	
+	@Test
+	public void toArray_shouldReturnTheValuesSortedInAscendingOrder() {
+		int[] values = new IntSet(new int[] { 65536, 5, 0, -7, 5, 1001 }).toArray();
+		assertArrayEquals(new int[] { -7, 0, 5, 1001, 65536 }, values);
+		assertEquals(0, IntSet.EMPTY.toArray().length);
+	}
+	
+}
@@ -0,0 +1,91 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LocationHierarchyTest {
+	
+	/**
+	 * <pre>
+	 * 1
+	 * |-- 2
+	 * |   |-- 4
+	 * |   `-- 5
+	 * |       `-- 7
+	 * `-- 3
+	 * 6
+	 * </pre>
+	 */
+	private LocationHierarchy createHierarchy() {
+		return new LocationHierarchy(new int[] { 7, 5, 4, 3, 2, 1, 6 }, new Integer[] { 5, 2, 2, 1, 1, null, null });
+	}
+	
+	private int[] sorted(int[] ids) {
+		int[] copy = ids.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+	
+	@Test
+	public void getSelfAndDescendantIds_shouldReturnTheLocationsAndAllTheirDescendants() {
+		LocationHierarchy hierarchy = createHierarchy();
+		
+		assertArrayEquals(new int[] { 1, 2, 4, 5, 7, 3 }, hierarchy.getSelfAndDescendantIds(new int[] { 1 }));
+		assertArrayEquals(new int[] { 5, 7 }, hierarchy.getSelfAndDescendantIds(new int[] { 5 }));
+		assertArrayEquals(new int[] { 3, 6 }, hierarchy.getSelfAndDescendantIds(new int[] { 6, 3 }));
+		assertArrayEquals(new int[] { 7 }, hierarchy.getSelfAndDescendantIds(new int[] { 7 }));
+	}
+	
+	@Test
+	public void getSelfAndDescendantIds_shouldIncludeEachLocationOnceForOverlappingLocations() {
+		LocationHierarchy hierarchy = createHierarchy();
+		
+		int[] ids = hierarchy.getSelfAndDescendantIds(new int[] { 2, 1, 5 });
+		
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 7 }, sorted(ids));
+	}
+	
+	@Test
+	public void getSelfAndDescendantIds_shouldIgnoreLocationsThatDoNotExist() {
+		LocationHierarchy hierarchy = createHierarchy();
+		
+		assertEquals(0, hierarchy.getSelfAndDescendantIds(new int[] { 100 }).length);
+		assertArrayEquals(new int[] { 4 }, hierarchy.getSelfAndDescendantIds(new int[] { 100, 4 }));
+	}
+	
+	@Test
+	public void isDescendant_shouldReturnTrueOnlyForDescendantsAtAnyLevel() {
+		LocationHierarchy hierarchy = createHierarchy();
+		
+		assertTrue(hierarchy.isDescendant(1, 7));
+		assertTrue(hierarchy.isDescendant(2, 4));
+		assertFalse(hierarchy.isDescendant(2, 3));
+		assertFalse(hierarchy.isDescendant(7, 1));
+		assertFalse(hierarchy.isDescendant(1, 1));
+		assertFalse(hierarchy.isDescendant(1, 6));
+	}
+	
+	@Test
+	public void shouldIncludeLocationsWhoseAncestorsFormACycle() {
+		LocationHierarchy hierarchy = new LocationHierarchy(new int[] { 1, 2, 3 }, new Integer[] { 2, 1, 1 });
+		
+		assertEquals(3, hierarchy.size());
+		assertArrayEquals(new int[] { 1, 2, 3 }, sorted(hierarchy.getSelfAndDescendantIds(new int[] { 1 })));
+	}
+	
+}
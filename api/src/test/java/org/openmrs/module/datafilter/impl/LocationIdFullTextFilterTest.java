@@ -0,0 +1,60 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.lucene.search.Filter;
+import org.hibernate.search.annotations.Analyze;
+import org.hibernate.search.annotations.ClassBridge;
+import org.junit.After;
+import org.junit.Test;
+
+public class LocationIdFullTextFilterTest {
+	
+	@After
+	public void afterEachMethod() {
+		FullTextFilterCache.clear();
+	}
+	
+	private Filter getFilter(String accessKey, Collection<String> locationIds) {
+		LocationIdFullTextFilter fullTextFilter = new LocationIdFullTextFilter();
+		fullTextFilter.setAccessKey(accessKey);
+		fullTextFilter.setLocationIds(locationIds);
+		return fullTextFilter.getFilter();
+	}
+	
+	@Test
+	public void getFilter_shouldReturnTheCachedFilterForTheSameAccessKey() {
+		Collection<String> locationIds = Arrays.asList("4000", "4001");
+		final String accessKey = FullTextFilterCache.createAccessKey(1, locationIds);
+		Filter filter = getFilter(accessKey, locationIds);
+		assertSame(filter, getFilter(accessKey, locationIds));
+		assertSame(filter, FullTextFilterCache.get(ImplConstants.FULL_TEXT_LOCATION_FIELD, accessKey));
+		
+		Collection<String> otherLocationIds = Arrays.asList("4000");
+		final String otherAccessKey = FullTextFilterCache.createAccessKey(1, otherLocationIds);
+		assertNotSame(filter, getFilter(otherAccessKey, otherLocationIds));
+	}
+	
+	@Test
+	public void shouldCarryTheClassBridgeThatAddsTheLocationIdsToTheIndexedDocuments() {
+		ClassBridge classBridge = LocationIdFullTextFilter.class.getAnnotation(ClassBridge.class);
+		assertEquals(ImplConstants.FULL_TEXT_LOCATION_FIELD, classBridge.name());
+		assertEquals(PatientLocationFieldBridge.class, classBridge.impl());
+		assertEquals(Analyze.NO, classBridge.analyze());
+	}
+	
+}
@@ -0,0 +1,104 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Test;
+
+public class PatientIdDocValuesFilterTest {
+	
+	private static final String FIELD = ImplConstants.FULL_TEXT_PATIENT_ID_FIELD;
+	
+	@After
+	public void afterEachMethod() {
+		FullTextFilterCache.clear();
+	}
+	
+	private Set<String> getMatchingNames(Filter filter, Integer... patientIds) throws IOException {
+		Directory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()))) {
+			for (Integer patientId : patientIds) {
+				Document document = new Document();
+				document.add(new StringField("name", "name" + patientId, Field.Store.YES));
+				if (patientId != null) {
+					document.add(new NumericDocValuesField(FIELD, patientId));
+				}
+				writer.addDocument(document);
+			}
+		}
+		
+		Set<String> names = new HashSet();
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			for (LeafReaderContext context : reader.leaves()) {
+				DocIdSet docIdSet = filter.getDocIdSet(context, context.reader().getLiveDocs());
+				if (docIdSet == null) {
+					continue;
+				}
+				
+				DocIdSetIterator iterator = docIdSet.iterator();
+				for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+					names.add(context.reader().document(doc).get("name"));
+				}
+			}
+		}
+		
+		return names;
+	}
+	
+	@Test
+	public void getDocIdSet_shouldMatchOnlyTheDocumentsOfTheSpecifiedPatients() throws IOException {
+		Filter filter = new PatientIdDocValuesFilter(FIELD, new int[] { 2, 5, 1000 });
+		
+		Set<String> names = getMatchingNames(filter, 1, 2, 3, 5, 1000, 1001, null);
+		
+		assertEquals(new HashSet(Arrays.asList("name2", "name5", "name1000")), names);
+	}
+	
+	@Test
+	public void getDocIdSet_shouldMatchNoDocumentsIfNoPatientIdsAreSpecified() throws IOException {
+		assertEquals(0, getMatchingNames(new PatientIdDocValuesFilter(FIELD, new int[0]), 1, 2, null).size());
+	}
+	
+	@Test
+	public void getFilter_shouldReturnTheCachedFilterForTheSameAccessKey() {
+		PatientIdDocValuesFullTextFilter fullTextFilter = new PatientIdDocValuesFullTextFilter();
+		fullTextFilter.setPatientIds(new IntSet(new int[] { 7 }));
+		fullTextFilter.setAccessKey("1:0:4000");
+		Filter filter = fullTextFilter.getFilter();
+		
+		assertSame(filter, fullTextFilter.getFilter());
+		fullTextFilter.setAccessKey("1:0:4001");
+		assertNotSame(filter, fullTextFilter.getFilter());
+	}
+	
+}
@@ -0,0 +1,129 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Compares the time it takes {@link TermsFilter} as used by {@link PatientIdFullTextFilter} and
+ * {@link PatientIdDocValuesFilter} to build the set of matching documents for the same patient ids,
+ * the filters are created for every run because that is the cost paid each time the cached filters
+ * are discarded.
+ *
+ * <pre>
+ * Run it with the test classpath, the optional arguments are the number of indexed patients and the
+ * number of accessible patients e.g. PatientIdFilterBenchmark 200000 50000
+ * </pre>
+ */
+public class PatientIdFilterBenchmark {
+	
+	private static final String STRING_FIELD = "person.personId";
+	
+	private static final String NUMERIC_FIELD = ImplConstants.FULL_TEXT_PATIENT_ID_FIELD;
+	
+	private static final int WARM_UP_RUNS = 5;
+	
+	private static final int RUNS = 20;
+	
+	public static void main(String[] args) throws IOException {
+		final int patientCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int accessibleCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		
+		Directory directory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()))) {
+			for (int id = 1; id <= patientCount; id++) {
+				Document document = new Document();
+				document.add(new StringField(STRING_FIELD, Integer.toString(id), Field.Store.NO));
+				document.add(new NumericDocValuesField(NUMERIC_FIELD, id));
+				writer.addDocument(document);
+			}
+		}
+		
+		Random random = new Random(42);
+		int[] values = new int[accessibleCount];
+		for (int i = 0; i < accessibleCount; i++) {
+			values[i] = random.nextInt(patientCount) + 1;
+		}
+		
+		final int[] ids = new IntSet(values).toArray();
+		try (DirectoryReader reader = DirectoryReader.open(directory)) {
+			System.out.println("Indexed patients: " + patientCount + ", accessible patients: " + ids.length);
+			run("TermsFilter", reader, () -> {
+				List<BytesRef> byteRefs = new ArrayList(ids.length);
+				for (int id : ids) {
+					byteRefs.add(new BytesRef(Integer.toString(id)));
+				}
+				
+				return new TermsFilter(STRING_FIELD, byteRefs);
+			});
+			
+			run("PatientIdDocValuesFilter", reader, () -> new PatientIdDocValuesFilter(NUMERIC_FIELD, ids));
+		}
+	}
+	
+	private static void run(String name, DirectoryReader reader, FilterFactory factory) throws IOException {
+		long matches = 0;
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			matches = countMatches(factory.create(), reader);
+		}
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			countMatches(factory.create(), reader);
+		}
+		
+		long averageMicros = (System.nanoTime() - start) / RUNS / 1000;
+		System.out.println(name + ": " + averageMicros + "us per run, " + matches + " matching documents");
+	}
+	
+	private static long countMatches(Filter filter, DirectoryReader reader) throws IOException {
+		long count = 0;
+		for (LeafReaderContext context : reader.leaves()) {
+			DocIdSet docIdSet = filter.getDocIdSet(context, context.reader().getLiveDocs());
+			if (docIdSet == null) {
+				continue;
+			}
+			
+			DocIdSetIterator iterator = docIdSet.iterator();
+			while (iterator.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	private interface FilterFactory {
+		
+		Filter create();
+		
+	}
+	
+}
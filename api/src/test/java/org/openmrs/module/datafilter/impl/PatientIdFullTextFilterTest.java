@@ -0,0 +1,70 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.lucene.search.Filter;
+import org.junit.After;
+import org.junit.Test;
+
+public class PatientIdFullTextFilterTest {
+	
+	private static final String FIELD = "person.personId";
+	
+	@After
+	public void afterEachMethod() {
+		FullTextFilterCache.clear();
+	}
+	
+	private Filter getFilter(String field, String accessKey, int... patientIds) {
+		PatientIdFullTextFilter fullTextFilter = new PatientIdFullTextFilter();
+		fullTextFilter.setField(field);
+		fullTextFilter.setAccessKey(accessKey);
+		fullTextFilter.setPatientIds(new IntSet(patientIds));
+		return fullTextFilter.getFilter();
+	}
+	
+	@Test
+	public void getFilter_shouldReturnTheCachedFilterForTheSameFieldAndAccessKey() {
+		final String accessKey = FullTextFilterCache.createAccessKey(1, 0, Arrays.asList("4000", "4001"));
+		Filter filter = getFilter(FIELD, accessKey, 1001, 1002);
+		assertSame(filter, getFilter(FIELD, accessKey, 1001, 1002));
+		assertSame(filter, FullTextFilterCache.get(FIELD, accessKey));
+	}
+	
+	@Test
+	public void getFilter_shouldNotShareFiltersAcrossFieldsOrAccessKeys() {
+		final String accessKey = FullTextFilterCache.createAccessKey(1, 0, Arrays.asList("4000"));
+		final String newAccessKey = FullTextFilterCache.createAccessKey(2, 0, Arrays.asList("4000"));
+		Filter filter = getFilter(FIELD, accessKey, 1001);
+		assertNotSame(filter, getFilter("patient.personId", accessKey, 1001));
+		assertNotSame(filter, getFilter(FIELD, newAccessKey, 1001));
+	}
+	
+	@Test
+	public void getFilter_shouldNotCacheTheFilterIfNoAccessKeyIsSet() {
+		assertNotSame(getFilter(FIELD, null, 1001), getFilter(FIELD, null, 1001));
+	}
+	
+	@Test
+	public void createAccessKey_shouldIgnoreTheOrderOfTheLocationIds() {
+		assertEquals(FullTextFilterCache.createAccessKey(3, 7, Arrays.asList("4002", "4000", "4001")),
+		    FullTextFilterCache.createAccessKey(3, 7, Arrays.asList("4001", "4002", "4000")));
+		assertNotEquals(FullTextFilterCache.createAccessKey(3, 7, Arrays.asList("4000")),
+		    FullTextFilterCache.createAccessKey(3, 8, Arrays.asList("4000")));
+	}
+	
+}
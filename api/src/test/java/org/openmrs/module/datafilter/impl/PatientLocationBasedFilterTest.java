@@ -132,6 +132,28 @@ public class PatientLocationBasedFilterTest extends BaseFilterTest {
 		assertTrue(TestUtil.containsId(patients, 1503));
 	}
 	
+	@Test
+	public void getPatients_shouldReturnPatientsByNameAccessibleToTheUserOnceTheIndexHasTheLocationIds() {
+		Context.getAdministrationService().setGlobalProperty(ImplConstants.GP_FULL_TEXT_LOCATION_INDEX_VERSION,
+		    ImplConstants.FULL_TEXT_LOCATION_INDEX_VERSION);
+		reloginAs("dyorke", "test");
+		int expCount = 2;
+		assertEquals(expCount, patientService.getCountOfPatients(PATIENT_NAME).intValue());
+		Collection<Patient> patients = patientService.getPatients(PATIENT_NAME);
+		assertEquals(expCount, patients.size());
+		assertTrue(TestUtil.containsId(patients, 1501));
+		assertTrue(TestUtil.containsId(patients, 1503));
+		
+		service.grantAccess(Context.getAuthenticatedUser(), new Location(4001));
+		expCount = 3;
+		assertEquals(expCount, patientService.getCountOfPatients(PATIENT_NAME).intValue());
+		patients = patientService.getPatients(PATIENT_NAME);
+		assertEquals(expCount, patients.size());
+		assertTrue(TestUtil.containsId(patients, 1501));
+		assertTrue(TestUtil.containsId(patients, 1502));
+		assertTrue(TestUtil.containsId(patients, 1503));
+	}
+	
 	@Test
 	public void getPatients_shouldReturnPatientsByIdentifierAccessibleToTheUser() {
 		reloginAs("dyorke", "test");
@@ -10,13 +10,20 @@
 package org.openmrs.module.datafilter.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.stream.Collectors;
 
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Program;
 import org.openmrs.Role;
 import org.openmrs.User;
@@ -37,6 +44,9 @@ public class UserProgramBasedFilterTest extends BaseProgramBasedFilterTest {
 	@Autowired
 	private DataFilterService service;
 	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
 	@Before
 	public void before() {
 		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "persons.xml");
@@ -73,6 +83,24 @@ public class UserProgramBasedFilterTest extends BaseProgramBasedFilterTest {
 		assertTrue(TestUtil.containsId(users, 10006));
 	}
 	
+	@Test
+	public void getUsers_shouldMatchTheRolesAndProgramsOfUsersIfMoreUsersAreHiddenThanTheThreshold() {
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(ImplConstants.GP_HIDDEN_USER_ID_LIST_THRESHOLD, "1"));
+		reloginAs("smulemba", "test");
+		assertTrue(ProgramRoleIndex.getHiddenUserIds(Collections.emptySet()).size() > 1);
+		Context.addProxyPrivilege(PrivilegeConstants.GET_USERS);
+		Collection<User> users = getUsers();
+		Context.removeProxyPrivilege(PrivilegeConstants.GET_USERS);
+		assertEquals(2, users.size());
+		assertTrue(TestUtil.containsId(users, 10005));
+		assertTrue(TestUtil.containsId(users, 10006));
+		Session session = sessionFactory.getCurrentSession();
+		assertNull(session.getEnabledFilter(ImplConstants.PROGRAM_BASED_FILTER_NAME_USER));
+		assertNotNull(session.getEnabledFilter(
+		    ImplConstants.PROGRAM_BASED_FILTER_NAME_USER + "_" + ImplConstants.STRATEGY_PROGRAM_ROLES));
+	}
+	
 	@Test
 	public void getUsers_shouldReturnUsersWithAccessToTheSameProgramsAsTheAuthenticatedUser() {
 		reloginAs("cmulemba", "test");
@@ -103,6 +131,21 @@ public class UserProgramBasedFilterTest extends BaseProgramBasedFilterTest {
 		assertTrue(TestUtil.containsId(users, 10007));
 	}
 	
+	@Test
+	public void getUsers_shouldIncludeAUserThatIsGrantedARoleInTheSameProgramAsTheAuthenticatedUser() {
+		reloginAs("cmulemba", "test");
+		assertFalse(TestUtil.containsId(getUsers(), 10003));
+		
+		reloginAs("admin", "test");
+		User user = userService.getUser(10003);
+		user.addRole(userService.getRole(ROLE_COORDINATOR_PROG_1));
+		userService.saveUser(user);
+		Context.flushSession();
+		
+		reloginAs("cmulemba", "test");
+		assertTrue(TestUtil.containsId(getUsers(), 10003));
+	}
+	
 	@Test
 	public void getUsers_shouldReturnAllUsersIfTheAuthenticatedUserIsASuperUser() {
 		assertTrue(Context.getAuthenticatedUser().isSuperUser());
@@ -17,6 +17,7 @@ import java.util.Collections;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
@@ -69,6 +70,18 @@ public class VisitLocationBasedFilterTest extends BaseFilterTest {
 		assertTrue(TestUtil.containsId(visits, 1002));
 	}
 	
+	@Test
+	public void getVisits_shouldReturnVisitsRecordedAtLocationsAccessibleToTheUserInEncounterLocationMode() {
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(ImplConstants.GP_ENCOUNTER_LOCATION_MODE_ENABLED, "true"));
+		//The patient is still linked to a location accessible to the user but the visit is recorded elsewhere
+		Context.getAdministrationService().executeSQL("UPDATE visit SET location_id = 4001 WHERE visit_id = 1001", false);
+		reloginAs("dyorke", "test");
+		Collection<Visit> visits = getVisits();
+		assertEquals(1, visits.size());
+		assertTrue(TestUtil.containsId(visits, 1000));
+	}
+	
 	@Test
 	public void getVisits_shouldReturnAllVisitsIfTheAuthenticatedUserIsASuperUser() {
 		assertTrue(Context.getAuthenticatedUser().isSuperUser());
@@ -13,8 +13,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -23,20 +26,36 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Location;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Program;
 import org.openmrs.User;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.datafilter.DataFilterSessionContext;
+import org.openmrs.module.datafilter.FilterSnapshot;
+import org.openmrs.module.datafilter.FilterSnapshotCache;
+import org.openmrs.module.datafilter.FilterSnapshotKey;
 import org.openmrs.module.datafilter.TestConstants;
 import org.openmrs.module.datafilter.impl.BaseFilterTest;
 import org.openmrs.module.datafilter.impl.EntityBasisMap;
+import org.openmrs.util.DatabaseUtil;
 import org.powermock.reflect.Whitebox;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
 public class DataFilterServiceTest extends BaseFilterTest {
 	
 	@Autowired
 	private DataFilterService service;
 	
+	private boolean isPatientLocationLinked(Patient patient, Location location) {
+		flushSession();
+		List<List<Object>> rows = DatabaseUtil.executeSQL(getConnection(), "SELECT patient_id FROM " + MODULE_ID
+		        + "_patient_location WHERE location_id = " + location.getId() + " AND patient_id = " + patient.getId(),
+		    true);
+		
+		return !rows.isEmpty();
+	}
+	
 	@Before
 	public void beforeTestMethod() {
 		executeDataSet(TestConstants.MODULE_TEST_DATASET_XML);
@@ -112,6 +131,45 @@ public class DataFilterServiceTest extends BaseFilterTest {
 		}
 	}
 	
+	@Test
+	public void revokeAccess_shouldDiscardSnapshotsCachedFromThePreviousAssignmentsAfterTheTransactionCommits() {
+		User user = Context.getUserService().getUser(3000);
+		service.revokeAccess(user, new Location(4000));
+		//Another thread could cache a snapshot read from the assignments committed before the revocation
+		FilterSnapshotKey key = FilterSnapshotCache.createKey(user);
+		FilterSnapshotCache.put(key, new FilterSnapshot(Collections.emptyMap()));
+		assertNotNull(FilterSnapshotCache.get(key));
+		
+		TransactionSynchronizationUtils.triggerAfterCommit();
+		
+		assertNull(FilterSnapshotCache.get(key));
+		assertNull(FilterSnapshotCache.get(FilterSnapshotCache.createKey(user)));
+	}
+	
+	@Test
+	public void grantAccess_shouldLinkThePatientToTheLocationInThePatientLocationTable() {
+		Patient patient = new Patient(1001);
+		Location location = new Location(4001);
+		assertFalse(isPatientLocationLinked(patient, location));
+		
+		service.grantAccess(patient, location);
+		
+		assertTrue(service.hasAccess(patient, location));
+		assertTrue(isPatientLocationLinked(patient, location));
+	}
+	
+	@Test
+	public void revokeAccess_shouldUnlinkThePatientFromTheLocationInThePatientLocationTable() {
+		Patient patient = new Patient(1001);
+		Location location = new Location(4000);
+		assertTrue(isPatientLocationLinked(patient, location));
+		
+		service.revokeAccess(patient, location);
+		
+		assertFalse(service.hasAccess(patient, location));
+		assertFalse(isPatientLocationLinked(patient, location));
+	}
+	
 	@Test
 	public void get_shouldGetAllEntityBasisForAnEntityForABasisType() {
 		User user = new User(3000);
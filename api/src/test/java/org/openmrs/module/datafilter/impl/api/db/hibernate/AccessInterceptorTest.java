@@ -10,11 +10,18 @@
 package org.openmrs.module.datafilter.impl.api.db.hibernate;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.openmrs.module.datafilter.DataFilterConstants.BYPASS_PRIV_SUFFIX;
 import static org.openmrs.module.datafilter.impl.ImplConstants.ENC_TYPE_PRIV_BASED_FILTER_NAME_ENCOUNTER;
 import static org.openmrs.module.datafilter.impl.ImplConstants.ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX;
@@ -23,15 +30,21 @@ import static org.openmrs.module.datafilter.impl.ImplConstants.LOCATION_BASED_FI
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.type.ManyToOneType;
 import org.hibernate.type.Type;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
@@ -52,14 +65,17 @@ import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.Daemon;
 import org.openmrs.module.datafilter.DataFilterConstants;
+import org.openmrs.module.datafilter.GlobalPropertyCache;
 import org.openmrs.module.datafilter.Util;
 import org.openmrs.module.datafilter.impl.AccessUtil;
 import org.openmrs.module.datafilter.impl.ImplConstants;
+import org.openmrs.module.datafilter.impl.IntSet;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ AccessUtil.class, Util.class, Context.class, Daemon.class })
+@PrepareForTest({ AccessUtil.class, Util.class, Context.class, Daemon.class, GlobalPropertyCache.class })
 public class AccessInterceptorTest {
 	
 	private AccessInterceptor interceptor = new AccessInterceptor();
@@ -69,11 +85,26 @@ public class AccessInterceptorTest {
 	
 	private AdministrationService adminService = null;
 	
+	@After
+	public void afterEachMethod() {
+		interceptor.afterTransactionCompletion(null);
+		Whitebox.setInternalState(DeferredAccessCheckListener.class, "registered", false);
+	}
+	
+	private void deferVerification() {
+		Whitebox.setInternalState(DeferredAccessCheckListener.class, "registered", true);
+		when(GlobalPropertyCache.getValue(eq(ImplConstants.GP_STRICT_MODE_VERIFICATION)))
+		        .thenReturn(ImplConstants.STRICT_MODE_VERIFICATION_DEFERRED);
+	}
+	
 	@Before
 	public void beforeEachMethod() {
 		mockStatic(Context.class);
 		mockStatic(AccessUtil.class);
 		mockStatic(Util.class);
+		mockStatic(GlobalPropertyCache.class);
+		//Not loaded, so that the values are read via GlobalPropertyCache.getValue
+		when(GlobalPropertyCache.getLoadedValues()).thenReturn(null);
 		adminService = mock(AdministrationService.class);
 		when(Context.getAdministrationService()).thenReturn(adminService);
 		SessionFactory sf = mock(SessionFactory.class);
@@ -88,9 +119,9 @@ public class AccessInterceptorTest {
 	public void onLoad_shouldFailWithAnExceptionIfTheAuthenticatedUserIsNotAllowedToViewThePatientGettingLoaded() {
 		final Integer userId = 1;
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of("1", "4").collect(Collectors.toSet());
+		IntSet accessiblePatientIds = new IntSet(new int[] { 1, 4 });
 		when(Context.getAuthenticatedUser()).thenReturn(new User(userId));
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		ee.expect(ContextAuthenticationException.class);
 		ee.expectMessage(equalTo(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE));
 		interceptor.onLoad(new Patient(), patientId, null, null, null);
@@ -100,9 +131,9 @@ public class AccessInterceptorTest {
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewThePatientGettingLoaded() {
 		final Integer userId = 1;
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntSet accessiblePatientIds = new IntSet(new int[] { patientId });
 		when(Context.getAuthenticatedUser()).thenReturn(new User(userId));
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Patient(), patientId, null, null, null);
 	}
 	
@@ -133,7 +164,7 @@ public class AccessInterceptorTest {
 	
 	@Test
 	public void onLoad_shouldPassIfTheInterceptorIsDisabled() {
-		when(adminService.getGlobalProperty(eq(ImplConstants.GP_RUN_IN_STRICT_MODE))).thenReturn("false");
+		when(GlobalPropertyCache.getValue(eq(ImplConstants.GP_RUN_IN_STRICT_MODE))).thenReturn("false");
 		interceptor.onLoad(new Patient(), null, null, null, null);
 	}
 	
@@ -232,6 +263,61 @@ public class AccessInterceptorTest {
 		    new Type[] { new ManyToOneType(null, null) });
 	}
 	
+	@Test
+	public void onLoad_shouldLookUpTheEncounterTypesOfAllTheObsOfALoadAtOnceIfTheEncTypesAreNotYetLoaded() {
+		Whitebox.setInternalState(DeferredAccessCheckListener.class, "registered", true);
+		User user = mock(User.class);
+		when(Context.getAuthenticatedUser()).thenReturn(user);
+		when(Util.isFilterDisabled(startsWith(LOCATION_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
+		Map<Integer, Integer> encIdAndTypeIdMap = new HashMap();
+		encIdAndTypeIdMap.put(1000, 5000);
+		encIdAndTypeIdMap.put(1001, 5001);
+		when(AccessUtil.getEncounterTypeIdsForEncounters(Matchers.eq(Stream.of(1000, 1001).collect(Collectors.toSet()))))
+		        .thenReturn(encIdAndTypeIdMap).thenThrow(new AssertionError("The encounter types should be looked up once"));
+		when(AccessUtil.getEncounterTypeId(Matchers.any()))
+		        .thenThrow(new AssertionError("The encounter types should not be looked up individually"));
+		when(AccessUtil.getViewPrivilege(Matchers.eq(5000))).thenReturn(null);
+		when(AccessUtil.getViewPrivilege(Matchers.eq(5001))).thenReturn("Some Privilege");
+		when(user.hasPrivilege(Matchers.eq("Some Privilege"))).thenReturn(true);
+		final String[] propertyNames = new String[] { "encounter" };
+		
+		interceptor.onLoad(new Obs(), 1, new Object[] { new Encounter(1000) }, propertyNames, null);
+		interceptor.onLoad(new Obs(), 2, new Object[] { new Encounter(1001) }, propertyNames, null);
+		interceptor.onLoad(new Obs(), 3, new Object[] { new Encounter(1000) }, propertyNames, null);
+		DeferredAccessChecks.verify();
+		
+		//The looked up encounter types are not kept beyond the load
+		assertNull(((ThreadLocal) Whitebox.getInternalState(DeferredAccessChecks.class, "checksHolder")).get());
+	}
+	
+	@Test
+	public void onLoad_shouldRegisterTheVerificationProcessOncePerTransactionForObsWithUnloadedEncTypes() {
+		Whitebox.setInternalState(DeferredAccessCheckListener.class, "registered", true);
+		EventSource session = mock(EventSource.class);
+		ActionQueue actionQueue = mock(ActionQueue.class);
+		when(session.getActionQueue()).thenReturn(actionQueue);
+		SessionFactory sf = mock(SessionFactory.class);
+		when(sf.getCurrentSession()).thenReturn(session);
+		when(Context.getRegisteredComponents(eq(SessionFactory.class))).thenReturn(Collections.singletonList(sf));
+		when(Context.getAuthenticatedUser()).thenReturn(mock(User.class));
+		when(Util.isFilterDisabled(startsWith(LOCATION_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
+		when(AccessUtil.getEncounterTypeIdsForEncounters(Matchers.any())).thenReturn(Collections.singletonMap(1000, 5000));
+		when(AccessUtil.getViewPrivilege(Matchers.eq(5000))).thenReturn(null);
+		final String[] propertyNames = new String[] { "encounter" };
+		
+		//Each load is followed by its post load verification in the same transaction
+		for (int i = 1; i <= 3; i++) {
+			interceptor.onLoad(new Obs(), i, new Object[] { new Encounter(1000) }, propertyNames, null);
+			DeferredAccessChecks.verify();
+		}
+		
+		verify(actionQueue, times(1)).registerProcess(Matchers.any(BeforeTransactionCompletionProcess.class));
+		
+		interceptor.afterTransactionCompletion(null);
+		interceptor.onLoad(new Obs(), 4, new Object[] { new Encounter(1000) }, propertyNames, null);
+		verify(actionQueue, times(2)).registerProcess(Matchers.any(BeforeTransactionCompletionProcess.class));
+	}
+	
 	@Test
 	public void onLoad_shouldPassIfTheTheObsBelongsToNoEncounter() {
 		when(Util.isFilterDisabled(startsWith(LOCATION_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
@@ -251,29 +337,29 @@ public class AccessInterceptorTest {
 	@Test
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewThePatientVisitGettingLoaded() {
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntSet accessiblePatientIds = new IntSet(new int[] { patientId });
 		when(Context.getAuthenticatedUser()).thenReturn(new User());
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Visit(), null, new Object[] { new Patient(patientId) }, new String[] { "patient" }, null);
 	}
 	
 	@Test
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewThePatientEncounterGettingLoaded() {
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntSet accessiblePatientIds = new IntSet(new int[] { patientId });
 		when(Util.isFilterDisabled(startsWith(ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
 		when(Context.getAuthenticatedUser()).thenReturn(new User());
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Encounter(), null, new Object[] { new Patient(101) }, new String[] { "patient" }, null);
 	}
 	
 	@Test
 	public void onLoad_shouldPassIfTheAuthenticatedUserIsAllowedToViewTheObsGettingLoaded() {
 		final Integer patientId = 101;
-		Collection<String> accessiblePatientIds = Stream.of(patientId.toString()).collect(Collectors.toSet());
+		IntSet accessiblePatientIds = new IntSet(new int[] { patientId });
 		when(Util.isFilterDisabled(startsWith(ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
 		when(Context.getAuthenticatedUser()).thenReturn(new User());
-		when(AccessUtil.getAccessiblePersonIds(eq(Location.class))).thenReturn(accessiblePatientIds);
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(accessiblePatientIds);
 		interceptor.onLoad(new Obs(), null, new Object[] { new Patient(patientId) }, new String[] { "person" }, null);
 	}
 	
@@ -285,4 +371,119 @@ public class AccessInterceptorTest {
 		interceptor.onLoad(new Encounter(), null, null, null, null);
 	}
 	
+	@Test
+	public void onLoad_shouldSkipAllChecksForAnEntityTypeThatIsNotFiltered() {
+		mockStatic(Daemon.class);
+		when(Daemon.isDaemonThread()).thenThrow(new AssertionError("Unfiltered types should exit immediately"));
+		when(Context.getAuthenticatedUser()).thenThrow(new AssertionError("Unfiltered types should exit immediately"));
+		assertFalse(interceptor.onLoad(new Location(), 1, null, new String[] { "name" }, null));
+	}
+	
+	@Test
+	public void onLoad_shouldRecompileThePlanIfThePropertyNamesDoNotMatch() {
+		final Integer patientId = 101;
+		final Integer encounterTypeId = 5000;
+		when(Context.getAuthenticatedUser()).thenReturn(new User());
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(new IntSet(new int[] { patientId }));
+		when(AccessUtil.getViewPrivilege(eq(encounterTypeId))).thenReturn(null);
+		Object[] state = new Object[] { new Patient(patientId), new EncounterType(encounterTypeId) };
+		interceptor.onLoad(new Encounter(), 1, state, new String[] { "patient", "encounterType" }, null);
+		
+		state = new Object[] { new EncounterType(encounterTypeId), new Patient(patientId) };
+		interceptor.onLoad(new Encounter(), 1, state, new String[] { "encounterType", "patient" }, null);
+	}
+	
+	@Test
+	public void onApplicationEvent_shouldCompileThePlansOfAllTheMappedEntityTypes() {
+		final String[] encPropertyNames = new String[] { "patient", "encounterType" };
+		ClassMetadata encMetadata = mock(ClassMetadata.class);
+		when(encMetadata.getMappedClass()).thenReturn((Class) Encounter.class);
+		when(encMetadata.getPropertyNames()).thenReturn(encPropertyNames);
+		ClassMetadata locationMetadata = mock(ClassMetadata.class);
+		when(locationMetadata.getMappedClass()).thenReturn((Class) Location.class);
+		when(locationMetadata.getPropertyNames()).thenReturn(new String[] { "name" });
+		Map<String, ClassMetadata> nameAndMetadataMap = new HashMap();
+		nameAndMetadataMap.put(Encounter.class.getName(), encMetadata);
+		nameAndMetadataMap.put(Location.class.getName(), locationMetadata);
+		SessionFactory sf = mock(SessionFactory.class);
+		when(sf.getAllClassMetadata()).thenReturn(nameAndMetadataMap);
+		when(Context.getRegisteredComponents(eq(SessionFactory.class))).thenReturn(Collections.singletonList(sf));
+		
+		interceptor.onApplicationEvent(null);
+		
+		Map<Class<?>, AccessCheckPlan> plans = Whitebox.getInternalState(interceptor, "plans");
+		assertEquals(2, plans.size());
+		assertEquals(AccessCheckPlan.NONE, plans.get(Location.class));
+		AccessCheckPlan encPlan = plans.get(Encounter.class);
+		assertTrue(encPlan.isCompiledFrom(encPropertyNames));
+		assertEquals(LOCATION_BASED_FILTER_NAME_ENCOUNTER, encPlan.getLocationFilterName());
+		assertEquals(ENC_TYPE_PRIV_BASED_FILTER_NAME_ENCOUNTER, encPlan.getEncTypeFilterName());
+		
+		when(Util.isFilterDisabled(anyString())).thenReturn(true);
+		when(Context.getAuthenticatedUser()).thenReturn(new User());
+		interceptor.onLoad(new Encounter(), 1, new Object[2], encPropertyNames, null);
+		assertSame(plans, Whitebox.getInternalState(interceptor, "plans"));
+	}
+	
+	@Test
+	public void onLoad_shouldOnlyFailWhenTheDeferredChecksAreVerifiedIfVerificationIsDeferred() {
+		deferVerification();
+		when(Context.getAuthenticatedUser()).thenReturn(new User(1));
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(new IntSet(new int[] { 101 }));
+		interceptor.onLoad(new Patient(), 101, null, null, null);
+		interceptor.onLoad(new Patient(), 102, null, null, null);
+		ee.expect(ContextAuthenticationException.class);
+		ee.expectMessage(equalTo(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE));
+		DeferredAccessChecks.verify();
+	}
+	
+	@Test
+	public void onLoad_shouldPassWhenTheDeferredChecksAreVerifiedIfTheUserIsAllowedToViewAllTheLoadedRecords() {
+		deferVerification();
+		when(Context.getAuthenticatedUser()).thenReturn(new User(1));
+		when(AccessUtil.getAccessiblePersonIdSet(eq(Location.class))).thenReturn(new IntSet(new int[] { 101, 102 }));
+		interceptor.onLoad(new Patient(), 101, null, null, null);
+		interceptor.onLoad(new Patient(), 102, null, null, null);
+		DeferredAccessChecks.verify();
+	}
+	
+	@Test
+	public void onLoad_shouldOnlyFailWhenTheDeferredChecksAreVerifiedInEncounterLocationModeIfVerificationIsDeferred() {
+		deferVerification();
+		when(GlobalPropertyCache.getValue(eq(ImplConstants.GP_ENCOUNTER_LOCATION_MODE_ENABLED))).thenReturn("true");
+		when(Context.getAuthenticatedUser()).thenReturn(new User(1));
+		when(Util.isFilterDisabled(startsWith(ENC_TYPE_PRIV_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
+		when(AccessUtil.getAccessibleLocationIdSet()).thenReturn(new IntSet(new int[] { 4000 }));
+		final String[] propertyNames = new String[] { "patient", "location" };
+		interceptor.onLoad(new Encounter(), 1, new Object[] { new Patient(101), new Location(4000) }, propertyNames, null);
+		interceptor.onLoad(new Encounter(), 2, new Object[] { new Patient(101), new Location(4001) }, propertyNames, null);
+		ee.expect(ContextAuthenticationException.class);
+		ee.expectMessage(equalTo(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE));
+		DeferredAccessChecks.verify();
+	}
+	
+	@Test
+	public void onLoad_shouldLookUpTheEncounterTypesForAllTheDeferredObsAtOnce() {
+		deferVerification();
+		User user = mock(User.class);
+		when(Context.getAuthenticatedUser()).thenReturn(user);
+		when(Util.isFilterDisabled(startsWith(LOCATION_BASED_FILTER_NAME_PREFIX))).thenReturn(true);
+		Map<Integer, Integer> encIdAndTypeIdMap = new HashMap();
+		encIdAndTypeIdMap.put(1000, 5000);
+		encIdAndTypeIdMap.put(1001, 5001);
+		when(AccessUtil.getEncounterTypeIdsForEncounters(Matchers.any())).thenReturn(encIdAndTypeIdMap)
+		        .thenThrow(new AssertionError("The encounter types should be looked up once"));
+		when(AccessUtil.getEncounterTypeId(Matchers.any()))
+		        .thenThrow(new AssertionError("The encounter types should not be looked up individually"));
+		when(AccessUtil.getViewPrivilege(Matchers.eq(5000))).thenReturn(null);
+		when(AccessUtil.getViewPrivilege(Matchers.eq(5001))).thenReturn("Some Privilege");
+		when(user.hasPrivilege(Matchers.eq("Some Privilege"))).thenReturn(false);
+		final String[] propertyNames = new String[] { "encounter" };
+		interceptor.onLoad(new Obs(), 1, new Object[] { new Encounter(1000) }, propertyNames, null);
+		interceptor.onLoad(new Obs(), 2, new Object[] { new Encounter(1001) }, propertyNames, null);
+		ee.expect(ContextAuthenticationException.class);
+		ee.expectMessage(equalTo(ImplConstants.ILLEGAL_RECORD_ACCESS_MESSAGE));
+		DeferredAccessChecks.verify();
+	}
+	
 }
@@ -0,0 +1,101 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.datafilter.impl.api.db.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.openmrs.module.datafilter.DataFilterConstants.MODULE_ID;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.datafilter.TestConstants;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.util.DatabaseUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class LocationClosureInterceptorTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private LocationService locationService;
+	
+	@Before
+	public void setup() {
+		executeDataSet(TestConstants.ROOT_PACKAGE_DIR + "locations.xml");
+	}
+	
+	private Set<Integer> getAncestorIds(Integer locationId) {
+		List<List<Object>> rows = DatabaseUtil.executeSQL(getConnection(),
+		    "SELECT ancestor_id FROM " + MODULE_ID + "_location_closure WHERE descendant_id = " + locationId, true);
+		
+		Set<Integer> ids = new HashSet();
+		for (List<Object> row : rows) {
+			ids.add(((Number) row.get(0)).intValue());
+		}
+		
+		return ids;
+	}
+	
+	private Location createLocation(String name, Location parent) {
+		Location location = new Location();
+		location.setName(name);
+		location.setParentLocation(parent);
+		return locationService.saveLocation(location);
+	}
+	
+	@Test
+	public void postFlush_shouldAddTheClosureRowsForANewLocation() {
+		Location location = createLocation("Kampala Nsambya 1 Clinic 3", locationService.getLocation(40003));
+		flushSession();
+		
+		Set<Integer> ancestorIds = getAncestorIds(location.getId());
+		assertEquals(3, ancestorIds.size());
+		assertTrue(ancestorIds.contains(location.getId()));
+		assertTrue(ancestorIds.contains(40003));
+		assertTrue(ancestorIds.contains(40000));
+	}
+	
+	@Test
+	public void postFlush_shouldMoveTheLocationAndItsDescendantsWhenTheParentChanges() {
+		Location location = locationService.getLocation(40003);
+		location.setParentLocation(locationService.getLocation(40002));
+		locationService.saveLocation(location);
+		flushSession();
+		
+		Set<Integer> ancestorIds = getAncestorIds(40003);
+		assertEquals(2, ancestorIds.size());
+		assertTrue(ancestorIds.contains(40003));
+		assertTrue(ancestorIds.contains(40002));
+		ancestorIds = getAncestorIds(40006);
+		assertEquals(3, ancestorIds.size());
+		assertTrue(ancestorIds.contains(40006));
+		assertTrue(ancestorIds.contains(40003));
+		assertTrue(ancestorIds.contains(40002));
+		//Other descendants of the old parent should not be affected
+		ancestorIds = getAncestorIds(40008);
+		assertEquals(3, ancestorIds.size());
+		assertTrue(ancestorIds.contains(40000));
+	}
+	
+	@Test
+	public void postFlush_shouldRemoveTheClosureRowsForADeletedLocation() {
+		locationService.purgeLocation(locationService.getLocation(40008));
+		flushSession();
+		
+		assertEquals(0, getAncestorIds(40008).size());
+		assertEquals(2, getAncestorIds(40004).size());
+	}
+	
+}